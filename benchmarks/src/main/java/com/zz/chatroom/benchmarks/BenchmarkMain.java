@@ -0,0 +1,22 @@
+package com.zz.chatroom.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 描述: 基准入口，命令行参数与 org.openjdk.jmh.Main 相同，并固定加上 gc 分配分析，
+ *      每个基准都会输出 gc.alloc.rate.norm（每次操作分配的字节数），改动热点代码前后可以直接对比。
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
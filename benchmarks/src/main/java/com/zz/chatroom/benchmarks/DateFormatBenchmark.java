@@ -0,0 +1,77 @@
+package com.zz.chatroom.benchmarks;
+
+import com.zz.chatroom.util.DateFormatUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 描述: 消息发送时间的格式化，4 个线程并发，模拟多个业务线程同时推送消息
+ *      sharedSimpleDateFormat：早期各处共享的静态 SimpleDateFormat，这里加了锁（不加锁并发 format 结果会错乱）；
+ *      newSimpleDateFormat：每次新建 SimpleDateFormat；
+ *      threadLocalSimpleDateFormat：每个线程一个 SimpleDateFormat；
+ *      dateFormatUtilsNow：当前使用的 DateFormatUtils，同一秒内复用缓存的字符串；
+ *      dateFormatUtilsHistory：DateFormatUtils 格式化历史时间（离线消息），每次都不命中缓存。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class DateFormatBenchmark {
+
+    private static final String PATTERN = "yyyy-MM-dd HH:mm:ss";
+
+    private final SimpleDateFormat shared = new SimpleDateFormat(PATTERN);
+
+    private final ThreadLocal<SimpleDateFormat> threadLocal = ThreadLocal.withInitial(() -> new SimpleDateFormat(PATTERN));
+
+    @State(Scope.Thread)
+    public static class History {
+        /**
+         * 从一天前开始每次前进 1.1 秒，保证相邻两次不在同一秒
+         */
+        long millis = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+    }
+
+    @Benchmark
+    public String sharedSimpleDateFormat() {
+        synchronized (shared) {
+            return shared.format(new Date());
+        }
+    }
+
+    @Benchmark
+    public String newSimpleDateFormat() {
+        return new SimpleDateFormat(PATTERN).format(new Date());
+    }
+
+    @Benchmark
+    public String threadLocalSimpleDateFormat() {
+        return threadLocal.get().format(new Date());
+    }
+
+    @Benchmark
+    public String dateFormatUtilsNow() {
+        return DateFormatUtils.now();
+    }
+
+    @Benchmark
+    public String dateFormatUtilsHistory(History history) {
+        history.millis += 1100L;
+        return DateFormatUtils.format(history.millis);
+    }
+}
@@ -0,0 +1,141 @@
+package com.zz.chatroom.benchmarks;
+
+import com.zz.chatroom.util.FileType;
+import com.zz.chatroom.util.FileTypeSniffer;
+import com.zz.chatroom.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 描述: 文件上传路径上的 FileUtils
+ *      getFileType：打开文件读文件头再识别，file 为 jpg / png / 未知类型三种临时文件；
+ *      sniff：上传时在已读到的缓冲区上识别（不打开文件），OOXML 为最长的模式，需要走完 zip 条目头；
+ *      getFormatSize：格式化文件大小，size 覆盖 B、KB、MB、GB 四档。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileUtilsBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class FileState {
+
+        @Param({"jpg", "png", "unknown"})
+        public String file;
+
+        private Path path;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            byte[] content = new byte[4096];
+            switch (file) {
+                case "jpg":
+                    content[0] = (byte) 0xFF;
+                    content[1] = (byte) 0xD8;
+                    content[2] = (byte) 0xFF;
+                    break;
+                case "png":
+                    content[0] = (byte) 0x89;
+                    content[1] = 'P';
+                    content[2] = 'N';
+                    content[3] = 'G';
+                    content[4] = 0x0D;
+                    content[5] = 0x0A;
+                    content[6] = 0x1A;
+                    content[7] = 0x0A;
+                    break;
+                default:
+                    content[0] = 'h';
+                    content[1] = 'i';
+                    break;
+            }
+            path = Files.createTempFile("file-utils-", "." + file);
+            Files.write(path, content);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class HeaderState {
+
+        @Param({"jpg", "mp4", "docx", "unknown"})
+        public String file;
+
+        private byte[] header;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            header = new byte[FileTypeSniffer.HEADER_LENGTH];
+            switch (file) {
+                case "jpg":
+                    header[0] = (byte) 0xFF;
+                    header[1] = (byte) 0xD8;
+                    header[2] = (byte) 0xFF;
+                    break;
+                case "mp4":
+                    header[3] = 0x20;
+                    ascii(header, 4, "ftypisom");
+                    break;
+                case "docx":
+                    ascii(header, 0, "PK");
+                    header[2] = 3;
+                    header[3] = 4;
+                    ascii(header, 30, "[Content_Types].xml");
+                    break;
+                default:
+                    ascii(header, 0, "hello world");
+                    break;
+            }
+        }
+
+        private static void ascii(byte[] header, int offset, String text) {
+            for (int i = 0; i < text.length(); i++) {
+                header[offset + i] = (byte) text.charAt(i);
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SizeState {
+
+        @Param({"512", "204800", "52428800", "3221225472"})
+        public long size;
+    }
+
+    @Benchmark
+    public String getFileType(FileState state) {
+        return FileUtils.getFileType(state.path.toString());
+    }
+
+    @Benchmark
+    public FileType sniff(HeaderState state) {
+        return FileTypeSniffer.sniff(state.header, 0, state.header.length);
+    }
+
+    @Benchmark
+    public String getFormatSize(SizeState state) {
+        return FileUtils.getFormatSize(state.size);
+    }
+}
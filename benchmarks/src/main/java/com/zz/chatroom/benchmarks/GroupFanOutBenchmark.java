@@ -0,0 +1,175 @@
+package com.zz.chatroom.benchmarks;
+
+import com.zz.chatroom.util.ChatEvent;
+import com.zz.chatroom.util.ChatEventWriter;
+import com.zz.chatroom.util.ChatType;
+import com.zz.chatroom.util.ResponseJson;
+import com.zz.chatroom.web.websocket.GroupChannelManager;
+import com.zz.chatroom.web.websocket.SessionRegistry;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 描述: 群消息扇出，群成员数 members 个，全部在线
+ *      连接使用 Netty 的 LocalChannel，不经过网卡，只衡量服务端查找连接、编码与写出的开销，
+ *      每次操作等到所有成员都读到消息才结束。
+ *      perMemberEncode：按成员id 逐个从在线表取连接，每个连接单独构造 ResponseJson、toString 并 writeAndFlush，
+ *                       即早期 ChatServiceImpl 遍历 onlineUserMap 的做法；
+ *      channelGroupBroadcast：当前 groupSend 的做法，ChatEventWriter 编码一次，GroupChannelManager 按 EventLoop 批量写出。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GroupFanOutBenchmark {
+
+    private static final Integer GROUP_ID = 1;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int members;
+
+    @Param({"1", "4"})
+    public int eventLoops;
+
+    private EventLoopGroup eventLoopGroup;
+    private Channel serverChannel;
+    private final List<Channel> clientChannels = new ArrayList<>();
+    private final SessionRegistry sessionRegistry = new SessionRegistry();
+    private final GroupChannelManager groupChannelManager = new GroupChannelManager();
+    private final Set<String> memberIds = new LinkedHashSet<>();
+
+    private final AtomicLong received = new AtomicLong();
+    private long expected;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        eventLoopGroup = new DefaultEventLoopGroup(eventLoops);
+        LocalAddress address = new LocalAddress("fan-out-" + System.nanoTime());
+        ConcurrentLinkedQueue<Channel> accepted = new ConcurrentLinkedQueue<>();
+        serverChannel = new ServerBootstrap()
+                .group(eventLoopGroup)
+                .channel(LocalServerChannel.class)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childHandler(new ChannelInitializer<LocalChannel>() {
+                    @Override
+                    protected void initChannel(LocalChannel ch) {
+                        accepted.add(ch);
+                    }
+                })
+                .bind(address).sync().channel();
+
+        Bootstrap bootstrap = new Bootstrap()
+                .group(eventLoopGroup)
+                .channel(LocalChannel.class)
+                .handler(new CountingHandler());
+        for (int i = 0; i < members; i++) {
+            clientChannels.add(bootstrap.connect(address).sync().channel());
+        }
+        while (accepted.size() < members) {
+            Thread.sleep(1);
+        }
+        int userId = 100000;
+        for (Channel channel : accepted) {
+            String memberId = String.valueOf(userId++);
+            memberIds.add(memberId);
+            sessionRegistry.register(memberId, channel);
+            groupChannelManager.join(channel, Collections.singleton(GROUP_ID));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (Channel channel : clientChannels) {
+            channel.close();
+        }
+        serverChannel.close();
+        eventLoopGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    @Benchmark
+    public long perMemberEncode() {
+        expected += members;
+        for (String memberId : memberIds) {
+            for (Channel channel : sessionRegistry.getChannels(memberId)) {
+                ResponseJson response = new ResponseJson().success()
+                        .setData("type", ChatType.GROUP_SENDING)
+                        .setData("fromUserId", 1001)
+                        .setData("fromUserName", "Kanarien")
+                        .setData("toGroupId", GROUP_ID)
+                        .setData("sendTime", "2019-11-05 20:15:30")
+                        .setData("content", "大家晚上好");
+                channel.writeAndFlush(new TextWebSocketFrame(response.toString()));
+            }
+        }
+        return awaitDelivered();
+    }
+
+    @Benchmark
+    public long channelGroupBroadcast() {
+        expected += members;
+        ChatEvent event = new ChatEvent(ChatType.GROUP_SENDING)
+                .setFromUserId(1001)
+                .setFromUserName("Kanarien")
+                .setToGroupId(GROUP_ID)
+                .setSendTime("2019-11-05 20:15:30")
+                .setContent("大家晚上好")
+                .setSeq(expected);
+        groupChannelManager.broadcast(GROUP_ID, ChatEventWriter.write(PooledByteBufAllocator.DEFAULT, event), null);
+        return awaitDelivered();
+    }
+
+    private long awaitDelivered() {
+        long count;
+        while ((count = received.get()) < expected) {
+            Thread.yield();
+        }
+        return count;
+    }
+
+    @Sharable
+    private final class CountingHandler extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ReferenceCountUtil.release(msg);
+            received.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.zz.chatroom.benchmarks;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.zz.chatroom.common.metrics.MetricsRegistry;
+import com.zz.chatroom.util.ChatCommand;
+import com.zz.chatroom.web.websocket.ChatCommandDecoder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.util.CharsetUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.CharsetDecoder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 描述: 客户端发来的文本帧解析
+ *      textToJsonObject：frame.text() 拷贝成 String，再解析成通用 JSONObject 并逐个取字段，即早期 WebSocketServerHandler 的做法；
+ *      bytesToChatCommand：直接从 ByteBuf 的字节解析成 ChatCommand，与 ChatCommandDecoder 的核心调用相同；
+ *      chatCommandDecoder：经过 EmbeddedChannel 走完整的 ChatCommandDecoder，含校验与 pipeline 开销。
+ *      heap=false 时帧内容在直接内存中，与线上 Netty 读到的 ByteBuf 一致。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InboundFrameParseBenchmark {
+
+    private static final String SINGLE_SENDING = "{\"type\":\"SINGLE_SENDING\",\"fromUserId\":1001,"
+            + "\"fromUserName\":\"Kanarien\",\"toUserId\":1002,"
+            + "\"content\":\"今天晚上一起吃饭吗？Let's meet at 7pm.\"}";
+
+    @Param({"true", "false"})
+    public boolean heap;
+
+    private ByteBuf content;
+    private byte[] bytes = new byte[1024];
+    private final CharsetDecoder decoder = CharsetUtil.UTF_8.newDecoder();
+    private EmbeddedChannel channel;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        byte[] utf8 = SINGLE_SENDING.getBytes(CharsetUtil.UTF_8);
+        content = heap ? PooledByteBufAllocator.DEFAULT.heapBuffer(utf8.length)
+                : PooledByteBufAllocator.DEFAULT.directBuffer(utf8.length);
+        content.writeBytes(utf8);
+        ChatCommandDecoder chatCommandDecoder = new ChatCommandDecoder();
+        chatCommandDecoder.setMetricsRegistry(new MetricsRegistry());
+        channel = new EmbeddedChannel(chatCommandDecoder);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        content.release();
+        channel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public int textToJsonObject() {
+        TextWebSocketFrame frame = new TextWebSocketFrame(content.retainedDuplicate());
+        try {
+            JSONObject param = JSON.parseObject(frame.text());
+            String type = param.get("type").toString();
+            int fromUserId = Integer.parseInt(param.get("fromUserId").toString());
+            int toUserId = Integer.parseInt(param.get("toUserId").toString());
+            String text = param.get("content").toString();
+            return type.length() + fromUserId + toUserId + text.length();
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Benchmark
+    public ChatCommand bytesToChatCommand() {
+        int length = content.readableBytes();
+        byte[] array;
+        int offset;
+        if (content.hasArray()) {
+            array = content.array();
+            offset = content.arrayOffset() + content.readerIndex();
+        } else {
+            content.getBytes(content.readerIndex(), bytes, 0, length);
+            array = bytes;
+            offset = 0;
+        }
+        decoder.reset();
+        return JSON.parseObject(array, offset, length, decoder, ChatCommand.class);
+    }
+
+    @Benchmark
+    public Object chatCommandDecoder() {
+        channel.writeInbound(new TextWebSocketFrame(content.retainedDuplicate()));
+        return channel.readInbound();
+    }
+}
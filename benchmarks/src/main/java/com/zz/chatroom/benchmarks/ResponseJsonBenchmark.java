@@ -0,0 +1,72 @@
+package com.zz.chatroom.benchmarks;
+
+import com.zz.chatroom.util.ChatEvent;
+import com.zz.chatroom.util.ChatEventWriter;
+import com.zz.chatroom.util.ChatType;
+import com.zz.chatroom.util.ResponseJson;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 描述: 一条单聊消息的响应构造与序列化
+ *      responseJson：ResponseJson 逐个 put 再 toString()，即 HTTP 接口与早期 WebSocket 推送的做法；
+ *      responseJsonBuildOnly：只构造不序列化，单独看 HashMap 的开销；
+ *      chatEventWriter：当前 WebSocket 推送使用的 ChatEvent 直接写 ByteBuf。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseJsonBenchmark {
+
+    private final ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+
+    private final String content = "今天晚上一起吃饭吗？Let's meet at 7pm.";
+
+    @Benchmark
+    public ResponseJson responseJsonBuildOnly() {
+        return build();
+    }
+
+    @Benchmark
+    public String responseJson() {
+        return build().toString();
+    }
+
+    @Benchmark
+    public int chatEventWriter() {
+        ByteBuf buf = ChatEventWriter.write(alloc, new ChatEvent(ChatType.SINGLE_SENDING)
+                .setFromUserId(1001)
+                .setFromUserName("Kanarien")
+                .setSendTime("2019-11-05 20:15:30")
+                .setContent(content)
+                .setSeq(42L));
+        int length = buf.readableBytes();
+        buf.release();
+        return length;
+    }
+
+    private ResponseJson build() {
+        return new ResponseJson().success()
+                .setData("type", ChatType.SINGLE_SENDING)
+                .setData("fromUserId", 1001)
+                .setData("fromUserName", "Kanarien")
+                .setData("sendTime", "2019-11-05 20:15:30")
+                .setData("content", content)
+                .setData("seq", 42L);
+    }
+}
@@ -0,0 +1,170 @@
+package com.zz.chatroom.loadtest;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshaker;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+/**
+ * 描述: 一个压测连接
+ *      TCP 连上后发起 WebSocket 握手，握手完成即发送 REGISTER，收到 REGISTER 回执视为登记成功。
+ *      压测消息的 content 为 "lt:" + 发送时的 System.nanoTime()，接收方据此计算投递延迟，
+ *      发送方与接收方在同一个压测进程里，nanoTime 可以直接相减。
+ *      服务端的 ping 直接回 pong，保证心跳检查不会把压测连接判为超时。
+ */
+public class ChatClient extends SimpleChannelInboundHandler<Object> {
+
+    static final String CONTENT_PREFIX = "lt:";
+
+    private final int userId;
+    private final int groupId;
+    private final int groupIndex;
+    private final WebSocketClientHandshaker handshaker;
+    private final LoadStats stats;
+    private final long connectStartNanos;
+
+    private volatile Channel channel;
+    private volatile boolean registered;
+
+    public ChatClient(int userId, int groupId, int groupIndex, WebSocketClientHandshaker handshaker,
+                      LoadStats stats) {
+        this.userId = userId;
+        this.groupId = groupId;
+        this.groupIndex = groupIndex;
+        this.handshaker = handshaker;
+        this.stats = stats;
+        this.connectStartNanos = System.nanoTime();
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public int getGroupId() {
+        return groupId;
+    }
+
+    public int getGroupIndex() {
+        return groupIndex;
+    }
+
+    public boolean isRegistered() {
+        return registered;
+    }
+
+    /**
+     * 描述：发送一条文本指令，channel 不可写时放弃本次发送，避免压测端自身堆积
+     *
+     * @return 是否已写出
+     */
+    public boolean send(String json) {
+        Channel ch = channel;
+        if (ch == null || !registered || !ch.isWritable()) {
+            return false;
+        }
+        ch.writeAndFlush(new TextWebSocketFrame(json));
+        return true;
+    }
+
+    public void close() {
+        Channel ch = channel;
+        if (ch != null) {
+            ch.close();
+        }
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        channel = ctx.channel();
+        handshaker.handshake(ctx.channel());
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        stats.closed.increment();
+        if (registered) {
+            registered = false;
+            stats.groupMemberOffline(groupIndex);
+        }
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!handshaker.isHandshakeComplete()) {
+            handshaker.finishHandshake(ctx.channel(), (FullHttpResponse) msg);
+            stats.handshakes.increment();
+            ctx.writeAndFlush(new TextWebSocketFrame("{\"type\":\"REGISTER\",\"userId\":" + userId + "}"));
+            return;
+        }
+        if (msg instanceof TextWebSocketFrame) {
+            handleText(((TextWebSocketFrame) msg).text());
+        } else if (msg instanceof PingWebSocketFrame) {
+            stats.pingFrames.increment();
+            ctx.writeAndFlush(new PongWebSocketFrame(((WebSocketFrame) msg).content().retain()));
+        } else if (msg instanceof CloseWebSocketFrame) {
+            ctx.close();
+        }
+    }
+
+    private void handleText(String text) {
+        JSONObject response = JSON.parseObject(text);
+        if (response.getIntValue("status") != 200) {
+            stats.errorFrames.increment();
+            return;
+        }
+        JSONObject data = response.getJSONObject("data");
+        String type = data == null ? null : data.getString("type");
+        if (type == null) {
+            return;
+        }
+        switch (type) {
+            case "REGISTER":
+                if (!registered) {
+                    registered = true;
+                    stats.groupMemberOnline(groupIndex);
+                    stats.registered.increment();
+                    stats.connectLatency.recordNanos(System.nanoTime() - connectStartNanos);
+                }
+                break;
+            case "SINGLE_SENDING":
+                if (recordDelivery(data.getString("content"))) {
+                    stats.singleReceived.increment();
+                }
+                break;
+            case "GROUP_SENDING":
+                if (recordDelivery(data.getString("content"))) {
+                    stats.groupReceived.increment();
+                }
+                break;
+            case "OFFLINE_MESSAGE":
+                //上一轮压测遗留的消息，只计数
+                stats.offlineFrames.increment();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private boolean recordDelivery(String content) {
+        if (content == null || !content.startsWith(CONTENT_PREFIX)) {
+            return false;
+        }
+        long sentNanos = Long.parseLong(content.substring(CONTENT_PREFIX.length()));
+        stats.deliveryLatency.recordNanos(System.nanoTime() - sentNanos);
+        return true;
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        stats.errorFrames.increment();
+        ctx.close();
+    }
+}
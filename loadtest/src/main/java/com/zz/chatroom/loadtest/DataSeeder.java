@@ -0,0 +1,76 @@
+package com.zz.chatroom.loadtest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.text.MessageFormat;
+
+/**
+ * 描述: 写入压测用户与群
+ *      第 i 个连接的用户为 userIdBase + i，按 groupSize 分群，群成员在服务端启动时一次性加载，
+ *      所以必须在服务端启动（内嵌模式）或重启（独立模式）之前写入。
+ *      使用 INSERT IGNORE，已存在的用户和群成员保持不变，可以重复执行。
+ */
+public class DataSeeder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DataSeeder.class);
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final String INSERT_USER = "INSERT IGNORE INTO USER_INFO "
+            + "(USER_ID, USER_NAME, USER_PASSWORD, USER_ICON, USER_OFFLINE_TIME) VALUES (?, ?, ?, ?, ?)";
+
+    private static final String INSERT_MEMBER = "INSERT IGNORE INTO GROUP_INFO "
+            + "(UG_ID, UG_GROUP_NAME, UG_USER_ID, UG_CREATE_TIME, UG_ICON) VALUES (?, ?, ?, ?, ?)";
+
+    private final LoadTestOptions options;
+
+    public DataSeeder(LoadTestOptions options) {
+        this.options = options;
+    }
+
+    public void seed(String jdbcUrl, String user, String password) throws SQLException {
+        long begin = System.currentTimeMillis();
+        Timestamp now = new Timestamp(begin);
+        try (Connection connection = DriverManager.getConnection(jdbcUrl, user, password)) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement userStatement = connection.prepareStatement(INSERT_USER);
+                 PreparedStatement memberStatement = connection.prepareStatement(INSERT_MEMBER)) {
+                for (int i = 0; i < options.getConnections(); i++) {
+                    int userId = options.getUserIdBase() + i;
+                    int groupId = options.groupIdOf(i);
+
+                    userStatement.setInt(1, userId);
+                    userStatement.setString(2, "lt" + userId);
+                    userStatement.setString(3, "lt");
+                    userStatement.setString(4, "");
+                    userStatement.setTimestamp(5, now);
+                    userStatement.addBatch();
+
+                    memberStatement.setInt(1, groupId);
+                    memberStatement.setString(2, "lt-group-" + groupId);
+                    memberStatement.setInt(3, userId);
+                    memberStatement.setTimestamp(4, now);
+                    memberStatement.setString(5, "");
+                    memberStatement.addBatch();
+
+                    if ((i + 1) % BATCH_SIZE == 0) {
+                        userStatement.executeBatch();
+                        memberStatement.executeBatch();
+                        connection.commit();
+                    }
+                }
+                userStatement.executeBatch();
+                memberStatement.executeBatch();
+                connection.commit();
+            }
+        }
+        LOGGER.info(MessageFormat.format("压测数据写入完成：用户 {0} 个，群 {1} 个，耗时 {2} ms"
+                , options.getConnections(), options.groupCount(), System.currentTimeMillis() - begin));
+    }
+}
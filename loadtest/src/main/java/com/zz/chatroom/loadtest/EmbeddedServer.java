@@ -0,0 +1,81 @@
+package com.zz.chatroom.loadtest;
+
+import com.zz.chatroom.web.websocket.WebSocketServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.text.MessageFormat;
+import java.util.Properties;
+
+/**
+ * 描述: 进程内启动的服务端
+ *      数据源为本模块 db.properties 中的内嵌 H2，先写入压测用户与群，再启动 Spring 容器，
+ *      容器只加载 Netty 与 MyBatis 两个配置，AppContext 照常在独立线程中启动 WebSocketServer。
+ *      服务端与压测客户端共用一个 JVM，报告中的堆和 GC 数据是两者之和。
+ */
+public class EmbeddedServer implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EmbeddedServer.class);
+
+    private static final String CONTEXT_LOCATION = "spring/ApplicationContext-loadtest.xml";
+    private static final long START_TIMEOUT_MILLIS = 60000L;
+
+    private ClassPathXmlApplicationContext context;
+    private int port;
+
+    public void start(LoadTestOptions options) throws Exception {
+        if (options.isSeed()) {
+            Properties db = loadProperties("db.properties");
+            new DataSeeder(options).seed(db.getProperty("jdbc_url"), db.getProperty("jdbc_username"),
+                    db.getProperty("jdbc_password"));
+        }
+        long begin = System.currentTimeMillis();
+        context = new ClassPathXmlApplicationContext(CONTEXT_LOCATION);
+        port = context.getBean(WebSocketServer.class).getPort();
+        awaitListening(begin);
+        LOGGER.info(MessageFormat.format("内嵌服务端已启动，端口：{0}，耗时 {1} ms"
+                , String.valueOf(port), System.currentTimeMillis() - begin));
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public void close() {
+        if (context != null) {
+            context.close();
+        }
+    }
+
+    /**
+     * WebSocketServer 在 AppContext 的独立线程中绑定端口，容器启动完成时端口不一定已经打开
+     */
+    private void awaitListening(long begin) throws InterruptedException {
+        while (System.currentTimeMillis() - begin < START_TIMEOUT_MILLIS) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.0.0.1", port), 1000);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("内嵌服务端启动超时，端口：" + port);
+    }
+
+    private static Properties loadProperties(String name) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = EmbeddedServer.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("classpath 中找不到 " + name);
+            }
+            properties.load(in);
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,103 @@
+package com.zz.chatroom.loadtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 描述: 延迟直方图，单位微秒，多线程并发记录无锁
+ *      按 2 的幂分段，每段再等分 SUB_BUCKETS 个桶，相对误差不超过 1 / SUB_BUCKETS，
+ *      覆盖 0 ~ 2^44 微秒，固定占用 41 * 16 个计数器，十万连接下也不需要保存每个样本。
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAGNITUDES = 41;
+
+    private final AtomicLongArray counts = new AtomicLongArray(MAGNITUDES * SUB_BUCKETS);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void recordNanos(long nanos) {
+        recordMicros(Math.max(0L, nanos / 1000L));
+    }
+
+    public void recordMicros(long micros) {
+        counts.incrementAndGet(indexOf(micros));
+        totalCount.incrementAndGet();
+        long max;
+        while (micros > (max = maxMicros.get())) {
+            if (maxMicros.compareAndSet(max, micros)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    /**
+     * 描述：百分位数，返回所在桶的上界（微秒）
+     *
+     * @param percentile 0 ~ 100
+     */
+    public long percentileMicros(double percentile) {
+        long total = totalCount.get();
+        if (total == 0) {
+            return 0L;
+        }
+        long threshold = Math.max(1L, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= threshold) {
+                return Math.min(upperBoundOf(i), maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    /**
+     * 形如 p50=1.2ms p90=... 的一行摘要
+     */
+    public String summary() {
+        return String.format("count=%d p50=%s p90=%s p99=%s p99.9=%s max=%s", getCount(),
+                format(percentileMicros(50)), format(percentileMicros(90)), format(percentileMicros(99)),
+                format(percentileMicros(99.9)), format(getMaxMicros()));
+    }
+
+    private static String format(long micros) {
+        if (micros < 1000L) {
+            return micros + "us";
+        }
+        if (micros < 1000_000L) {
+            return String.format("%.2fms", micros / 1000.0);
+        }
+        return String.format("%.2fs", micros / 1000_000.0);
+    }
+
+    private static int indexOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        if (magnitude + 1 >= MAGNITUDES) {
+            return MAGNITUDES * SUB_BUCKETS - 1;
+        }
+        return (magnitude + 1) * SUB_BUCKETS + (int) (micros >>> magnitude) - SUB_BUCKETS;
+    }
+
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int magnitude = index / SUB_BUCKETS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        return ((subBucket + SUB_BUCKETS + 1L) << magnitude) - 1;
+    }
+}
@@ -0,0 +1,68 @@
+package com.zz.chatroom.loadtest;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 描述: 压测计数，所有连接共享，I/O 线程与发送线程并发累加
+ *      丢帧 = 应投递数 - 实际收到数：单聊发送时对方已登记记 1 次，群聊发送时记群内其他已登记成员数，
+ *      停止发送并等待 drain 秒后仍未收到的即视为丢失。
+ */
+public class LoadStats {
+
+    final LongAdder connectAttempts = new LongAdder();
+    final LongAdder connectFailures = new LongAdder();
+    final LongAdder handshakes = new LongAdder();
+    final LongAdder registered = new LongAdder();
+    final LongAdder closed = new LongAdder();
+
+    final LongAdder singleSent = new LongAdder();
+    final LongAdder groupSent = new LongAdder();
+    final LongAdder heartSent = new LongAdder();
+    final LongAdder sendSkipped = new LongAdder();
+
+    final LongAdder expectedDeliveries = new LongAdder();
+    final LongAdder singleReceived = new LongAdder();
+    final LongAdder groupReceived = new LongAdder();
+    final LongAdder offlineFrames = new LongAdder();
+    final LongAdder errorFrames = new LongAdder();
+    final LongAdder pingFrames = new LongAdder();
+
+    /**
+     * 从发起 TCP 连接到收到 REGISTER 回执
+     */
+    final LatencyHistogram connectLatency = new LatencyHistogram();
+    /**
+     * 从发送方写出到接收方读到，单聊与群聊合计
+     */
+    final LatencyHistogram deliveryLatency = new LatencyHistogram();
+
+    /**
+     * 每个群当前已登记的连接数，下标为 群id - groupIdBase
+     */
+    private final AtomicIntegerArray registeredPerGroup;
+
+    public LoadStats(int groupCount) {
+        this.registeredPerGroup = new AtomicIntegerArray(groupCount);
+    }
+
+    void groupMemberOnline(int groupIndex) {
+        registeredPerGroup.incrementAndGet(groupIndex);
+    }
+
+    void groupMemberOffline(int groupIndex) {
+        registeredPerGroup.decrementAndGet(groupIndex);
+    }
+
+    int onlineGroupMembers(int groupIndex) {
+        return registeredPerGroup.get(groupIndex);
+    }
+
+    long received() {
+        return singleReceived.sum() + groupReceived.sum();
+    }
+
+    long sent() {
+        return singleSent.sum() + groupSent.sum() + heartSent.sum();
+    }
+}
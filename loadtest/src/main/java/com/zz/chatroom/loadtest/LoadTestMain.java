@@ -0,0 +1,395 @@
+package com.zz.chatroom.loadtest;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 描述: WebSocket 连接规模压测入口
+ *      1. embedded=true 时先写入压测数据并在本进程内启动服务端（内嵌 H2），否则压测 url 指向的外部服务端；
+ *      2. 按 connectRate 逐步建立 connections 个连接，每个连接握手后发送 REGISTER；
+ *      3. 全部登记完成（或超时）后按 messageRate 和 mix 随机挑选连接发送 SINGLE_SENDING / GROUP_SENDING / HEART_CLIENT，
+ *         持续 duration 秒，再等待 drain 秒让在途消息投递完；
+ *      4. 每 reportInterval 秒输出一次阶段报告，结束时输出：建连速率、登记延迟、投递延迟百分位、丢帧、堆与 GC。
+ *      参数说明见 LoadTestOptions。
+ */
+public class LoadTestMain {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadTestMain.class);
+
+    /**
+     * 建连与发送的调度粒度(毫秒)
+     */
+    private static final long TICK_MILLIS = 10L;
+
+    private final LoadTestOptions options;
+    private final LoadStats stats;
+    private final ChatClient[] clients;
+    private final ScheduledExecutorService scheduler =
+            Executors.newScheduledThreadPool(2, new DefaultThreadFactory("loadtest-scheduler", true));
+
+    private EventLoopGroup ioGroup;
+    private EmbeddedServer embeddedServer;
+    private long lastGcCount;
+    private long lastGcMillis;
+
+    public LoadTestMain(LoadTestOptions options) {
+        this.options = options;
+        this.stats = new LoadStats(options.groupCount());
+        this.clients = new ChatClient[options.getConnections()];
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+        int status = 0;
+        LoadTestMain loadTest = new LoadTestMain(options);
+        try {
+            loadTest.run();
+        } catch (Exception e) {
+            LOGGER.error("压测异常结束", e);
+            status = 1;
+        } finally {
+            loadTest.shutdown();
+        }
+        // 内嵌服务端的部分后台线程不是守护线程
+        System.exit(status);
+    }
+
+    public void run() throws Exception {
+        URI url = options.getUrl();
+        if (options.isEmbedded()) {
+            embeddedServer = new EmbeddedServer();
+            embeddedServer.start(options);
+            url = new URI("ws", null, "127.0.0.1", embeddedServer.getPort(), "/websocket", null, null);
+        } else if (options.getSeedJdbcUrl() != null) {
+            new DataSeeder(options).seed(options.getSeedJdbcUrl(), options.getSeedJdbcUser(),
+                    options.getSeedJdbcPassword());
+            LOGGER.warn("压测数据已写入，服务端需重启后才能加载新的群成员");
+        }
+        LOGGER.info("压测目标：" + url + (options.isEmbedded() ? "（进程内，堆与 GC 为服务端与压测端合计）"
+                : "（外部服务端，堆与 GC 仅为压测端）"));
+        resetGcBaseline();
+
+        ioGroup = new NioEventLoopGroup(options.getIoThreads(), new DefaultThreadFactory("loadtest-io"));
+        Bootstrap bootstrap = newBootstrap(url);
+
+        long reportNanos = TimeUnit.SECONDS.toNanos(options.getReportIntervalSeconds());
+        long connectBegin = System.nanoTime();
+        connectAll(bootstrap, url);
+        long connectNanos = awaitRegistered(connectBegin, reportNanos);
+        printConnectReport(connectNanos);
+
+        long sendBegin = System.nanoTime();
+        long sendEnd = sendBegin + TimeUnit.SECONDS.toNanos(options.getDurationSeconds());
+        ScheduledFuture<?> sender = scheduler.scheduleAtFixedRate(new Sender(),
+                0, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        long nextReport = sendBegin + reportNanos;
+        while (System.nanoTime() < sendEnd) {
+            Thread.sleep(100);
+            if (System.nanoTime() >= nextReport) {
+                printProgress("发送中", sendBegin);
+                nextReport += reportNanos;
+            }
+        }
+        sender.cancel(false);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(options.getDrainSeconds()));
+        printFinalReport(System.nanoTime() - sendBegin - TimeUnit.SECONDS.toNanos(options.getDrainSeconds()));
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        for (ChatClient client : clients) {
+            if (client != null) {
+                client.close();
+            }
+        }
+        if (ioGroup != null) {
+            ioGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS).syncUninterruptibly();
+        }
+        if (embeddedServer != null) {
+            embeddedServer.close();
+        }
+    }
+
+    private Bootstrap newBootstrap(URI url) {
+        return new Bootstrap()
+                .group(ioGroup)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10000)
+                .remoteAddress(url.getHost(), url.getPort());
+    }
+
+    /**
+     * 按 connectRate 在调度线程上分批发起连接，不等待每个连接完成
+     */
+    private void connectAll(Bootstrap bootstrap, URI url) {
+        Connector connector = new Connector(bootstrap, url);
+        connector.future = scheduler.scheduleAtFixedRate(connector, 0, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private class Connector implements Runnable {
+
+        private final Bootstrap bootstrap;
+        private final URI url;
+        private final double perTick = options.getConnectRate() * TICK_MILLIS / 1000.0;
+        private double carry;
+        private int next;
+        private volatile ScheduledFuture<?> future;
+
+        private Connector(Bootstrap bootstrap, URI url) {
+            this.bootstrap = bootstrap;
+            this.url = url;
+        }
+
+        @Override
+        public void run() {
+            carry += perTick;
+            int count = (int) carry;
+            carry -= count;
+            int end = Math.min(clients.length, next + count);
+            for (int i = next; i < end; i++) {
+                connectOne(bootstrap, url, i);
+            }
+            next = end;
+            if (end >= clients.length && future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private void connectOne(Bootstrap bootstrap, URI url, int index) {
+        int groupIndex = index / options.getGroupSize();
+        ChatClient client = new ChatClient(options.getUserIdBase() + index, options.groupIdOf(index), groupIndex,
+                WebSocketClientHandshakerFactory.newHandshaker(url, WebSocketVersion.V13, null, false,
+                        new DefaultHttpHeaders(), 65536), stats);
+        clients[index] = client;
+        stats.connectAttempts.increment();
+
+        Bootstrap b = bootstrap.clone().handler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel ch) throws Exception {
+                ch.pipeline()
+                        .addLast(new HttpClientCodec())
+                        .addLast(new HttpObjectAggregator(65536))
+                        .addLast(client);
+            }
+        });
+        List<String> localAddresses = options.getLocalAddresses();
+        ChannelFuture future = localAddresses.isEmpty() ? b.connect()
+                : b.connect(b.config().remoteAddress(),
+                new InetSocketAddress(localAddresses.get(index % localAddresses.size()), 0));
+        future.addListener(f -> {
+            if (!f.isSuccess()) {
+                stats.connectFailures.increment();
+            }
+        });
+    }
+
+    /**
+     * 等待所有连接登记完成，或者在一个报告周期内没有任何进展时放弃等待
+     *
+     * @return 从开始建连到最后一个连接登记完成的耗时(纳秒)
+     */
+    private long awaitRegistered(long connectBegin, long reportNanos) throws InterruptedException {
+        long lastProgress = System.nanoTime();
+        long lastRegistered = 0;
+        long lastRegisteredAt = connectBegin;
+        long nextReport = connectBegin + reportNanos;
+        while (true) {
+            Thread.sleep(100);
+            long now = System.nanoTime();
+            long registered = stats.registered.sum();
+            if (registered != lastRegistered) {
+                lastRegistered = registered;
+                lastRegisteredAt = now;
+                lastProgress = now;
+            }
+            if (registered + stats.connectFailures.sum() >= clients.length) {
+                return lastRegisteredAt - connectBegin;
+            }
+            if (stats.connectAttempts.sum() >= clients.length && now - lastProgress > reportNanos) {
+                LOGGER.warn("部分连接在 " + options.getReportIntervalSeconds() + " 秒内没有完成登记，开始发送阶段");
+                return lastRegisteredAt - connectBegin;
+            }
+            if (now >= nextReport) {
+                printProgress("建连中", connectBegin);
+                nextReport += reportNanos;
+            }
+        }
+    }
+
+    /**
+     * 每个 tick 按 messageRate 发送，随机挑选已登记的连接，类型按 mix 加权
+     */
+    private class Sender implements Runnable {
+
+        private final double perTick = options.getMessageRate() * TICK_MILLIS / 1000.0;
+        private final int totalWeight = options.getSingleWeight() + options.getGroupWeight() + options.getHeartWeight();
+        private double carry;
+
+        @Override
+        public void run() {
+            carry += perTick;
+            int count = (int) carry;
+            carry -= count;
+            if (totalWeight <= 0) {
+                return;
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < count; i++) {
+                ChatClient from = clients[random.nextInt(clients.length)];
+                if (from == null || !from.isRegistered()) {
+                    stats.sendSkipped.increment();
+                    continue;
+                }
+                int pick = random.nextInt(totalWeight);
+                if (pick < options.getSingleWeight()) {
+                    sendSingle(from, random);
+                } else if (pick < options.getSingleWeight() + options.getGroupWeight()) {
+                    sendGroup(from);
+                } else if (from.send("{\"type\":\"HEART_CLIENT\"}")) {
+                    stats.heartSent.increment();
+                } else {
+                    stats.sendSkipped.increment();
+                }
+            }
+        }
+
+        private void sendSingle(ChatClient from, ThreadLocalRandom random) {
+            if (clients.length < 2) {
+                stats.sendSkipped.increment();
+                return;
+            }
+            // 在除自己以外的连接中随机挑选接收方
+            int toIndex = random.nextInt(clients.length - 1);
+            if (toIndex >= from.getUserId() - options.getUserIdBase()) {
+                toIndex++;
+            }
+            ChatClient to = clients[toIndex];
+            boolean online = to != null && to.isRegistered();
+            String json = "{\"type\":\"SINGLE_SENDING\",\"fromUserId\":" + from.getUserId()
+                    + ",\"fromUserName\":\"lt" + from.getUserId() + "\",\"toUserId\":"
+                    + (options.getUserIdBase() + toIndex)
+                    + ",\"content\":\"" + ChatClient.CONTENT_PREFIX + System.nanoTime() + "\"}";
+            if (from.send(json)) {
+                stats.singleSent.increment();
+                if (online) {
+                    stats.expectedDeliveries.increment();
+                }
+            } else {
+                stats.sendSkipped.increment();
+            }
+        }
+
+        private void sendGroup(ChatClient from) {
+            int others = stats.onlineGroupMembers(from.getGroupIndex()) - 1;
+            String json = "{\"type\":\"GROUP_SENDING\",\"fromUserId\":" + from.getUserId()
+                    + ",\"fromUserName\":\"lt" + from.getUserId() + "\",\"toGroupId\":" + from.getGroupId()
+                    + ",\"content\":\"" + ChatClient.CONTENT_PREFIX + System.nanoTime() + "\"}";
+            if (from.send(json)) {
+                stats.groupSent.increment();
+                stats.expectedDeliveries.add(Math.max(0, others));
+            } else {
+                stats.sendSkipped.increment();
+            }
+        }
+    }
+
+    private void printConnectReport(long connectNanos) {
+        long registered = stats.registered.sum();
+        double seconds = Math.max(1L, connectNanos) / 1e9;
+        LOGGER.info(String.format("建连完成：发起 %d，失败 %d，握手 %d，登记 %d，耗时 %.1fs，建连速率 %.0f/s",
+                stats.connectAttempts.sum(), stats.connectFailures.sum(), stats.handshakes.sum(), registered,
+                seconds, registered / seconds));
+        LOGGER.info("登记延迟：" + stats.connectLatency.summary());
+        LOGGER.info(memoryReport());
+    }
+
+    private void printProgress(String phase, long begin) {
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        LOGGER.info(String.format("[%s %.0fs] 登记 %d，断开 %d，发送 %d，收到 %d/%d，错误 %d，投递延迟 %s",
+                phase, seconds, stats.registered.sum(), stats.closed.sum(), stats.sent(), stats.received(),
+                stats.expectedDeliveries.sum(), stats.errorFrames.sum(), stats.deliveryLatency.summary()));
+    }
+
+    private void printFinalReport(long sendNanos) {
+        double seconds = Math.max(1L, sendNanos) / 1e9;
+        long expected = stats.expectedDeliveries.sum();
+        long received = stats.received();
+        long dropped = Math.max(0L, expected - received);
+        StringBuilder report = new StringBuilder("\n========== 压测报告 ==========\n");
+        report.append(String.format("连接：目标 %d，登记 %d，失败 %d，运行中断开 %d%n", clients.length,
+                stats.registered.sum(), stats.connectFailures.sum(), stats.closed.sum()));
+        report.append(String.format("发送：单聊 %d，群聊 %d，心跳 %d，跳过 %d，合计 %.0f/s%n", stats.singleSent.sum(),
+                stats.groupSent.sum(), stats.heartSent.sum(), stats.sendSkipped.sum(), stats.sent() / seconds));
+        report.append(String.format("投递：应收 %d，实收 %d（单聊 %d，群聊 %d），丢帧 %d（%.3f%%），%.0f/s%n", expected,
+                received, stats.singleReceived.sum(), stats.groupReceived.sum(), dropped,
+                expected == 0 ? 0.0 : dropped * 100.0 / expected, received / seconds));
+        report.append(String.format("其他：错误回执 %d，离线消息帧 %d，服务端 ping %d%n", stats.errorFrames.sum(),
+                stats.offlineFrames.sum(), stats.pingFrames.sum()));
+        report.append("投递延迟：").append(stats.deliveryLatency.summary()).append('\n');
+        report.append("登记延迟：").append(stats.connectLatency.summary()).append('\n');
+        report.append(memoryReport()).append('\n');
+        report.append("==============================");
+        LOGGER.info(report.toString());
+    }
+
+    private void resetGcBaseline() {
+        lastGcCount = 0;
+        lastGcMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            lastGcCount += Math.max(0L, gc.getCollectionCount());
+            lastGcMillis += Math.max(0L, gc.getCollectionTime());
+        }
+    }
+
+    /**
+     * 堆使用与自上次报告以来的 GC 次数、耗时
+     */
+    private String memoryReport() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        StringBuilder gcs = new StringBuilder();
+        long gcCount = 0;
+        long gcMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0L, gc.getCollectionCount());
+            gcMillis += Math.max(0L, gc.getCollectionTime());
+            gcs.append(' ').append(gc.getName()).append('=').append(gc.getCollectionCount())
+                    .append('/').append(gc.getCollectionTime()).append("ms");
+        }
+        String report = String.format("堆：已用 %dMB，已提交 %dMB，上限 %dMB；GC：本阶段 %d 次 %dms，累计%s",
+                heap.getUsed() >> 20, heap.getCommitted() >> 20, heap.getMax() >> 20,
+                gcCount - lastGcCount, gcMillis - lastGcMillis, gcs);
+        lastGcCount = gcCount;
+        lastGcMillis = gcMillis;
+        return report;
+    }
+}
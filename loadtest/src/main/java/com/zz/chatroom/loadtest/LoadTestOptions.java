@@ -0,0 +1,262 @@
+package com.zz.chatroom.loadtest;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 描述: 压测参数，命令行按 key=value 传入，未给出的使用默认值
+ * <pre>
+ *   url=ws://127.0.0.1:8899/websocket   服务端地址，embedded=true 时端口取 system.properties 的 websocket.server.port
+ *   embedded=false                      是否在本进程内启动服务端（内嵌 H2）
+ *   connections=10000                   连接数
+ *   connectRate=1000                    每秒新建连接数
+ *   userIdBase=100000                   第 i 个连接的 userId 为 userIdBase + i
+ *   groupSize=50                        每 groupSize 个用户一个群，群id 从 groupIdBase 开始
+ *   groupIdBase=100000
+ *   messageRate=1000                    所有连接合计每秒发送的指令数
+ *   mix=single:60,group:30,heart:10     各类指令所占比例
+ *   duration=60                         发送阶段时长(秒)，从全部连接登记完成后开始计
+ *   drain=5                             停止发送后等待投递完成的时间(秒)
+ *   reportInterval=10                   阶段性报告间隔(秒)
+ *   ioThreads=0                         客户端 I/O 线程数，0 为 Netty 默认
+ *   localAddresses=                     本地源地址，逗号分隔，轮流绑定；单个源地址的连接数受本机临时端口范围限制
+ *   seed=true                           embedded=true 时是否向 H2 写入压测用户与群
+ *   seedJdbcUrl= / seedJdbcUser= / seedJdbcPassword=   非内嵌模式下向服务端数据库写入压测用户与群
+ * </pre>
+ */
+public class LoadTestOptions {
+
+    private URI url = URI.create("ws://127.0.0.1:8899/websocket");
+    private boolean embedded;
+    private int connections = 10000;
+    private int connectRate = 1000;
+    private int userIdBase = 100000;
+    private int groupSize = 50;
+    private int groupIdBase = 100000;
+    private int messageRate = 1000;
+    private int singleWeight = 60;
+    private int groupWeight = 30;
+    private int heartWeight = 10;
+    private int durationSeconds = 60;
+    private int drainSeconds = 5;
+    private int reportIntervalSeconds = 10;
+    private int ioThreads;
+    private List<String> localAddresses = new ArrayList<>();
+    private boolean seed = true;
+    private String seedJdbcUrl;
+    private String seedJdbcUser;
+    private String seedJdbcPassword = "";
+
+    public static LoadTestOptions parse(String[] args) {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index <= 0) {
+                throw new IllegalArgumentException("参数格式应为 key=value：" + arg);
+            }
+            values.put(arg.substring(0, index).trim(), arg.substring(index + 1).trim());
+        }
+        LoadTestOptions options = new LoadTestOptions();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            options.set(entry.getKey(), entry.getValue());
+        }
+        if (options.connections <= 0 || options.connectRate <= 0 || options.groupSize <= 0) {
+            throw new IllegalArgumentException("connections、connectRate、groupSize 必须大于 0");
+        }
+        return options;
+    }
+
+    private void set(String key, String value) {
+        switch (key) {
+            case "url":
+                url = URI.create(value);
+                break;
+            case "embedded":
+                embedded = Boolean.parseBoolean(value);
+                break;
+            case "connections":
+                connections = Integer.parseInt(value);
+                break;
+            case "connectRate":
+                connectRate = Integer.parseInt(value);
+                break;
+            case "userIdBase":
+                userIdBase = Integer.parseInt(value);
+                break;
+            case "groupSize":
+                groupSize = Integer.parseInt(value);
+                break;
+            case "groupIdBase":
+                groupIdBase = Integer.parseInt(value);
+                break;
+            case "messageRate":
+                messageRate = Integer.parseInt(value);
+                break;
+            case "mix":
+                parseMix(value);
+                break;
+            case "duration":
+                durationSeconds = Integer.parseInt(value);
+                break;
+            case "drain":
+                drainSeconds = Integer.parseInt(value);
+                break;
+            case "reportInterval":
+                reportIntervalSeconds = Integer.parseInt(value);
+                break;
+            case "ioThreads":
+                ioThreads = Integer.parseInt(value);
+                break;
+            case "localAddresses":
+                localAddresses = new ArrayList<>();
+                for (String address : value.split(",")) {
+                    if (!address.trim().isEmpty()) {
+                        localAddresses.add(address.trim());
+                    }
+                }
+                break;
+            case "seed":
+                seed = Boolean.parseBoolean(value);
+                break;
+            case "seedJdbcUrl":
+                seedJdbcUrl = value;
+                break;
+            case "seedJdbcUser":
+                seedJdbcUser = value;
+                break;
+            case "seedJdbcPassword":
+                seedJdbcPassword = value;
+                break;
+            default:
+                throw new IllegalArgumentException("未知参数：" + key);
+        }
+    }
+
+    /**
+     * mix=single:60,group:30,heart:10，未列出的类型比例为 0
+     */
+    private void parseMix(String value) {
+        singleWeight = 0;
+        groupWeight = 0;
+        heartWeight = 0;
+        for (String part : value.split(",")) {
+            String[] pair = part.split(":");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("mix 格式应为 single:60,group:30,heart:10");
+            }
+            int weight = Integer.parseInt(pair[1].trim());
+            switch (pair[0].trim()) {
+                case "single":
+                    singleWeight = weight;
+                    break;
+                case "group":
+                    groupWeight = weight;
+                    break;
+                case "heart":
+                    heartWeight = weight;
+                    break;
+                default:
+                    throw new IllegalArgumentException("mix 只支持 single、group、heart：" + pair[0]);
+            }
+        }
+    }
+
+    /**
+     * 第 index 个连接所属的群id
+     */
+    public int groupIdOf(int index) {
+        return groupIdBase + index / groupSize;
+    }
+
+    public int groupCount() {
+        return (connections + groupSize - 1) / groupSize;
+    }
+
+    public URI getUrl() {
+        return url;
+    }
+
+    public LoadTestOptions setUrl(URI url) {
+        this.url = url;
+        return this;
+    }
+
+    public boolean isEmbedded() {
+        return embedded;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public int getConnectRate() {
+        return connectRate;
+    }
+
+    public int getUserIdBase() {
+        return userIdBase;
+    }
+
+    public int getGroupSize() {
+        return groupSize;
+    }
+
+    public int getGroupIdBase() {
+        return groupIdBase;
+    }
+
+    public int getMessageRate() {
+        return messageRate;
+    }
+
+    public int getSingleWeight() {
+        return singleWeight;
+    }
+
+    public int getGroupWeight() {
+        return groupWeight;
+    }
+
+    public int getHeartWeight() {
+        return heartWeight;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public int getDrainSeconds() {
+        return drainSeconds;
+    }
+
+    public int getReportIntervalSeconds() {
+        return reportIntervalSeconds;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public List<String> getLocalAddresses() {
+        return localAddresses;
+    }
+
+    public boolean isSeed() {
+        return seed;
+    }
+
+    public String getSeedJdbcUrl() {
+        return seedJdbcUrl;
+    }
+
+    public String getSeedJdbcUser() {
+        return seedJdbcUser;
+    }
+
+    public String getSeedJdbcPassword() {
+        return seedJdbcPassword;
+    }
+}
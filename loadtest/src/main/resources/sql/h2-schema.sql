@@ -0,0 +1,57 @@
+-- 压测用内嵌 H2 表结构（MySQL 兼容模式），与线上 MySQL 的 USER_INFO / GROUP_INFO / MESSAGES / USER_CURSOR / FILE_BLOB 字段一致
+-- 每个新连接都会执行一次，全部使用 IF NOT EXISTS
+
+CREATE TABLE IF NOT EXISTS USER_INFO
+(
+    USER_ID           INT          NOT NULL PRIMARY KEY,
+    USER_NAME         VARCHAR(64),
+    USER_PASSWORD     VARCHAR(64),
+    USER_ICON         VARCHAR(255),
+    USER_OFFLINE_TIME TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS GROUP_INFO
+(
+    UG_ID          INT NOT NULL,
+    UG_GROUP_NAME  VARCHAR(64),
+    UG_USER_ID     INT NOT NULL,
+    UG_CREATE_TIME TIMESTAMP,
+    UG_ICON        VARCHAR(255),
+    PRIMARY KEY (UG_ID, UG_USER_ID)
+);
+
+CREATE TABLE IF NOT EXISTS MESSAGES
+(
+    M_ID             BIGINT AUTO_INCREMENT PRIMARY KEY,
+    M_CONTENT        VARCHAR(4000),
+    M_TIME           TIMESTAMP,
+    M_FROM_USER_ID   INT,
+    M_FROM_USER_NAME VARCHAR(64),
+    M_FROM_USER_ICON VARCHAR(255),
+    M_TO_USER_ID     INT,
+    M_TYPE           INT,
+    M_FILE_URL       VARCHAR(255),
+    M_FILE_NAME      VARCHAR(255),
+    M_FILE_SIZE      VARCHAR(32),
+    M_GID            INT,
+    M_SEQ            BIGINT
+);
+
+CREATE INDEX IF NOT EXISTS IDX_MESSAGES_TO_SEQ ON MESSAGES (M_TO_USER_ID, M_SEQ);
+CREATE INDEX IF NOT EXISTS IDX_MESSAGES_GID_SEQ ON MESSAGES (M_GID, M_SEQ);
+
+CREATE TABLE IF NOT EXISTS USER_CURSOR
+(
+    UC_USER_ID         INT    NOT NULL,
+    UC_CONVERSATION_ID INT    NOT NULL,
+    UC_SEQ             BIGINT NOT NULL,
+    PRIMARY KEY (UC_USER_ID, UC_CONVERSATION_ID)
+);
+
+CREATE TABLE IF NOT EXISTS FILE_BLOB
+(
+    B_HASH       CHAR(64)  NOT NULL PRIMARY KEY,
+    B_SIZE       BIGINT    NOT NULL,
+    B_REF_COUNT  INT       NOT NULL DEFAULT 0,
+    B_TOUCH_TIME TIMESTAMP NOT NULL
+);
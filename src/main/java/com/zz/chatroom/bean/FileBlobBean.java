@@ -0,0 +1,78 @@
+package com.zz.chatroom.bean;
+
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * @author : RUAN.LI
+ * @version : 1.0
+ * @description : 按内容寻址存放的上传文件，以内容的 SHA-256 为主键
+ * @date : 2019/11/22
+ */
+@TableName("FILE_BLOB")
+public class FileBlobBean implements Serializable {
+
+    /**
+     * 文件内容的 SHA-256（小写十六进制），同时是存放目录下的文件名
+     */
+    @TableId(value = "B_HASH")
+    private String hash;
+
+    /**
+     * 文件字节数
+     */
+    @TableField(value = "B_SIZE")
+    private Long size;
+
+    /**
+     * 引用该文件的 MESSAGES 行数
+     */
+    @TableField(value = "B_REF_COUNT")
+    private Integer refCount;
+
+    /**
+     * 最近一次上传（含秒传命中）的时间，引用数为 0 且超过保留时间的文件会被清理
+     */
+    @TableField(value = "B_TOUCH_TIME")
+    private Date touchTime;
+
+    public String getHash() {
+        return hash;
+    }
+
+    public FileBlobBean setHash(String hash) {
+        this.hash = hash;
+        return this;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public FileBlobBean setSize(Long size) {
+        this.size = size;
+        return this;
+    }
+
+    public Integer getRefCount() {
+        return refCount;
+    }
+
+    public FileBlobBean setRefCount(Integer refCount) {
+        this.refCount = refCount;
+        return this;
+    }
+
+    public Date getTouchTime() {
+        return touchTime;
+    }
+
+    public FileBlobBean setTouchTime(Date touchTime) {
+        this.touchTime = touchTime;
+        return this;
+    }
+}
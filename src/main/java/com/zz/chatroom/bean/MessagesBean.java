@@ -85,6 +85,12 @@ public class MessagesBean implements Serializable {
     @TableField(value ="M_GID")
     private Integer  groupId;
 
+    /**
+     * 会话内序号：群消息按群递增，好友消息按接收者递增
+     */
+    @TableField(value ="M_SEQ")
+    private Long seq;
+
 
     public Long getMessageId() {
         return messageId;
@@ -193,4 +199,13 @@ public class MessagesBean implements Serializable {
         this.groupId = groupId;
         return this;
     }
+
+    public Long getSeq() {
+        return seq;
+    }
+
+    public MessagesBean setSeq(Long seq) {
+        this.seq = seq;
+        return this;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,61 @@
+package com.zz.chatroom.bean;
+
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableName;
+
+import java.io.Serializable;
+
+/**
+ * @author : RUAN.LI
+ * @version : 1.0
+ * @description : 用户消息确认游标，(用户ID, 会话ID) 为联合主键
+ * @date : 2019/11/12
+ */
+@TableName("USER_CURSOR")
+public class UserCursorBean implements Serializable {
+
+    /**
+     * 用户ID
+     */
+    @TableField(value = "UC_USER_ID")
+    private Integer userId;
+
+    /**
+     * 会话ID：群id，0 表示好友消息收件箱
+     */
+    @TableField(value = "UC_CONVERSATION_ID")
+    private Integer conversationId;
+
+    /**
+     * 已确认收到的最大序号
+     */
+    @TableField(value = "UC_SEQ")
+    private Long seq;
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public UserCursorBean setUserId(Integer userId) {
+        this.userId = userId;
+        return this;
+    }
+
+    public Integer getConversationId() {
+        return conversationId;
+    }
+
+    public UserCursorBean setConversationId(Integer conversationId) {
+        this.conversationId = conversationId;
+        return this;
+    }
+
+    public Long getSeq() {
+        return seq;
+    }
+
+    public UserCursorBean setSeq(Long seq) {
+        this.seq = seq;
+        return this;
+    }
+}
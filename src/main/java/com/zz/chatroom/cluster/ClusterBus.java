@@ -0,0 +1,86 @@
+package com.zz.chatroom.cluster;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.List;
+
+/**
+ * 描述: 集群总线，多个节点在负载均衡后共同提供 WebSocket 服务时，负责节点间的在线目录与消息转发
+ *      1. 在线目录：记录每个用户的连接分布在哪些节点上，用户在本节点登记第一个连接、下线最后一个连接时更新；
+ *      2. 单聊：接收方在其他节点上也有连接时，把已编码好的消息转发过去，由那个节点写给接收方；
+ *      3. 群聊：每个群按一致性哈希属于一个节点，其他节点收到的群消息指令原样转交属主节点，
+ *         属主节点分配序号、编码后发往其他所有节点，各节点只向本节点上的在线群成员广播；
+ *         单聊同样按接收方的 userId 转交其收件箱的属主节点分配序号，再由属主节点投递。
+ *      payload 都是已编码好的 UTF-8 文本，所有权始终在调用方，总线内部需要时自行 retain。
+ *      实现：LocalClusterBus（同一 JVM 内，单节点部署与测试）、NettyClusterBus（跨进程）。
+ */
+public interface ClusterBus {
+
+    String getNodeId();
+
+    /**
+     * 描述：集群内所有节点的id（含本节点），按id排序；成员不变时返回同一个 List 对象，调用方可据此判断是否需要重建哈希环
+     */
+    List<String> getNodeIds();
+
+    /**
+     * 描述：启动总线，此后其他节点发来的消息交给 listener
+     */
+    void start(Listener listener);
+
+    /**
+     * 用户在本节点有连接在线，重复调用不做处理
+     */
+    void userOnline(String userId);
+
+    /**
+     * 用户在本节点已没有连接，重复调用不做处理
+     */
+    void userOffline(String userId);
+
+    /**
+     * 用户是否在其他节点上有连接
+     */
+    boolean isOnlineElsewhere(String userId);
+
+    /**
+     * 描述：把消息转发到用户所在的其他节点
+     *
+     * @return 是否至少转发到了一个节点
+     */
+    boolean sendToUser(String userId, ByteBuf payload);
+
+    /**
+     * 描述：把消息指令转交给属主节点（群消息为群的属主，单聊为接收方收件箱的属主）
+     *
+     * @param senderSession 发送者连接的会话标识，见 SessionRegistry.sessionKey
+     * @param command       指令的 JSON
+     * @return 是否已发出，属主节点未连通时返回 false
+     */
+    boolean forwardCommand(String nodeId, String senderSession, ByteBuf command);
+
+    /**
+     * 描述：把编码好的群消息发往其他所有节点
+     *
+     * @param seq            消息的群内序号，发送者所在节点据此替发送者确认
+     * @param excludeSession 不需要收到这条消息的连接（发送者自己），可为 null
+     */
+    void publishGroup(Integer groupId, long seq, String excludeSession, ByteBuf payload);
+
+    void close();
+
+    /**
+     * 描述: 其他节点转发来的消息，payload 只在回调期间有效，异步使用时自行 retain
+     */
+    interface Listener {
+
+        void onUserMessage(String userId, ByteBuf payload);
+
+        void onGroupMessage(Integer groupId, long seq, String excludeSession, ByteBuf payload);
+
+        /**
+         * 本节点是属主，其他节点转交来的消息指令
+         */
+        void onCommand(String senderSession, ByteBuf command);
+    }
+}
@@ -0,0 +1,27 @@
+package com.zz.chatroom.cluster;
+
+/**
+ * 描述: 按 system.properties 的 cluster.mode 创建集群总线，供 Spring 以 factory-method 方式定义 clusterBus
+ */
+public final class ClusterBusFactory {
+
+    private ClusterBusFactory() {
+    }
+
+    /**
+     * @param mode   local / netty
+     * @param nodeId 本节点id
+     * @param nodes  所有节点的 id=host:port，逗号分隔，只有 netty 模式使用
+     * @param secret 节点之间握手的共享密钥，只有 netty 模式使用
+     */
+    public static ClusterBus create(String mode, String nodeId, String nodes, String secret) {
+        switch (mode.trim().toLowerCase()) {
+            case "local":
+                return new LocalClusterBus(nodeId);
+            case "netty":
+                return new NettyClusterBus(nodeId, nodes, secret);
+            default:
+                throw new IllegalArgumentException("cluster.mode 只支持 local、netty：" + mode);
+        }
+    }
+}
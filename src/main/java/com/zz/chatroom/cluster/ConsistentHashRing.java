@@ -0,0 +1,84 @@
+package com.zz.chatroom.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * 描述: 一致性哈希环，创建后不可修改，成员变化时整体重建
+ *      1. 每个成员按 "名称#序号" 在环上放 virtualNodes 个虚拟节点，增减一个成员时只有约 1/N 的键换属主；
+ *      2. 环用排好序的 long 数组保存，查找为一次二分，不产生对象；
+ *      3. 成员名称相同则各节点算出的环完全相同，集群内不需要协商即可对群的属主节点达成一致。
+ *
+ * @param <T> 成员类型
+ */
+public final class ConsistentHashRing<T> {
+
+    private final long[] points;
+    private final Object[] owners;
+
+    /**
+     * @param members      成员名称 -> 成员，名称决定在环上的位置
+     * @param virtualNodes 每个成员的虚拟节点数
+     */
+    public ConsistentHashRing(Map<String, T> members, int virtualNodes) {
+        if (members.isEmpty() || virtualNodes <= 0) {
+            throw new IllegalArgumentException("一致性哈希环至少需要一个成员和一个虚拟节点");
+        }
+        long[][] entries = new long[members.size() * virtualNodes][];
+        Object[] memberArray = new Object[members.size()];
+        int m = 0;
+        int n = 0;
+        for (Map.Entry<String, T> member : members.entrySet()) {
+            memberArray[m] = member.getValue();
+            for (int i = 0; i < virtualNodes; i++) {
+                entries[n++] = new long[]{hash(member.getKey() + "#" + i), m};
+            }
+            m++;
+        }
+        Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+        points = new long[entries.length];
+        owners = new Object[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            points[i] = entries[i][0];
+            owners[i] = memberArray[(int) entries[i][1]];
+        }
+    }
+
+    /**
+     * 描述：键所属的成员，即环上顺时针方向的第一个虚拟节点
+     */
+    @SuppressWarnings("unchecked")
+    public T get(long key) {
+        int index = Arrays.binarySearch(points, mix(key));
+        if (index < 0) {
+            index = -index - 1;
+            if (index == points.length) {
+                index = 0;
+            }
+        }
+        return (T) owners[index];
+    }
+
+    private static long hash(String name) {
+        //FNV-1a，再经 mix 打散
+        long h = 0xcbf29ce484222325L;
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * MurmurHash3 的 fmix64，连续的群id 也能均匀落在环上
+     */
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
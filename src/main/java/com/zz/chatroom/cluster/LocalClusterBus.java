@@ -0,0 +1,115 @@
+package com.zz.chatroom.cluster;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 描述: 同一 JVM 内的集群总线
+ *      同一进程里创建的所有 LocalClusterBus 共用一份在线目录，转发时在调用线程上直接回调目标节点的 listener。
+ *      单节点部署时只有自己一个节点，转发总是找不到目标；测试时可以在一个 JVM 里起多个节点模拟集群，
+ *      节点启动、关闭时所有节点的 getNodeIds() 随之变化。
+ */
+public class LocalClusterBus implements ClusterBus {
+
+    private static final PresenceDirectory DIRECTORY = new PresenceDirectory();
+
+    private static final Map<String, LocalClusterBus> NODES = new ConcurrentHashMap<>();
+
+    private static volatile List<String> nodeIds = Collections.emptyList();
+
+    private final String nodeId;
+    private final List<String> selfOnly;
+
+    private volatile Listener listener;
+
+    public LocalClusterBus(String nodeId) {
+        this.nodeId = nodeId;
+        this.selfOnly = Collections.singletonList(nodeId);
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public List<String> getNodeIds() {
+        List<String> ids = nodeIds;
+        return ids.isEmpty() ? selfOnly : ids;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        this.listener = listener;
+        if (NODES.putIfAbsent(nodeId, this) != null) {
+            throw new IllegalStateException("节点 " + nodeId + " 已在本进程内启动");
+        }
+        refreshNodeIds();
+    }
+
+    @Override
+    public void userOnline(String userId) {
+        DIRECTORY.add(userId, nodeId);
+    }
+
+    @Override
+    public void userOffline(String userId) {
+        DIRECTORY.remove(userId, nodeId);
+    }
+
+    @Override
+    public boolean isOnlineElsewhere(String userId) {
+        return DIRECTORY.isOnlineExcept(userId, nodeId);
+    }
+
+    @Override
+    public boolean sendToUser(String userId, ByteBuf payload) {
+        boolean forwarded = false;
+        for (String node : DIRECTORY.nodesOf(userId)) {
+            LocalClusterBus target = node.equals(nodeId) ? null : NODES.get(node);
+            if (target != null) {
+                target.listener.onUserMessage(userId, payload.duplicate());
+                forwarded = true;
+            }
+        }
+        return forwarded;
+    }
+
+    @Override
+    public boolean forwardCommand(String nodeId, String senderSession, ByteBuf command) {
+        LocalClusterBus target = NODES.get(nodeId);
+        if (target == null) {
+            return false;
+        }
+        target.listener.onCommand(senderSession, command.duplicate());
+        return true;
+    }
+
+    @Override
+    public void publishGroup(Integer groupId, long seq, String excludeSession, ByteBuf payload) {
+        for (LocalClusterBus target : NODES.values()) {
+            if (target != this) {
+                target.listener.onGroupMessage(groupId, seq, excludeSession, payload.duplicate());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (NODES.remove(nodeId, this)) {
+            DIRECTORY.removeNode(nodeId);
+            refreshNodeIds();
+        }
+    }
+
+    private static synchronized void refreshNodeIds() {
+        List<String> ids = new ArrayList<>(NODES.keySet());
+        Collections.sort(ids);
+        nodeIds = Collections.unmodifiableList(ids);
+    }
+}
@@ -0,0 +1,539 @@
+package com.zz.chatroom.cluster;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 描述: 跨进程的集群总线，节点之间用 Netty 长连接通信
+ *      1. 每个节点监听自己的集群端口，并主动连接其他每个节点：主动建立的连接只用来发，接收的连接只用来收，断开后定时重连；
+ *      2. 帧格式：4 字节长度 + 1 字节类型 + 内容，字符串为 2 字节长度 + UTF-8，消息内容原样放在帧尾，
+ *         与帧头合成一个 CompositeByteBuf 写出，不复制；
+ *      3. 群消息、单聊指令（COMMAND）转交属主节点，属主编码后的群消息（GROUP_MESSAGE）带上发送者连接的会话标识，
+ *         发送者所在节点广播时跳过该连接；
+ *      4. 在线目录由各节点各自维护：连上某个节点后先发 HELLO 与本节点全量在线用户（SNAPSHOT），之后逐条发 ONLINE / OFFLINE，
+ *         某个节点的连接断开时，移除该节点上的全部用户，重连后以新的 SNAPSHOT 为准；
+ *      5. 本节点在线用户的变化与 SNAPSHOT 的发送在同一把锁内进行，保证对端收到的顺序与本节点的变化顺序一致；
+ *      6. 只监听 cluster.nodes 中本节点的地址，主动连接也从该地址发出；接收的连接必须来自 cluster.nodes 中某个节点的地址，
+ *         HELLO 带上 发送方id|接收方id|时间戳 的 HMAC-SHA256（密钥为 cluster.secret），校验不通过直接关闭，
+ *         不在集群内的进程无法注入消息或改动在线目录；
+ *      7. 对端处理慢、连接写缓冲超过高水位时，消息帧直接丢弃（单聊、群聊按离线消息补回），
+ *         在线目录的帧不能丢，此时断开连接，重连后以新的 SNAPSHOT 为准。
+ */
+public class NettyClusterBus implements ClusterBus {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NettyClusterBus.class);
+
+    private static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+    private static final int RECONNECT_SECONDS = 3;
+    /**
+     * HELLO 时间戳允许的最大偏差，节点之间的时钟应当同步
+     */
+    private static final long HELLO_MAX_SKEW_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final WriteBufferWaterMark WATER_MARK = new WriteBufferWaterMark(1024 * 1024, 4 * 1024 * 1024);
+
+    private static final byte HELLO = 1;
+    private static final byte SNAPSHOT = 2;
+    private static final byte ONLINE = 3;
+    private static final byte OFFLINE = 4;
+    private static final byte USER_MESSAGE = 5;
+    private static final byte GROUP_MESSAGE = 6;
+    private static final byte COMMAND = 7;
+
+    private final String nodeId;
+    /**
+     * 其他节点：节点id -> 集群通信地址
+     */
+    private final Map<String, InetSocketAddress> peers = new LinkedHashMap<>();
+    private final InetSocketAddress bindAddress;
+    private final List<String> nodeIds;
+    private final SecretKeySpec secret;
+
+    private final PresenceDirectory directory = new PresenceDirectory();
+    /**
+     * 本节点上的在线用户，发 SNAPSHOT 用
+     */
+    private final Set<String> localUsers = ConcurrentHashMap.newKeySet();
+    /**
+     * 发往其他节点的连接
+     */
+    private final Map<String, Channel> outboundChannels = new ConcurrentHashMap<>();
+    /**
+     * 其他节点连过来的连接，用于判断断开的是否为该节点当前的连接
+     */
+    private final Map<String, Channel> inboundChannels = new ConcurrentHashMap<>();
+    private final Object presenceLock = new Object();
+
+    private EventLoopGroup group;
+    private Listener listener;
+    private volatile boolean closed;
+
+    /**
+     * @param nodeId 本节点id
+     * @param nodes  所有节点（含本节点），格式 node1=10.0.0.1:9900,node2=10.0.0.2:9900
+     * @param secret 所有节点相同的共享密钥，不能为空
+     */
+    public NettyClusterBus(String nodeId, String nodes, String secret) {
+        if (secret == null || secret.trim().isEmpty()) {
+            throw new IllegalArgumentException("netty 模式必须配置 cluster.secret");
+        }
+        this.nodeId = nodeId;
+        this.secret = new SecretKeySpec(secret.trim().getBytes(CharsetUtil.UTF_8), HMAC_ALGORITHM);
+        InetSocketAddress self = null;
+        for (String node : nodes.split(",")) {
+            if (node.trim().isEmpty()) {
+                continue;
+            }
+            String[] pair = node.trim().split("=");
+            int colon = pair.length == 2 ? pair[1].lastIndexOf(':') : -1;
+            if (colon <= 0) {
+                throw new IllegalArgumentException("cluster.nodes 格式应为 node1=host:port,node2=host:port：" + node);
+            }
+            InetSocketAddress address = InetSocketAddress.createUnresolved(pair[1].substring(0, colon),
+                    Integer.parseInt(pair[1].substring(colon + 1)));
+            if (pair[0].equals(nodeId)) {
+                self = address;
+            } else {
+                peers.put(pair[0], address);
+            }
+        }
+        if (self == null) {
+            throw new IllegalArgumentException("cluster.nodes 中没有本节点 " + nodeId);
+        }
+        this.bindAddress = new InetSocketAddress(self.getHostString(), self.getPort());
+        List<String> ids = new ArrayList<>(peers.keySet());
+        ids.add(nodeId);
+        Collections.sort(ids);
+        this.nodeIds = Collections.unmodifiableList(ids);
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public List<String> getNodeIds() {
+        return nodeIds;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        this.listener = listener;
+        group = new NioEventLoopGroup(2, new DefaultThreadFactory("cluster-io", true));
+        new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, WATER_MARK)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(MAX_FRAME_LENGTH, 0, 4, 0, 4));
+                        ch.pipeline().addLast(new InboundHandler());
+                    }
+                })
+                .bind(bindAddress).syncUninterruptibly();
+        LOGGER.info(MessageFormat.format("集群节点 {0} 监听 {1}，其他节点：{2}", nodeId, bindAddress, peers.keySet()));
+        for (String peer : peers.keySet()) {
+            connect(peer);
+        }
+    }
+
+    @Override
+    public void userOnline(String userId) {
+        synchronized (presenceLock) {
+            if (localUsers.add(userId)) {
+                sendToAll(ONLINE, userId);
+            }
+        }
+    }
+
+    @Override
+    public void userOffline(String userId) {
+        synchronized (presenceLock) {
+            if (localUsers.remove(userId)) {
+                sendToAll(OFFLINE, userId);
+            }
+        }
+    }
+
+    @Override
+    public boolean isOnlineElsewhere(String userId) {
+        return directory.isOnlineExcept(userId, nodeId);
+    }
+
+    @Override
+    public boolean sendToUser(String userId, ByteBuf payload) {
+        boolean forwarded = false;
+        for (String node : directory.nodesOf(userId)) {
+            Channel channel = outboundChannels.get(node);
+            if (channel != null && channel.isWritable()) {
+                ByteBuf header = channel.alloc().buffer(7 + userId.length() * 3);
+                writeHeader(header, USER_MESSAGE, payload.readableBytes());
+                writeString(header, userId);
+                channel.writeAndFlush(frame(header, payload), channel.voidPromise());
+                forwarded = true;
+            }
+        }
+        return forwarded;
+    }
+
+    @Override
+    public boolean forwardCommand(String nodeId, String senderSession, ByteBuf command) {
+        Channel channel = outboundChannels.get(nodeId);
+        if (channel == null || !channel.isWritable()) {
+            return false;
+        }
+        ByteBuf header = channel.alloc().buffer(7 + senderSession.length() * 3);
+        writeHeader(header, COMMAND, command.readableBytes());
+        writeString(header, senderSession);
+        channel.writeAndFlush(frame(header, command), channel.voidPromise());
+        return true;
+    }
+
+    @Override
+    public void publishGroup(Integer groupId, long seq, String excludeSession, ByteBuf payload) {
+        String exclude = excludeSession == null ? "" : excludeSession;
+        for (Channel channel : outboundChannels.values()) {
+            if (!channel.isWritable()) {
+                continue;
+            }
+            ByteBuf header = channel.alloc().buffer(19 + exclude.length() * 3);
+            writeHeader(header, GROUP_MESSAGE, payload.readableBytes());
+            header.writeInt(groupId);
+            header.writeLong(seq);
+            writeString(header, exclude);
+            channel.writeAndFlush(frame(header, payload), channel.voidPromise());
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (group != null) {
+            group.shutdownGracefully().syncUninterruptibly();
+        }
+    }
+
+    private void connect(String peer) {
+        if (closed) {
+            return;
+        }
+        InetSocketAddress address = peers.get(peer);
+        new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, WATER_MARK)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        //只发不收
+                        ch.pipeline().addLast(new WritabilityLogger(peer));
+                    }
+                })
+                //从本节点配置的地址发出，对端据此校验来源
+                .localAddress(bindAddress.getAddress(), 0)
+                .connect(address.getHostString(), address.getPort())
+                .addListener((ChannelFuture future) -> {
+                    if (!future.isSuccess()) {
+                        scheduleReconnect(peer);
+                        return;
+                    }
+                    Channel channel = future.channel();
+                    synchronized (presenceLock) {
+                        outboundChannels.put(peer, channel);
+                        sendHello(channel, peer);
+                    }
+                    LOGGER.info(MessageFormat.format("集群节点 {0} 已连接到节点 {1}", nodeId, peer));
+                    channel.closeFuture().addListener(closeFuture -> {
+                        outboundChannels.remove(peer, channel);
+                        LOGGER.warn(MessageFormat.format("集群节点 {0} 与节点 {1} 的连接断开", nodeId, peer));
+                        scheduleReconnect(peer);
+                    });
+                });
+    }
+
+    private void scheduleReconnect(String peer) {
+        if (!closed) {
+            group.schedule(() -> connect(peer), RECONNECT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * HELLO 之后紧跟本节点全量在线用户，调用方持有 presenceLock
+     */
+    private void sendHello(Channel channel, String peer) {
+        long timestamp = System.currentTimeMillis();
+        ByteBuf hello = channel.alloc().buffer();
+        writeHeader(hello, HELLO, 0);
+        writeString(hello, nodeId);
+        hello.writeLong(timestamp);
+        hello.writeBytes(sign(nodeId, peer, timestamp));
+        channel.write(finishFrame(hello));
+
+        ByteBuf snapshot = channel.alloc().buffer(9 + localUsers.size() * 8);
+        writeHeader(snapshot, SNAPSHOT, 0);
+        int countIndex = snapshot.writerIndex();
+        snapshot.writeInt(0);
+        int count = 0;
+        for (String userId : localUsers) {
+            writeString(snapshot, userId);
+            count++;
+        }
+        snapshot.setInt(countIndex, count);
+        channel.writeAndFlush(finishFrame(snapshot));
+    }
+
+    /**
+     * 调用方持有 presenceLock；写缓冲已满的连接不能丢帧，断开后重连以 SNAPSHOT 同步
+     */
+    private void sendToAll(byte type, String userId) {
+        for (Channel channel : outboundChannels.values()) {
+            if (!channel.isWritable()) {
+                LOGGER.warn(MessageFormat.format("集群连接 {0} 写缓冲已满，断开后重新同步在线用户", channel.remoteAddress()));
+                channel.close();
+                continue;
+            }
+            ByteBuf frame = channel.alloc().buffer(7 + userId.length() * 3);
+            writeHeader(frame, type, 0);
+            writeString(frame, userId);
+            channel.writeAndFlush(finishFrame(frame), channel.voidPromise());
+        }
+    }
+
+    /**
+     * HMAC(发送方id|接收方id|时间戳)
+     */
+    private byte[] sign(String from, String to, long timestamp) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(secret);
+            return mac.doFinal((from + "|" + to + "|" + timestamp).getBytes(CharsetUtil.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 描述：校验其他节点连过来时发的 HELLO：节点在 cluster.nodes 中、连接来自该节点配置的地址、签名正确且时间戳未过期
+     *
+     * @return 校验不通过的原因，通过时返回 null
+     */
+    private String verifyHello(String peer, SocketAddress remoteAddress, long timestamp, byte[] signature) {
+        InetSocketAddress configured = peers.get(peer);
+        if (configured == null) {
+            return "不在 cluster.nodes 中的节点 " + peer;
+        }
+        if (!isFrom(configured, remoteAddress)) {
+            return "节点 " + peer + " 的连接不是来自配置的地址 " + configured.getHostString();
+        }
+        if (Math.abs(System.currentTimeMillis() - timestamp) > HELLO_MAX_SKEW_MILLIS) {
+            return "节点 " + peer + " 的 HELLO 时间戳已过期";
+        }
+        if (!MessageDigest.isEqual(sign(peer, nodeId, timestamp), signature)) {
+            return "节点 " + peer + " 的 HELLO 签名不正确";
+        }
+        return null;
+    }
+
+    private static boolean isFrom(InetSocketAddress configured, SocketAddress remoteAddress) {
+        if (!(remoteAddress instanceof InetSocketAddress)) {
+            return false;
+        }
+        InetAddress remote = ((InetSocketAddress) remoteAddress).getAddress();
+        try {
+            for (InetAddress address : InetAddress.getAllByName(configured.getHostString())) {
+                if (address.equals(remote)) {
+                    return true;
+                }
+            }
+        } catch (UnknownHostException e) {
+            LOGGER.warn("无法解析集群节点地址：" + configured.getHostString());
+        }
+        return false;
+    }
+
+    /**
+     * 先写入长度占位，extraLength 为帧头之后另外拼接的字节数
+     */
+    private static void writeHeader(ByteBuf header, byte type, int extraLength) {
+        header.writeInt(extraLength);
+        header.writeByte(type);
+    }
+
+    private static ByteBuf finishFrame(ByteBuf frame) {
+        frame.setInt(0, frame.readableBytes() - 4);
+        return frame;
+    }
+
+    private static ByteBuf frame(ByteBuf header, ByteBuf payload) {
+        header.setInt(0, header.getInt(0) + header.readableBytes() - 4);
+        return Unpooled.wrappedBuffer(header, payload.retainedDuplicate());
+    }
+
+    private static void writeString(ByteBuf buf, String value) {
+        int lengthIndex = buf.writerIndex();
+        buf.writeShort(0);
+        int length = buf.writeCharSequence(value, CharsetUtil.UTF_8);
+        buf.setShort(lengthIndex, length);
+    }
+
+    private static String readString(ByteBuf buf) {
+        int length = buf.readUnsignedShort();
+        String value = buf.toString(buf.readerIndex(), length, CharsetUtil.UTF_8);
+        buf.skipBytes(length);
+        return value;
+    }
+
+    /**
+     * 描述: 处理其他节点连过来的连接
+     */
+    private final class InboundHandler extends SimpleChannelInboundHandler<ByteBuf> {
+
+        private String peer;
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+            if (!ctx.channel().isOpen()) {
+                // 已拒绝的连接，同一次读到的后续帧不再处理
+                return;
+            }
+            byte type = frame.readByte();
+            if (peer == null && type != HELLO) {
+                LOGGER.warn(MessageFormat.format("集群连接 {0} 未发送 HELLO，关闭", ctx.channel().remoteAddress()));
+                ctx.close();
+                return;
+            }
+            switch (type) {
+                case HELLO:
+                    if (peer != null) {
+                        ctx.close();
+                        return;
+                    }
+                    String hello = readString(frame);
+                    long timestamp = frame.readLong();
+                    byte[] signature = new byte[frame.readableBytes()];
+                    frame.readBytes(signature);
+                    String error = verifyHello(hello, ctx.channel().remoteAddress(), timestamp, signature);
+                    if (error != null) {
+                        LOGGER.warn(MessageFormat.format("拒绝集群连接 {0}：{1}", ctx.channel().remoteAddress(), error));
+                        ctx.close();
+                        return;
+                    }
+                    peer = hello;
+                    Channel previous = inboundChannels.put(peer, ctx.channel());
+                    if (previous != null) {
+                        previous.close();
+                    }
+                    break;
+                case SNAPSHOT:
+                    int count = frame.readInt();
+                    List<String> userIds = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        userIds.add(readString(frame));
+                    }
+                    directory.replaceNode(peer, userIds);
+                    LOGGER.info(MessageFormat.format("集群节点 {0} 上有 {1} 个在线用户", peer, count));
+                    break;
+                case ONLINE:
+                    directory.add(readString(frame), peer);
+                    break;
+                case OFFLINE:
+                    directory.remove(readString(frame), peer);
+                    break;
+                case USER_MESSAGE:
+                    String userId = readString(frame);
+                    listener.onUserMessage(userId, frame);
+                    break;
+                case GROUP_MESSAGE:
+                    int groupId = frame.readInt();
+                    long seq = frame.readLong();
+                    String exclude = readString(frame);
+                    listener.onGroupMessage(groupId, seq, exclude.isEmpty() ? null : exclude, frame);
+                    break;
+                case COMMAND:
+                    listener.onCommand(readString(frame), frame);
+                    break;
+                default:
+                    LOGGER.warn(MessageFormat.format("集群节点 {0} 发来未知类型的帧：{1}", peer, type));
+                    break;
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            if (peer != null && inboundChannels.remove(peer, ctx.channel())) {
+                directory.removeNode(peer);
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            LOGGER.error(MessageFormat.format("集群节点 {0} 的连接出错", String.valueOf(peer)), cause);
+            ctx.close();
+        }
+    }
+
+    /**
+     * 描述: 发往其他节点的连接写缓冲超过高水位、恢复时记录日志，期间的消息帧被丢弃
+     */
+    private static final class WritabilityLogger extends ChannelInboundHandlerAdapter {
+
+        private final String peer;
+
+        private WritabilityLogger(String peer) {
+            this.peer = peer;
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+            if (ctx.channel().isWritable()) {
+                LOGGER.info(MessageFormat.format("发往集群节点 {0} 的写缓冲已恢复", peer));
+            } else {
+                LOGGER.warn(MessageFormat.format("发往集群节点 {0} 的写缓冲已满，暂停转发消息", peer));
+            }
+            super.channelWritabilityChanged(ctx);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.zz.chatroom.cluster;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 描述: 在线目录，userId -> 该用户有连接在线的节点id
+ *      节点数组采用写时复制，与 SessionRegistry 一样查找完全无锁；一个用户通常只在一两个节点上，数组很短。
+ */
+class PresenceDirectory {
+
+    private static final String[] EMPTY = new String[0];
+
+    private final Map<String, String[]> userNodeMap = new ConcurrentHashMap<>();
+
+    void add(String userId, String nodeId) {
+        userNodeMap.compute(userId, (key, nodes) -> {
+            if (nodes == null) {
+                return new String[]{nodeId};
+            }
+            for (String node : nodes) {
+                if (node.equals(nodeId)) {
+                    return nodes;
+                }
+            }
+            String[] newNodes = Arrays.copyOf(nodes, nodes.length + 1);
+            newNodes[nodes.length] = nodeId;
+            return newNodes;
+        });
+    }
+
+    void remove(String userId, String nodeId) {
+        userNodeMap.computeIfPresent(userId, (key, nodes) -> without(nodes, nodeId));
+    }
+
+    /**
+     * 节点断开：移除该节点上的所有用户
+     */
+    void removeNode(String nodeId) {
+        for (String userId : userNodeMap.keySet()) {
+            remove(userId, nodeId);
+        }
+    }
+
+    /**
+     * 节点重新连上：以它发来的全量在线用户为准
+     */
+    void replaceNode(String nodeId, Collection<String> userIds) {
+        removeNode(nodeId);
+        for (String userId : userIds) {
+            add(userId, nodeId);
+        }
+    }
+
+    /**
+     * 用户所在的节点，不在线时返回空数组，调用方不得修改返回的数组
+     */
+    String[] nodesOf(String userId) {
+        String[] nodes = userNodeMap.get(userId);
+        return nodes == null ? EMPTY : nodes;
+    }
+
+    /**
+     * 用户是否在 nodeId 以外的节点上
+     */
+    boolean isOnlineExcept(String userId, String nodeId) {
+        for (String node : nodesOf(userId)) {
+            if (!node.equals(nodeId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String[] without(String[] nodes, String nodeId) {
+        for (int i = 0; i < nodes.length; i++) {
+            if (nodes[i].equals(nodeId)) {
+                if (nodes.length == 1) {
+                    return null;
+                }
+                String[] newNodes = new String[nodes.length - 1];
+                System.arraycopy(nodes, 0, newNodes, 0, i);
+                System.arraycopy(nodes, i + 1, newNodes, i, nodes.length - i - 1);
+                return newNodes;
+            }
+        }
+        return nodes;
+    }
+}
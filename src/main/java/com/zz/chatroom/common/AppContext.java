@@ -8,6 +8,9 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 
+import com.zz.chatroom.service.MessagePersistService;
+import com.zz.chatroom.service.OfflineTimeService;
+import com.zz.chatroom.service.UserCursorService;
 import com.zz.chatroom.web.websocket.WebSocketServer;
 import org.springframework.stereotype.Component;
 
@@ -18,6 +21,12 @@ public class AppContext {
     private final Logger logger = LoggerFactory.getLogger(AppContext.class);
     @Autowired
     private WebSocketServer webSocketServer;
+    @Autowired
+    private MessagePersistService messagePersistService;
+    @Autowired
+    private OfflineTimeService offlineTimeService;
+    @Autowired
+    private UserCursorService userCursorService;
 
     private Thread nettyThread;
 
@@ -42,6 +51,8 @@ public class AppContext {
      * 描述：Tomcat服务器关闭前需要手动关闭Netty Websocket相关资源，否则会造成内存泄漏。
      * 1. 释放Netty Websocket相关连接；
      * 2. 关闭Netty Websocket服务器线程。（强行关闭，是否有必要？）
+     * 3. 把异步持久化队列中尚未写库的消息全部写完；
+     * 4. 把尚未写库的用户离线时间、消息确认游标全部写完。
      * <p>
      * PreDestroy（）方法在destroy（）方法执行之后执行
      */
@@ -52,6 +63,10 @@ public class AppContext {
         webSocketServer.close();
         logger.info("正在关闭Netty Websocket服务器线程...");
         nettyThread.stop();
+        logger.info("正在写入尚未持久化的消息...");
+        messagePersistService.close();
+        offlineTimeService.close();
+        userCursorService.close();
         logger.info("系统成功关闭！");
     }
 }
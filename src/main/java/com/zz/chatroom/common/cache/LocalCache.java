@@ -0,0 +1,197 @@
+package com.zz.chatroom.common.cache;
+
+import com.zz.chatroom.common.metrics.Meter;
+import com.zz.chatroom.common.metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 描述: 进程内读穿缓存，按条数与过期时间淘汰
+ *      1. 命中时只读 ConcurrentHashMap 并记下访问时间，没有锁；
+ *      2. 未命中时由 loader 读库，同一个键同时只有一个线程读库，其他线程等它的结果，重连风暴时不会对同一行并发查询；
+ *      3. 读库期间发生过 invalidate 的，本次结果只返回、不放入缓存，避免把写之前读到的旧值缓存下来；
+ *      4. 条数超过 maxSize 时由一个线程清理：先去掉过期的，仍超出则按最近访问时间淘汰到 maxSize 的 90%；
+ *      5. loader 返回 null 表示数据不存在，不缓存；
+ *      6. 命中、未命中、淘汰次数与当前条数登记到 MetricsRegistry，标签 cache="name"。
+ *
+ * @param <K> 键
+ * @param <V> 值，缓存的对象会被多个调用方共享，调用方不得修改
+ */
+public class LocalCache<K, V> {
+
+    private final int maxSize;
+    private final long ttlNanos;
+
+    private final Map<K, Entry<V>> entryMap = new ConcurrentHashMap<>();
+    private final Map<K, CompletableFuture<V>> loadingMap = new ConcurrentHashMap<>();
+    /**
+     * invalidate 的次数，读库前后比较，判断期间是否有写
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final Meter hits;
+    private final Meter misses;
+    private final Meter evictions;
+
+    public LocalCache(String name, int maxSize, long ttl, TimeUnit unit, MetricsRegistry metricsRegistry) {
+        this.maxSize = maxSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        String label = MetricsRegistry.label("cache", name);
+        hits = metricsRegistry.meter("cache_hits", "缓存命中次数", label);
+        misses = metricsRegistry.meter("cache_misses", "缓存未命中次数，同一个键并发未命中时只读一次库", label);
+        evictions = metricsRegistry.meter("cache_evictions", "缓存因条数超限被淘汰的条数", label);
+        metricsRegistry.gauge("cache_size", "缓存当前条数", label, entryMap::size);
+    }
+
+    /**
+     * 描述：读取，未命中或已过期时用 loader 读库
+     */
+    public V get(K key, Function<K, V> loader) {
+        long now = System.nanoTime();
+        Entry<V> entry = entryMap.get(key);
+        if (entry != null && entry.expiresAt - now > 0) {
+            entry.accessedAt = now;
+            hits.mark();
+            return entry.value;
+        }
+        misses.mark();
+        CompletableFuture<V> loading = new CompletableFuture<>();
+        CompletableFuture<V> existing = loadingMap.putIfAbsent(key, loading);
+        if (existing != null) {
+            return existing.join();
+        }
+        long stamp = invalidations.get();
+        try {
+            V value = loader.apply(key);
+            if (value != null && stamp == invalidations.get()) {
+                put(key, value, now);
+            }
+            loading.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            loading.completeExceptionally(e);
+            throw e;
+        } finally {
+            loadingMap.remove(key, loading);
+        }
+    }
+
+    /**
+     * 描述：批量读取，未命中的键用 bulkLoader 一次读库，返回的 Map 按 keys 的顺序，不存在的键不出现
+     */
+    public Map<K, V> getAll(Collection<K> keys, Function<Collection<K>, Map<K, V>> bulkLoader) {
+        long now = System.nanoTime();
+        Map<K, V> result = new LinkedHashMap<>(keys.size() * 4 / 3 + 1);
+        List<K> missing = new ArrayList<>();
+        for (K key : keys) {
+            Entry<V> entry = entryMap.get(key);
+            if (entry != null && entry.expiresAt - now > 0) {
+                entry.accessedAt = now;
+                result.put(key, entry.value);
+            } else {
+                missing.add(key);
+                result.put(key, null);
+            }
+        }
+        hits.mark(keys.size() - missing.size());
+        if (!missing.isEmpty()) {
+            misses.mark(missing.size());
+            long stamp = invalidations.get();
+            Map<K, V> loaded = bulkLoader.apply(missing);
+            boolean cacheable = stamp == invalidations.get();
+            for (K key : missing) {
+                V value = loaded.get(key);
+                if (value == null) {
+                    result.remove(key);
+                } else {
+                    result.put(key, value);
+                    if (cacheable) {
+                        put(key, value, now);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    public void invalidate(K key) {
+        invalidations.incrementAndGet();
+        entryMap.remove(key);
+    }
+
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        entryMap.clear();
+    }
+
+    private void put(K key, V value, long now) {
+        entryMap.put(key, new Entry<>(value, now + ttlNanos, now));
+        if (entryMap.size() > maxSize && evicting.compareAndSet(false, true)) {
+            try {
+                evict();
+            } finally {
+                evicting.set(false);
+            }
+        }
+    }
+
+    private void evict() {
+        long now = System.nanoTime();
+        entryMap.values().removeIf(entry -> entry.expiresAt - now <= 0);
+        int excess = entryMap.size() - maxSize * 9 / 10;
+        if (excess <= 0) {
+            return;
+        }
+        //访问时间先取快照再排序，排序期间的并发读取不影响比较结果
+        List<Candidate<K, V>> candidates = new ArrayList<>(entryMap.size());
+        for (Map.Entry<K, Entry<V>> e : entryMap.entrySet()) {
+            candidates.add(new Candidate<>(e.getKey(), e.getValue(), e.getValue().accessedAt - now));
+        }
+        candidates.sort(Comparator.comparingLong(candidate -> candidate.age));
+        for (int i = 0; i < excess && i < candidates.size(); i++) {
+            Candidate<K, V> eldest = candidates.get(i);
+            if (entryMap.remove(eldest.key, eldest.entry)) {
+                evictions.mark();
+            }
+        }
+    }
+
+    private static final class Candidate<K, V> {
+        private final K key;
+        private final Entry<V> entry;
+        /**
+         * 最近访问时间相对当前的偏移，越小越久未访问
+         */
+        private final long age;
+
+        private Candidate(K key, Entry<V> entry, long age) {
+            this.key = key;
+            this.entry = entry;
+            this.age = age;
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+        private volatile long accessedAt;
+
+        private Entry(V value, long expiresAt, long accessedAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.accessedAt = accessedAt;
+        }
+    }
+}
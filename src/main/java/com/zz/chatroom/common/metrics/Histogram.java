@@ -0,0 +1,117 @@
+package com.zz.chatroom.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 描述: 直方图，记录非负整数（延迟的微秒数、扇出人数等），多线程并发记录无锁
+ *      1. 按 2 的幂分段，每段再等分 16 个桶，分位数的相对误差不超过 1/16，固定占用 41 * 16 个计数器；
+ *      2. 分位数按时间窗口统计：MetricsRegistry 每个窗口结束时把当前桶换成新的一组，
+ *         报告使用上一个完整窗口，启动后第一个窗口结束前使用当前窗口，线上看到的是最近的分布而不是启动以来的累计；
+ *      3. count、sum 从启动开始累计，max 为上一个完整窗口的最大值。
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAGNITUDES = 41;
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    private volatile Window current = new Window();
+    private volatile Window previous;
+
+    public void record(long value) {
+        long v = Math.max(0L, value);
+        count.increment();
+        sum.add(v);
+        current.record(v);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * 描述：分位数，返回所在桶的上界
+     *
+     * @param quantile 0 ~ 1
+     */
+    public long getQuantile(double quantile) {
+        return reportWindow().quantile(quantile);
+    }
+
+    public long getMax() {
+        return reportWindow().max.get();
+    }
+
+    void rotate() {
+        previous = current;
+        current = new Window();
+    }
+
+    private Window reportWindow() {
+        Window window = previous;
+        return window == null ? current : window;
+    }
+
+    private static final class Window {
+
+        private final AtomicLongArray counts = new AtomicLongArray(MAGNITUDES * SUB_BUCKETS);
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        private void record(long value) {
+            counts.incrementAndGet(indexOf(value));
+            total.increment();
+            long m;
+            while (value > (m = max.get())) {
+                if (max.compareAndSet(m, value)) {
+                    break;
+                }
+            }
+        }
+
+        private long quantile(double quantile) {
+            long n = total.sum();
+            if (n == 0) {
+                return 0L;
+            }
+            long threshold = Math.max(1L, (long) Math.ceil(n * quantile));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= threshold) {
+                    return Math.min(upperBoundOf(i), max.get());
+                }
+            }
+            return max.get();
+        }
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        if (magnitude + 1 >= MAGNITUDES) {
+            return MAGNITUDES * SUB_BUCKETS - 1;
+        }
+        return (magnitude + 1) * SUB_BUCKETS + (int) (value >>> magnitude) - SUB_BUCKETS;
+    }
+
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int magnitude = index / SUB_BUCKETS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        return ((subBucket + SUB_BUCKETS + 1L) << magnitude) - 1;
+    }
+}
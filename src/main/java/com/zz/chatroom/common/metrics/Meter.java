@@ -0,0 +1,50 @@
+package com.zz.chatroom.common.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 描述: 计数器，同时维护最近 1 分钟的指数滑动平均速率（次/秒）
+ *      mark() 只累加 LongAdder，热路径上没有锁和竞争；速率由 MetricsRegistry 的定时任务每 TICK_SECONDS 秒更新一次。
+ */
+public class Meter {
+
+    static final int TICK_SECONDS = 5;
+
+    private static final double ALPHA = 1 - Math.exp(-TICK_SECONDS / 60.0);
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder uncounted = new LongAdder();
+    private volatile double rate;
+    private volatile boolean initialized;
+
+    public void mark() {
+        count.increment();
+        uncounted.increment();
+    }
+
+    public void mark(long n) {
+        count.add(n);
+        uncounted.add(n);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * 最近 1 分钟的平均速率（次/秒）
+     */
+    public double getOneMinuteRate() {
+        return rate;
+    }
+
+    void tick() {
+        double instantRate = uncounted.sumThenReset() / (double) TICK_SECONDS;
+        if (initialized) {
+            rate += ALPHA * (instantRate - rate);
+        } else {
+            rate = instantRate;
+            initialized = true;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.zz.chatroom.common.metrics;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 描述: 监控指标注册表
+ *      各组件在初始化时登记自己的 Meter / Histogram / 仪表值（gauge），热路径上直接持有返回的对象记录，不再查表；
+ *      render() 按 Prometheus 文本格式输出全部指标，由 HttpRequestHandler 在 Netty 端口上提供。
+ *      同名指标用标签区分，例如 chat_inbound{type="SINGLE_SENDING"}，重复登记返回同一个对象。
+ */
+@Component
+public class MetricsRegistry {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * 直方图分位数的统计窗口(秒)
+     */
+    @Value("${metrics.histogram.windowSeconds}")
+    private int histogramWindowSeconds;
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    private ScheduledExecutorService ticker;
+
+    @PostConstruct
+    public void init() {
+        ticker = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("metrics-tick", true));
+        ticker.scheduleAtFixedRate(this::tickMeters, Meter.TICK_SECONDS, Meter.TICK_SECONDS, TimeUnit.SECONDS);
+        ticker.scheduleAtFixedRate(this::rotateHistograms, histogramWindowSeconds, histogramWindowSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        ticker.shutdownNow();
+    }
+
+    public Meter meter(String name, String help) {
+        return meter(name, help, "");
+    }
+
+    /**
+     * @param labels 形如 type="REGISTER" 的标签，可用 label() 生成
+     */
+    public Meter meter(String name, String help, String labels) {
+        return (Meter) family(name, help, Type.METER).children.computeIfAbsent(labels, key -> new Meter());
+    }
+
+    public Histogram histogram(String name, String help) {
+        return histogram(name, help, "");
+    }
+
+    public Histogram histogram(String name, String help, String labels) {
+        return (Histogram) family(name, help, Type.HISTOGRAM).children.computeIfAbsent(labels, key -> new Histogram());
+    }
+
+    /**
+     * 登记仪表值，读取时才调用 value 取值，同名同标签重复登记时以后登记的为准
+     */
+    public void gauge(String name, String help, LongSupplier value) {
+        gauge(name, help, "", value);
+    }
+
+    public void gauge(String name, String help, String labels, LongSupplier value) {
+        family(name, help, Type.GAUGE).children.put(labels, value);
+    }
+
+    /**
+     * 生成一个标签，多个标签用逗号连接
+     */
+    public static String label(String name, Object value) {
+        return name + "=\"" + String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * 描述：按 Prometheus 文本格式（0.0.4）输出全部指标
+     */
+    public String render() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Family family : families.values()) {
+            switch (family.type) {
+                case METER:
+                    header(out, family.name + "_total", family.help, "counter");
+                    for (Map.Entry<String, Object> child : family.children.entrySet()) {
+                        sample(out, family.name + "_total", child.getKey(), ((Meter) child.getValue()).getCount());
+                    }
+                    header(out, family.name + "_rate1m", family.help + "（最近 1 分钟平均，次/秒）", "gauge");
+                    for (Map.Entry<String, Object> child : family.children.entrySet()) {
+                        sample(out, family.name + "_rate1m", child.getKey(),
+                                ((Meter) child.getValue()).getOneMinuteRate());
+                    }
+                    break;
+                case HISTOGRAM:
+                    header(out, family.name, family.help, "summary");
+                    for (Map.Entry<String, Object> child : family.children.entrySet()) {
+                        Histogram histogram = (Histogram) child.getValue();
+                        for (double quantile : QUANTILES) {
+                            sample(out, family.name, join(child.getKey(), label("quantile", quantile)),
+                                    histogram.getQuantile(quantile));
+                        }
+                        sample(out, family.name + "_sum", child.getKey(), histogram.getSum());
+                        sample(out, family.name + "_count", child.getKey(), histogram.getCount());
+                    }
+                    header(out, family.name + "_max", family.help + "（统计窗口内最大值）", "gauge");
+                    for (Map.Entry<String, Object> child : family.children.entrySet()) {
+                        sample(out, family.name + "_max", child.getKey(), ((Histogram) child.getValue()).getMax());
+                    }
+                    break;
+                default:
+                    header(out, family.name, family.help, "gauge");
+                    for (Map.Entry<String, Object> child : family.children.entrySet()) {
+                        sample(out, family.name, child.getKey(), ((LongSupplier) child.getValue()).getAsLong());
+                    }
+                    break;
+            }
+        }
+        return out.toString();
+    }
+
+    private Family family(String name, String help, Type type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+        if (family.type != type) {
+            throw new IllegalArgumentException("指标 " + name + " 已按 " + family.type + " 类型登记");
+        }
+        return family;
+    }
+
+    private void tickMeters() {
+        for (Family family : families.values()) {
+            if (family.type == Type.METER) {
+                for (Object meter : family.children.values()) {
+                    ((Meter) meter).tick();
+                }
+            }
+        }
+    }
+
+    private void rotateHistograms() {
+        for (Family family : families.values()) {
+            if (family.type == Type.HISTOGRAM) {
+                for (Object histogram : family.children.values()) {
+                    ((Histogram) histogram).rotate();
+                }
+            }
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        appendName(out, name, labels).append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        appendName(out, name, labels).append(String.format(Locale.ROOT, "%.3f", value)).append('\n');
+    }
+
+    private static StringBuilder appendName(StringBuilder out, String name, String labels) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        return out.append(' ');
+    }
+
+    private static String join(String labels, String label) {
+        return labels.isEmpty() ? label : labels + "," + label;
+    }
+
+    private enum Type {
+        METER, HISTOGRAM, GAUGE
+    }
+
+    private static final class Family {
+        private final String name;
+        private final String help;
+        private final Type type;
+        /**
+         * 标签 -> Meter / Histogram / LongSupplier
+         */
+        private final Map<String, Object> children = new ConcurrentSkipListMap<>();
+
+        private Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
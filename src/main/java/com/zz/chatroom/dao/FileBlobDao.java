@@ -0,0 +1,43 @@
+package com.zz.chatroom.dao;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.zz.chatroom.bean.FileBlobBean;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author : RUAN.LI
+ * @version : 1.0
+ * @description : 按内容寻址存放的上传文件
+ * @date : 2019/11/22
+ */
+public interface FileBlobDao extends BaseMapper<FileBlobBean> {
+
+    /**
+     * 登记文件，已存在时只更新最近上传时间
+     */
+    int upsert(FileBlobBean entity);
+
+    /**
+     * 更新最近上传时间，返回 0 表示文件未登记（或刚被清理）
+     */
+    int touch(@Param("hash") String hash, @Param("touchTime") Date touchTime);
+
+    /**
+     * 批量增加引用数，hash -> 增加的引用数
+     */
+    int addReferences(@Param("counts") Map<String, Integer> counts);
+
+    /**
+     * 引用数为 0 且最近上传时间早于 before 的文件
+     */
+    List<String> selectOrphans(@Param("before") Date before, @Param("limit") int limit);
+
+    /**
+     * 条件与 selectOrphans 相同的删除，返回 0 表示期间被引用或重新上传
+     */
+    int deleteOrphan(@Param("hash") String hash, @Param("before") Date before);
+}
@@ -3,8 +3,10 @@ package com.zz.chatroom.dao;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.zz.chatroom.bean.MessagesBean;
+import org.apache.ibatis.annotations.Param;
 
 
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -19,4 +21,37 @@ public interface MessagesDao extends BaseMapper<MessagesBean> {
     List<MessagesBean> getMessagesList(MessagesBean entity);
 
     List<MessagesBean> offlineMessageList(MessagesBean entity);
+
+    int insertBatch(List<MessagesBean> list);
+
+    /**
+     * 好友聊天记录分页，按 (M_TIME, M_ID) 游标取一页，游标为空时从最新（或最早）一条开始
+     *
+     * @param older true 往更早翻，结果按时间倒序；false 往更新翻，结果按时间正序
+     */
+    List<MessagesBean> selectFriendNotesPage(@Param("userId") Integer userId, @Param("friendId") Integer friendId,
+                                             @Param("cursorTime") Date cursorTime, @Param("cursorId") Long cursorId,
+                                             @Param("older") boolean older, @Param("limit") int limit);
+
+    /**
+     * 会话内序号大于 afterSeq 的一页消息，按序号正序
+     *
+     * @param conversationId 群id，0 表示该用户的好友消息收件箱
+     */
+    List<MessagesBean> selectConversationAfter(@Param("userId") Integer userId,
+                                               @Param("conversationId") Integer conversationId,
+                                               @Param("afterSeq") long afterSeq, @Param("limit") int limit);
+
+    /**
+     * 会话当前最大序号，before 不为空时只统计该时间及之前的消息；没有消息返回 null
+     */
+    Long selectMaxSeq(@Param("userId") Integer userId, @Param("conversationId") Integer conversationId,
+                      @Param("before") Date before);
+
+    /**
+     * 群聊天记录分页，参数含义同 selectFriendNotesPage
+     */
+    List<MessagesBean> selectGroupNotesPage(@Param("groupId") Integer groupId,
+                                            @Param("cursorTime") Date cursorTime, @Param("cursorId") Long cursorId,
+                                            @Param("older") boolean older, @Param("limit") int limit);
  }
@@ -0,0 +1,20 @@
+package com.zz.chatroom.dao;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.zz.chatroom.bean.UserCursorBean;
+
+import java.util.List;
+
+/**
+ * @author : RUAN.LI
+ * @version : 1.0
+ * @description : 用户消息确认游标
+ * @date : 2019/11/12
+ */
+public interface UserCursorDao extends BaseMapper<UserCursorBean> {
+
+    /**
+     * 批量写入游标，已存在的只会前进不会后退
+     */
+    int upsertBatch(List<UserCursorBean> list);
+}
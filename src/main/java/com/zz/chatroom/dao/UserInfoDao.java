@@ -19,4 +19,8 @@ public interface UserInfoDao extends BaseMapper<UserInfoBean> {
 
     List<UserInfoBean> queryFriends(Integer userId);
 
+    List<Integer> queryFriendIds(Integer userId);
+
+    int updateOfflineTimeBatch(List<UserInfoBean> list);
+
 }
@@ -1,28 +1,38 @@
 package com.zz.chatroom.service;
 
-import com.alibaba.fastjson.JSONObject;
+import com.zz.chatroom.util.ChatCommand;
+import com.zz.chatroom.util.ChatEvent;
 import io.netty.channel.ChannelHandlerContext;
 
 
 public interface ChatService {
 
-    void register(JSONObject param, ChannelHandlerContext ctx);
+    /**
+     * 描述：登记连接，连接已登记为其他用户时拒绝
+     *
+     * @return 是否登记成功（含同一用户重复登记），不成功时不能回放离线消息
+     */
+    boolean register(ChatCommand command, ChannelHandlerContext ctx);
 
-    void singleSend(JSONObject param, ChannelHandlerContext ctx);
+    void singleSend(ChatCommand command, ChannelHandlerContext ctx);
 
-    void offlineMessage(JSONObject param, ChannelHandlerContext ctx);
+    void offlineMessage(ChatCommand command, ChannelHandlerContext ctx);
 
-    void groupSend(JSONObject param, ChannelHandlerContext ctx);
+    void groupSend(ChatCommand command, ChannelHandlerContext ctx);
 
-    void fileMsgSingleSend(JSONObject param, ChannelHandlerContext ctx);
+    void ownerSend(ChatCommand command, String senderSession);
 
-    void fileMsgGroupSend(JSONObject param, ChannelHandlerContext ctx);
+    void fileMsgSingleSend(ChatCommand command, ChannelHandlerContext ctx);
+
+    void fileMsgGroupSend(ChatCommand command, ChannelHandlerContext ctx);
+
+    void ack(ChatCommand command, ChannelHandlerContext ctx);
 
     void remove(ChannelHandlerContext ctx);
 
     void typeError(ChannelHandlerContext ctx);
 
-    void sendMessage(ChannelHandlerContext ctx, String message);
+    void sendMessage(ChannelHandlerContext ctx, ChatEvent event);
 
-    void heartBeat();
+    void sendError(ChannelHandlerContext ctx, String msg);
 }
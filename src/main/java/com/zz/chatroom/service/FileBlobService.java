@@ -0,0 +1,17 @@
+package com.zz.chatroom.service;
+
+import com.zz.chatroom.bean.MessagesBean;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+
+
+public interface FileBlobService {
+
+    boolean reuse(String hash);
+
+    void store(String hash, long size, Path source) throws IOException;
+
+    void addReferences(Collection<MessagesBean> messages);
+}
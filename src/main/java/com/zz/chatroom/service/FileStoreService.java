@@ -0,0 +1,20 @@
+package com.zz.chatroom.service;
+
+import java.nio.file.Path;
+
+
+public interface FileStoreService {
+
+    /**
+     * 上传中的临时文件后缀，不能下载
+     */
+    String PART_SUFFIX = ".part";
+
+    Path getRoot();
+
+    Path resolve(String fileName);
+
+    Path resolvePart(String name);
+
+    boolean isPartFile(String fileName);
+}
@@ -1,5 +1,7 @@
 package com.zz.chatroom.service;
 
+import java.io.InputStream;
+
 import javax.servlet.http.HttpServletRequest;
 
 import com.zz.chatroom.util.ResponseJson;
@@ -9,4 +11,12 @@ import org.springframework.web.multipart.MultipartFile;
 public interface FileUploadService {
 
     ResponseJson upload(MultipartFile file, HttpServletRequest request);
+
+    ResponseJson initUpload(Integer userId, String originalFilename, long fileSize, String sha256);
+
+    ResponseJson uploadPart(Integer userId, String uploadId, int index, InputStream in, long contentLength);
+
+    ResponseJson uploadStatus(Integer userId, String uploadId);
+
+    ResponseJson completeUpload(Integer userId, String uploadId);
 }
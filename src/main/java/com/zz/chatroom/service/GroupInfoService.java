@@ -1,6 +1,19 @@
 package com.zz.chatroom.service;
 
+import com.zz.chatroom.bean.GroupInfoBean;
+
+import java.util.Set;
+
 
 public interface GroupInfoService {
 
+    void loadGroupMembers();
+
+    Set<String> getMemberIds(Integer groupId);
+
+    Set<Integer> getGroupIds(String userId);
+
+    void addMember(GroupInfoBean member);
+
+    void removeMember(Integer groupId, Integer userId);
 }
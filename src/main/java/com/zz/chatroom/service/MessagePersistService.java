@@ -0,0 +1,14 @@
+package com.zz.chatroom.service;
+
+import com.zz.chatroom.bean.MessagesBean;
+
+import java.util.List;
+
+public interface MessagePersistService {
+
+    void save(MessagesBean entity);
+
+    List<MessagesBean> getPending(Integer userId, Integer conversationId, long afterSeq, int limit);
+
+    void close();
+}
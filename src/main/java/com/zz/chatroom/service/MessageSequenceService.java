@@ -0,0 +1,14 @@
+package com.zz.chatroom.service;
+
+
+public interface MessageSequenceService {
+
+    /**
+     * 会话ID 0：好友消息收件箱
+     */
+    int INBOX = 0;
+
+    long nextInboxSeq(Integer toUserId);
+
+    long nextGroupSeq(Integer groupId);
+}
@@ -0,0 +1,13 @@
+package com.zz.chatroom.service;
+
+import java.util.Date;
+
+
+public interface OfflineTimeService {
+
+    void markOffline(Integer userId, Date offlineTime);
+
+    Date getPendingOfflineTime(Integer userId);
+
+    void close();
+}
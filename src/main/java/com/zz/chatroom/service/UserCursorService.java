@@ -0,0 +1,28 @@
+package com.zz.chatroom.service;
+
+import java.util.Map;
+
+
+public interface UserCursorService {
+
+    void ack(Integer userId, Integer conversationId, long seq);
+
+    /**
+     * 描述：确认 [fromSeq, seq] 整段序号，用于离线消息一帧回放的整块消息
+     */
+    void ack(Integer userId, Integer conversationId, long fromSeq, long seq);
+
+    /**
+     * 描述：还没有确认过的会话的初始游标，已有游标时不覆盖
+     */
+    void initCursor(Integer userId, Integer conversationId, long seq);
+
+    Map<Integer, Long> getCursors(Integer userId);
+
+    /**
+     * 描述：用户在本节点的最后一个连接断开，丢弃内存中的确认进度，已确认的游标照常写库
+     */
+    void release(Integer userId);
+
+    void close();
+}
@@ -7,4 +7,8 @@ public interface UserInfoService {
 
     ResponseJson getByUserId(Integer userId);
 
+    void invalidateUser(Integer userId);
+
+    void invalidateGroups();
+
 }
@@ -1,7 +1,6 @@
 package com.zz.chatroom.service.impl;
 
 import com.alibaba.fastjson.JSONObject;
-import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.zz.chatroom.bean.MessagesBean;
 import com.zz.chatroom.dao.MessagesDao;
 import com.zz.chatroom.service.ChatNotesService;
@@ -9,14 +8,20 @@ import com.zz.chatroom.util.ResponseJson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 
 /**
  * @author : RUAN.LI
  * @version : 1.0
- * @description :
+ * @description : 聊天记录
+ *      按 (M_TIME, M_ID) 游标分页，每次只取一页：
+ *      direction=older（默认）从游标往更早翻，direction=newer 往更新翻，不带游标时分别从最新、最早一条开始；
+ *      返回的一页总是按时间正序排列，并带上两端的游标和是否还有更多。
  * @date : 2019/11/5
  */
 @Service
@@ -28,28 +33,56 @@ public class ChatNotesServiceImpl implements ChatNotesService {
     @Autowired
     private MessagesDao messagesDao;
 
+    @Value("${chat.notes.pageSize}")
+    private int defaultPageSize;
+    @Value("${chat.notes.maxPageSize}")
+    private int maxPageSize;
+
     @Override
     public ResponseJson getChatNotes(JSONObject data) {
-        //消息集合
+        Integer pageSize = data.getInteger("pageSize");
+        int limit = pageSize == null || pageSize <= 0 ? defaultPageSize : Math.min(pageSize, maxPageSize);
+        boolean older = !"newer".equals(data.getString("direction"));
+        Long cursorMillis = data.getLong("cursorTime");
+        Date cursorTime = cursorMillis == null ? null : new Date(cursorMillis);
+        Long cursorId = data.getLong("cursorId");
+
+        //多取一条判断是否还有更多
         List<MessagesBean> messagesInfos;
-        QueryWrapper<MessagesBean> ew = new QueryWrapper<>();
-        if (null == data.get("groupId") || "" == data.get("groupId")) {
+        String groupId = data.getString("groupId");
+        if (null == groupId || groupId.isEmpty()) {
             //发送人ID
-            Integer fromUserId = (Integer) data.get("fromUserId");
+            Integer fromUserId = data.getInteger("fromUserId");
             //接收者ID
-            Integer toUserId = Integer.parseInt((String) data.get("toUserId"));
-            ew.and(i -> i.eq("M_TO_USER_ID", toUserId).eq("M_FROM_USER_ID", fromUserId))
-                    .or(i -> i.eq("M_TO_USER_ID", fromUserId).eq("M_FROM_USER_ID", toUserId))
-                    .last("order By M_TIME Asc");
-            //获取好友消息
-            messagesInfos = messagesDao.selectList(ew);
+            Integer toUserId = data.getInteger("toUserId");
+            messagesInfos = messagesDao.selectFriendNotesPage(fromUserId, toUserId, cursorTime, cursorId, older, limit + 1);
         } else {
-            //群ID
-            Integer groupId = Integer.parseInt((String) data.get("groupId"));
-            //获取群消息
-            ew.eq("M_GID", groupId).last("order By M_TIME Asc");
-            messagesInfos = messagesDao.selectList(ew);
+            messagesInfos = messagesDao.selectGroupNotesPage(Integer.valueOf(groupId), cursorTime, cursorId, older, limit + 1);
+        }
+        boolean hasMore = messagesInfos.size() > limit;
+        if (hasMore) {
+            messagesInfos = messagesInfos.subList(0, limit);
+        }
+        if (older) {
+            Collections.reverse(messagesInfos);
         }
-        return new ResponseJson().success().setData("messageInfos", messagesInfos);
+
+        ResponseJson responseJson = new ResponseJson().success()
+                .setData("messageInfos", messagesInfos)
+                .setData("hasMore", hasMore);
+        if (!messagesInfos.isEmpty()) {
+            MessagesBean first = messagesInfos.get(0);
+            MessagesBean last = messagesInfos.get(messagesInfos.size() - 1);
+            responseJson.setData("olderCursor", cursor(first))
+                    .setData("newerCursor", cursor(last));
+        }
+        return responseJson;
+    }
+
+    private JSONObject cursor(MessagesBean message) {
+        JSONObject cursor = new JSONObject();
+        cursor.put("cursorTime", message.getUserTime().getTime());
+        cursor.put("cursorId", message.getMessageId());
+        return cursor;
     }
 }
@@ -1,32 +1,50 @@
 package com.zz.chatroom.service.impl;
 
 import java.text.MessageFormat;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
 
-import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
-import com.zz.chatroom.bean.GroupInfoBean;
+import com.alibaba.fastjson.JSON;
 import com.zz.chatroom.bean.MessagesBean;
-import com.zz.chatroom.bean.UserInfoBean;
-import com.zz.chatroom.dao.GroupInfoDao;
+import com.zz.chatroom.cluster.ClusterBus;
+import com.zz.chatroom.common.metrics.Histogram;
+import com.zz.chatroom.common.metrics.MetricsRegistry;
 import com.zz.chatroom.dao.MessagesDao;
 import com.zz.chatroom.dao.UserInfoDao;
 import com.zz.chatroom.service.ChatService;
+import com.zz.chatroom.service.GroupInfoService;
+import com.zz.chatroom.service.MessagePersistService;
+import com.zz.chatroom.service.MessageSequenceService;
+import com.zz.chatroom.service.OfflineTimeService;
+import com.zz.chatroom.service.UserCursorService;
+import com.zz.chatroom.util.ChatCommand;
+import com.zz.chatroom.util.ChatEvent;
+import com.zz.chatroom.util.ChatEventWriter;
 import com.zz.chatroom.util.ChatType;
+import com.zz.chatroom.util.DateFormatUtils;
 import com.zz.chatroom.util.Constant;
+import com.zz.chatroom.web.websocket.GroupChannelManager;
+import com.zz.chatroom.web.websocket.GroupRouter;
+import com.zz.chatroom.web.websocket.SessionRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import com.alibaba.fastjson.JSONObject;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
-import com.zz.chatroom.util.ResponseJson;
 
 /**
  * @author Administrator
@@ -36,201 +54,309 @@ public class ChatServiceImpl implements ChatService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ChatServiceImpl.class);
 
-    private static final SimpleDateFormat SDF = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-
     @Autowired
-    private GroupInfoDao groupInfoDao;
+    private GroupInfoService groupInfoService;
+    @Autowired
+    private GroupChannelManager groupChannelManager;
+    @Autowired
+    private SessionRegistry sessionRegistry;
     @Autowired
     private UserInfoDao userInfoDao;
     @Autowired
     private MessagesDao messagesDao;
+    @Autowired
+    private MessagePersistService messagePersistService;
+    @Autowired
+    private OfflineTimeService offlineTimeService;
+    @Autowired
+    private MessageSequenceService messageSequenceService;
+    @Autowired
+    private UserCursorService userCursorService;
+    @Autowired
+    private ClusterBus clusterBus;
+    @Autowired
+    private GroupRouter groupRouter;
+
+    @Value("${offline.replay.chunkSize}")
+    private int replayChunkSize;
+
+    /**
+     * 每条消息写出的连接数
+     */
+    private Histogram fanOutSize;
+    /**
+     * 服务端投递延迟(微秒)：从解码出指令到写入接收方连接
+     */
+    private Histogram deliveryLatency;
+
+    @Autowired
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        fanOutSize = metricsRegistry.histogram("chat_fanout_size", "单聊、群聊每条消息写出的连接数");
+        deliveryLatency = metricsRegistry.histogram("chat_delivery_latency_micros",
+                "服务端投递延迟(微秒)：从解码出指令到写入接收方连接");
+    }
 
     /**
      * 注册
-     * @param param
+     * @param command
      * @param ctx
+     * @return 是否登记成功
      */
     @Override
-    public void register(JSONObject param, ChannelHandlerContext ctx) {
-        String userId = param.get("userId").toString();
-        Constant.onlineUserMap.put(userId, ctx);
-        String responseJson = new ResponseJson().success()
-                .setData("type", ChatType.REGISTER)
-                .toString();
-        sendMessage(ctx, responseJson);
-        LOGGER.info(MessageFormat.format("userId为 {0} 的用户登记到在线用户表，当前在线人数为：{1}"
-                , userId, Constant.onlineUserMap.size()));
+    public boolean register(ChatCommand command, ChannelHandlerContext ctx) {
+        String userId = command.getUserId().toString();
+        // 同一用户的多个设备各自登记，互不顶替
+        if (sessionRegistry.register(userId, ctx.channel())) {
+            groupChannelManager.join(ctx.channel(), groupInfoService.getGroupIds(userId));
+            clusterBus.userOnline(userId);
+        } else {
+            // 已登记为其他用户的连接不允许改登记，要换用户须重新连接
+            String registered = ctx.channel().attr(Constant.USER_ID_ATTR).get();
+            if (!userId.equals(registered)) {
+                sendError(ctx, MessageFormat.format("该连接已登记为userId为 {0} 的用户，不能再登记为其他用户！", registered));
+                return false;
+            }
+        }
+        sendMessage(ctx, new ChatEvent(ChatType.REGISTER));
+        LOGGER.info(MessageFormat.format("userId为 {0} 的用户登记到在线用户表，当前在线人数为：{1}，在线连接数为：{2}"
+                , userId, sessionRegistry.getOnlineUserCount(), sessionRegistry.getSessionCount()));
+        return true;
     }
 
     /**
-     * 心跳检测
+     * 离线消息：按用户在收件箱和各群的确认游标，逐个会话读取序号大于游标的消息，
+     * 每块合并成一帧 OFFLINE_MESSAGE 发送，上一块写出后才读下一块，channel 不可写时挂起，等恢复可写再继续
      */
     @Override
-    public void heartBeat() {
-        String responseJson = new ResponseJson().success()
-                .setData("type", ChatType.HEART_SERVICE)
-                .toString();
-        Map<String, ChannelHandlerContext> onlineUserMap = Constant.onlineUserMap;
-        for (Map.Entry<String, ChannelHandlerContext> entry : onlineUserMap.entrySet()) {
-            ChannelHandlerContext toCtx = entry.getValue();
-            sendMessage(toCtx, responseJson);
+    public void offlineMessage(ChatCommand command, ChannelHandlerContext ctx) {
+        Integer userId = command.getUserId();
+        Set<Integer> groupIds = groupInfoService.getGroupIds(userId.toString());
+        List<Integer> conversationIds = new ArrayList<>(groupIds.size() + 1);
+        conversationIds.add(MessageSequenceService.INBOX);
+        conversationIds.addAll(groupIds);
+
+        Map<Integer, Long> cursors = userCursorService.getCursors(userId);
+        long[] afterSeqs = new long[conversationIds.size()];
+        Date offlineTime = null;
+        boolean offlineTimeLoaded = false;
+        for (int i = 0; i < afterSeqs.length; i++) {
+            Integer conversationId = conversationIds.get(i);
+            Long cursor = cursors.get(conversationId);
+            if (cursor == null) {
+                //还没有确认过的会话，按离线时间折算一次初始游标并记下，刚断线还没写库的离线时间以内存中的为准
+                if (!offlineTimeLoaded) {
+                    offlineTime = offlineTimeService.getPendingOfflineTime(userId);
+                    if (offlineTime == null) {
+                        offlineTime = userInfoDao.selectById(userId).getUserOfflineTime();
+                    }
+                    offlineTimeLoaded = true;
+                }
+                cursor = messagesDao.selectMaxSeq(userId, conversationId, offlineTime);
+                cursor = cursor == null ? 0L : cursor;
+                userCursorService.initCursor(userId, conversationId, cursor);
+            }
+            afterSeqs[i] = cursor;
         }
+        new OfflineReplay(ctx, userId, conversationIds, afterSeqs).run();
     }
 
     /**
-     * 离线消息
+     * 确认已收到的消息序号，userId 以连接登记的为准
      */
     @Override
-    public void offlineMessage(JSONObject param, ChannelHandlerContext ctx) {
-        String userId = param.get("userId").toString();
-        int id = Integer.parseInt(userId);
-        UserInfoBean userInfoBean = userInfoDao.selectById(id);
-        //获取离线时间
-        Date OfflineTime = userInfoBean.getUserOfflineTime();
-        QueryWrapper<MessagesBean> ew = new QueryWrapper<>();
-        //获取离线消息
-        ew.and(wrapper -> wrapper.eq("M_TO_USER_ID", id).or().in("M_GID", 1)).gt("M_TIME", OfflineTime).last("order By M_TIME Asc");
-        List<MessagesBean> offlineMessages = messagesDao.selectList(ew);
-        Iterator<MessagesBean> ms = offlineMessages.iterator();
-        while (ms.hasNext()) {
-            MessagesBean next = ms.next();
-            //好友消息1，群消息2，好友文件消息3，群文件消息 4
-            switch (next.getType()) {
-                case 1:
-                    sendMessage(ctx, new ResponseJson().success()
-                            .setData("content", next.getContent())
-                            .setData("toUserId", next.getToUserId())
-                            .setData("fromUserName", next.getFromUserName())
-                            .setData("fromUserId", next.getFromUserId())
-                            .setData("sendTime", SDF.format(next.getUserTime()))
-                            .setData("type", ChatType.SINGLE_SENDING)
-                            .toString());
-                    break;
-                case 2:
-                    sendMessage(ctx, new ResponseJson().success()
-                            .setData("content", next.getContent())
-                            .setData("fromUserName", next.getFromUserName())
-                            .setData("fromUserIcon", next.getFromUserIcon())
-                            .setData("fromUserId", next.getFromUserId())
-                            .setData("sendTime", SDF.format(next.getUserTime()))
-                            .setData("toGroupId", next.getGroupId())
-                            .setData("type", ChatType.GROUP_SENDING)
-                            .toString());
-                    break;
-                case 3:
-                    sendMessage(ctx, new ResponseJson().success()
-                            .setData("fromUserId", next.getFromUserId())
-                            .setData("fromUserName", next.getFromUserName())
-                            .setData("originalFilename", next.getFileName())
-                            .setData("fileSize", next.getFileSize())
-                            .setData("sendTime", SDF.format(next.getUserTime()))
-                            .setData("fileUrl", next.getFileUrl())
-                            .setData("type", ChatType.FILE_MSG_SINGLE_SENDING)
-                            .toString());
-                    break;
-                case 4:
-                    sendMessage(ctx, new ResponseJson().success()
-                            .setData("fromUserId", next.getFromUserId())
-                            .setData("fromUserName", next.getFromUserName())
-                            .setData("fromUserIcon", next.getFromUserIcon())
-                            .setData("toGroupId", next.getGroupId())
-                            .setData("originalFilename", next.getFileName())
-                            .setData("fileSize", next.getFileSize())
-                            .setData("sendTime", SDF.format(next.getUserTime()))
-                            .setData("fileUrl", next.getFileUrl())
-                            .setData("type", ChatType.FILE_MSG_GROUP_SENDING)
-                            .toString());
-                    break;
-                default:
-                    LOGGER.info(MessageFormat.format("userId为 {0} 有一条消息id为{1}的转化出错"
-                            , userId, next.getMessageId()));
+    public void ack(ChatCommand command, ChannelHandlerContext ctx) {
+        String userId = ctx.channel().attr(Constant.USER_ID_ATTR).get();
+        if (userId == null) {
+            sendError(ctx, "没有登录，无法确认消息！");
+            return;
+        }
+        Integer conversationId = command.getToGroupId() == null ? MessageSequenceService.INBOX : command.getToGroupId();
+        long seq = command.getSeq();
+        long fromSeq = command.getFromSeq() == null ? seq : Math.min(command.getFromSeq(), seq);
+        userCursorService.ack(Integer.valueOf(userId), conversationId, fromSeq, seq);
+    }
+
+    /**
+     * 离线消息回放任务，始终在 ctx.executor() 上执行
+     */
+    private final class OfflineReplay implements Runnable {
+
+        private final ChannelHandlerContext ctx;
+        private final Integer userId;
+        private final List<Integer> conversationIds;
+        private final long[] afterSeqs;
+        /**
+         * 当前回放到的会话下标
+         */
+        private int index;
+
+        private OfflineReplay(ChannelHandlerContext ctx, Integer userId, List<Integer> conversationIds,
+                              long[] afterSeqs) {
+            this.ctx = ctx;
+            this.userId = userId;
+            this.conversationIds = conversationIds;
+            this.afterSeqs = afterSeqs;
+        }
+
+        @Override
+        public void run() {
+            Channel channel = ctx.channel();
+            if (!channel.isActive()) {
+                return;
+            }
+            List<MessagesBean> chunk = Collections.emptyList();
+            Integer conversationId = null;
+            long fromSeq = 0;
+            while (chunk.isEmpty() && index < afterSeqs.length) {
+                conversationId = conversationIds.get(index);
+                fromSeq = afterSeqs[index] + 1;
+                try {
+                    chunk = readChunk(conversationId, afterSeqs[index]);
+                } catch (Exception e) {
+                    LOGGER.error(MessageFormat.format("userId为 {0} 的用户读取离线消息失败", userId.toString()), e);
+                    return;
+                }
+                if (chunk.isEmpty()) {
+                    index++;
+                } else {
+                    afterSeqs[index] = chunk.get(chunk.size() - 1).getSeq();
+                    if (chunk.size() < replayChunkSize) {
+                        index++;
+                    }
+                }
+            }
+            if (chunk.isEmpty()) {
+                return;
+            }
+            boolean hasMore = index < afterSeqs.length;
+            long toSeq = chunk.get(chunk.size() - 1).getSeq();
+
+            List<ChatEvent> events = new ArrayList<>(chunk.size());
+            for (MessagesBean message : chunk) {
+                ChatEvent event = toOfflineEvent(message);
+                if (event != null) {
+                    events.add(event);
+                }
+            }
+            channel.writeAndFlush(new TextWebSocketFrame(
+                    ChatEventWriter.writeBatch(channel.alloc(), ChatType.OFFLINE_MESSAGE,
+                            conversationId == MessageSequenceService.INBOX ? null : conversationId, fromSeq, toSeq,
+                            events)))
+                    .addListener(future -> {
+                        if (future.isSuccess() && hasMore) {
+                            next();
+                        }
+                    });
+        }
+
+        /**
+         * 库中的消息与还在写库队列中的消息按序号合并，后者不读出来的话游标会越过它们
+         */
+        private List<MessagesBean> readChunk(Integer conversationId, long afterSeq) {
+            List<MessagesBean> stored = messagesDao.selectConversationAfter(userId, conversationId, afterSeq,
+                    replayChunkSize);
+            List<MessagesBean> pending = messagePersistService.getPending(userId, conversationId, afterSeq,
+                    replayChunkSize);
+            if (pending.isEmpty()) {
+                return stored;
+            }
+            TreeMap<Long, MessagesBean> merged = new TreeMap<>();
+            for (MessagesBean message : stored) {
+                merged.put(message.getSeq(), message);
+            }
+            for (MessagesBean message : pending) {
+                merged.putIfAbsent(message.getSeq(), message);
+            }
+            List<MessagesBean> chunk = new ArrayList<>(Math.min(merged.size(), replayChunkSize));
+            for (MessagesBean message : merged.values()) {
+                if (chunk.size() == replayChunkSize) {
                     break;
+                }
+                chunk.add(message);
+            }
+            return chunk;
+        }
+
+        private void next() {
+            Channel channel = ctx.channel();
+            if (channel.isWritable()) {
+                ctx.executor().execute(this);
+                return;
+            }
+            channel.attr(Constant.OFFLINE_REPLAY_ATTR).set(this);
+            // 挂起期间可能已经恢复可写，再检查一次，避免错过 channelWritabilityChanged
+            if (channel.isWritable() && channel.attr(Constant.OFFLINE_REPLAY_ATTR).compareAndSet(this, null)) {
+                ctx.executor().execute(this);
             }
         }
     }
 
+    //好友消息1，群消息2，好友文件消息3，群文件消息 4
+    private ChatEvent toOfflineEvent(MessagesBean next) {
+        ChatEvent event;
+        switch (next.getType()) {
+            case 1:
+                event = new ChatEvent(ChatType.SINGLE_SENDING)
+                        .setContent(next.getContent())
+                        .setToUserId(next.getToUserId())
+                        .setFromUserName(next.getFromUserName())
+                        .setFromUserId(next.getFromUserId())
+                        .setSendTime(DateFormatUtils.format(next.getUserTime()));
+                break;
+            case 2:
+                event = new ChatEvent(ChatType.GROUP_SENDING)
+                        .setContent(next.getContent())
+                        .setFromUserName(next.getFromUserName())
+                        .setFromUserIcon(next.getFromUserIcon())
+                        .setFromUserId(next.getFromUserId())
+                        .setSendTime(DateFormatUtils.format(next.getUserTime()))
+                        .setToGroupId(next.getGroupId());
+                break;
+            case 3:
+                event = new ChatEvent(ChatType.FILE_MSG_SINGLE_SENDING)
+                        .setFromUserId(next.getFromUserId())
+                        .setFromUserName(next.getFromUserName())
+                        .setOriginalFilename(next.getFileName())
+                        .setFileSize(next.getFileSize())
+                        .setSendTime(DateFormatUtils.format(next.getUserTime()))
+                        .setFileUrl(next.getFileUrl());
+                break;
+            case 4:
+                event = new ChatEvent(ChatType.FILE_MSG_GROUP_SENDING)
+                        .setFromUserId(next.getFromUserId())
+                        .setFromUserName(next.getFromUserName())
+                        .setFromUserIcon(next.getFromUserIcon())
+                        .setToGroupId(next.getGroupId())
+                        .setOriginalFilename(next.getFileName())
+                        .setFileSize(next.getFileSize())
+                        .setSendTime(DateFormatUtils.format(next.getUserTime()))
+                        .setFileUrl(next.getFileUrl());
+                break;
+            default:
+                LOGGER.info(MessageFormat.format("userId为 {0} 有一条消息id为{1}的转化出错"
+                        , String.valueOf(next.getToUserId()), String.valueOf(next.getMessageId())));
+                return null;
+        }
+        return event.setSeq(next.getSeq());
+    }
+
     /**
      * 好友消息
      */
     @Override
-    public void singleSend(JSONObject param, ChannelHandlerContext ctx) {
-        String fromUserId = param.get("fromUserId").toString();
-        String fromUserName = param.get("fromUserName").toString();
-        String toUserId = param.get("toUserId").toString();
-        String content = param.get("content").toString();
-        //获取好友的客户端连接
-        ChannelHandlerContext toUserCtx = Constant.onlineUserMap.get(toUserId);
-        MessagesBean entity = new MessagesBean();
-        //消息存入数据库
-        entity.setContent(content)
-                .setFromUserId(Integer.parseInt(fromUserId))
-                .setFromUserName(fromUserName)
-                .setToUserId(Integer.parseInt(toUserId))
-                .setUserTime(new Date())
-                .setType(1);
-        messagesDao.insert(entity);
-        if (null == toUserCtx) {
-            String responseJson = new ResponseJson()
-                    .error(MessageFormat.format("userId为 {0} 的用户没有登录！", toUserId))
-                    .toString();
-            sendMessage(ctx, responseJson);
-        } else {
-            String responseJson = new ResponseJson().success()
-                    .setData("fromUserId", fromUserId)
-                    .setData("fromUserName", fromUserName)
-                    .setData("sendTime", SDF.format(new Date()))
-                    .setData("content", content)
-                    .setData("type", ChatType.SINGLE_SENDING)
-                    .toString();
-            sendMessage(toUserCtx, responseJson);
-        }
+    public void singleSend(ChatCommand command, ChannelHandlerContext ctx) {
+        sendToInbox(command, ctx);
     }
 
     /**
      * 群消息
      */
     @Override
-    public void groupSend(JSONObject param, ChannelHandlerContext ctx) {
-
-        String fromUserId = param.get("fromUserId").toString();
-        String fromUserName = param.get("fromUserName").toString();
-        String fromUserIcon = param.get("fromUserIcon").toString();
-        String toGroupId = param.get("toGroupId").toString();
-        String content = param.get("content").toString();
-
-        GroupInfoBean groupInfo = groupInfoDao.selectById(Integer.parseInt(toGroupId));
-        QueryWrapper<UserInfoBean> ew = new QueryWrapper<>();
-        groupInfo.setMembers(userInfoDao.selectList(ew));
-        if (null == groupInfo.getMembers()) {
-            String responseJson = new ResponseJson().error("该群id不存在").toString();
-            sendMessage(ctx, responseJson);
+    public void groupSend(ChatCommand command, ChannelHandlerContext ctx) {
+        if (groupInfoService.getMemberIds(command.getToGroupId()).isEmpty()) {
+            sendError(ctx, "该群id不存在");
         } else {
-            String responseJson = new ResponseJson().success()
-                    .setData("fromUserId", fromUserId)
-                    .setData("fromUserName", fromUserName)
-                    .setData("fromUserIcon", fromUserIcon)
-                    .setData("content", content)
-                    .setData("toGroupId", toGroupId)
-                    .setData("type", ChatType.GROUP_SENDING)
-                    .setData("sendTime", SDF.format(new Date()))
-                    .toString();
-            //将群消息存入数据库
-            MessagesBean entity = new MessagesBean();
-            entity.setGroupId(Integer.parseInt(toGroupId))
-                    .setFromUserId(Integer.parseInt(fromUserId))
-                    .setFromUserName(fromUserName)
-                    .setFromUserIcon(fromUserIcon)
-                    .setUserTime(new Date())
-                    .setContent(content)
-                    .setType(2);
-            messagesDao.insert(entity);
-            groupInfo.getMembers()
-                    .forEach(member -> {
-                        ChannelHandlerContext toCtx = Constant.onlineUserMap.get((member.getUserId()).toString());
-                        if (null != toCtx && !((member.getUserId().toString()).equals(fromUserId))) {
-                            sendMessage(toCtx, responseJson);
-                        }
-                    });
+            routeToOwner(command, ctx.channel());
         }
     }
 
@@ -238,129 +364,255 @@ public class ChatServiceImpl implements ChatService {
      * 好友文件
      */
     @Override
-    public void fileMsgSingleSend(JSONObject param, ChannelHandlerContext ctx) {
-        String fromUserId = param.get("fromUserId").toString();
-        String fromUserName = param.get("fromUserName").toString();
-        String toUserId = param.get("toUserId").toString();
-        String originalFilename = param.get("originalFilename").toString();
-        String fileSize = param.get("fileSize").toString();
-        String fileUrl = param.get("fileUrl").toString();
-        ChannelHandlerContext toUserCtx = Constant.onlineUserMap.get(toUserId);
-        if (toUserCtx == null) {
-            String responseJson = new ResponseJson()
-                    .error(MessageFormat.format("userId为 {0} 的用户没有登录！", toUserId))
-                    .toString();
-            //文件存入数据库
-            MessagesBean entity = new MessagesBean();
-            entity.setFromUserId(Integer.parseInt(fromUserId))
-                    .setFromUserName(fromUserName)
-                    .setToUserId(Integer.parseInt(toUserId))
-                    .setUserTime(new Date())
-                    .setFileUrl(fileUrl)
-                    .setFileName(originalFilename)
-                    .setFileSize(fileSize)
-                    .setType(3);
-            messagesDao.insert(entity);
-            sendMessage(ctx, responseJson);
+    public void fileMsgSingleSend(ChatCommand command, ChannelHandlerContext ctx) {
+        sendToInbox(command, ctx);
+    }
+
+    //群文件
+    @Override
+    public void fileMsgGroupSend(ChatCommand command, ChannelHandlerContext ctx) {
+        if (groupInfoService.getMemberIds(command.getToGroupId()).isEmpty()) {
+            sendError(ctx, "该群id不存在");
         } else {
-            String responseJson = new ResponseJson().success()
-                    .setData("fromUserId", fromUserId)
-                    .setData("originalFilename", originalFilename)
-                    .setData("fromUserName", fromUserName)
-                    .setData("fileSize", fileSize)
-                    .setData("fileUrl", fileUrl)
-                    .setData("sendTime", SDF.format(new Date()))
-                    .setData("type", ChatType.FILE_MSG_SINGLE_SENDING)
-                    .toString();
-            sendMessage(toUserCtx, responseJson);
+            routeToOwner(command, ctx.channel());
         }
     }
 
-    //群文件
+    /**
+     * 好友消息、好友文件交给接收方收件箱的属主；接收方是否在线由本节点的在线目录判断，不在线时提示发送者
+     */
+    private void sendToInbox(ChatCommand command, ChannelHandlerContext ctx) {
+        String toUserId = command.getToUserId().toString();
+        if (routeToOwner(command, ctx.channel())
+                && !sessionRegistry.isOnline(toUserId) && !clusterBus.isOnlineElsewhere(toUserId)) {
+            sendError(ctx, MessageFormat.format("userId为 {0} 的用户没有登录！", toUserId));
+        }
+    }
+
+    /**
+     * 描述：消息交给属主（群消息为群的属主，好友消息为接收方收件箱的属主）：集群时先找到属主节点，
+     *      不在本节点就把指令转交过去；属主节点未连通时不在本节点分配序号，提示发送者稍后重试。
+     *      属主节点上再交给属主线程
+     *
+     * @return 是否已交给属主
+     */
+    private boolean routeToOwner(ChatCommand command, Channel sender) {
+        boolean group = isGroupMessage(command);
+        String ownerNode = group ? groupRouter.ownerNode(command.getToGroupId())
+                : groupRouter.inboxOwnerNode(command.getToUserId());
+        String senderSession = SessionRegistry.sessionKey(sender);
+        if (ownerNode.equals(clusterBus.getNodeId())) {
+            executeOnOwner(command, senderSession, sender);
+            return true;
+        }
+        ByteBuf json = Unpooled.wrappedBuffer(JSON.toJSONBytes(command));
+        try {
+            if (clusterBus.forwardCommand(ownerNode, senderSession, json)) {
+                return true;
+            }
+        } finally {
+            json.release();
+        }
+        LOGGER.warn(MessageFormat.format("{0} {1} 的属主节点 {2} 未连通，消息未发送", group ? "群" : "用户收件箱",
+                (group ? command.getToGroupId() : command.getToUserId()).toString(), ownerNode));
+        sendError(sender, "消息暂时无法发送，请稍后重试！");
+        return false;
+    }
+
+    /**
+     * 其他节点转交来的消息，本节点是属主
+     */
     @Override
-    public void fileMsgGroupSend(JSONObject param, ChannelHandlerContext ctx) {
-        String fromUserId = param.get("fromUserId").toString();
-        String fromUserName = param.get("fromUserName").toString();
-        String fromUserIcon = param.get("fromUserIcon").toString();
-        String toGroupId = param.get("toGroupId").toString();
-        String originalFilename = param.get("originalFilename").toString();
-        String fileSize = param.get("fileSize").toString();
-        String fileUrl = param.get("fileUrl").toString();
-        GroupInfoBean groupInfo = groupInfoDao.selectById(toGroupId);
-        QueryWrapper<UserInfoBean> ew = new QueryWrapper<>();
-        groupInfo.setMembers(userInfoDao.selectList(ew));
-        if (groupInfo == null) {
-            String responseJson = new ResponseJson().error("该群id不存在").toString();
-            sendMessage(ctx, responseJson);
+    public void ownerSend(ChatCommand command, String senderSession) {
+        executeOnOwner(command, senderSession, sessionRegistry.findSession(senderSession));
+    }
+
+    private void executeOnOwner(ChatCommand command, String senderSession, Channel sender) {
+        if (isGroupMessage(command)) {
+            groupRouter.execute(command.getToGroupId(), () -> fanOutGroupMessage(command, senderSession, sender));
         } else {
-            String responseJson = new ResponseJson().success()
-                    .setData("fromUserId", fromUserId)
-                    .setData("toGroupId", toGroupId)
-                    .setData("fromUserName", fromUserName)
-                    .setData("fromUserIcon", fromUserIcon)
-                    .setData("originalFilename", originalFilename)
-                    .setData("fileSize", fileSize)
-                    .setData("sendTime", SDF.format(new Date()))
-                    .setData("fileUrl", fileUrl)
-                    .setData("type", ChatType.FILE_MSG_GROUP_SENDING)
-                    .toString();
-
-            //将群文件存入数据库
-            MessagesBean entity = new MessagesBean();
-            entity.setGroupId(Integer.parseInt(toGroupId))
-                    .setFromUserId(Integer.parseInt(fromUserId))
-                    .setFromUserName(fromUserName)
-                    .setFromUserIcon(fromUserIcon)
-                    .setUserTime(new Date())
-                    .setFileUrl(fileUrl)
-                    .setFileName(originalFilename)
-                    .setFileSize(fileSize)
+            groupRouter.executeInbox(command.getToUserId(), () -> deliverInboxMessage(command));
+        }
+    }
+
+    private static boolean isGroupMessage(ChatCommand command) {
+        return command.getType() == ChatType.GROUP_SENDING || command.getType() == ChatType.FILE_MSG_GROUP_SENDING;
+    }
+
+    /**
+     * 描述：在接收方收件箱的属主线程上执行：分配序号、放入异步持久化队列，再投递给接收方在各节点的连接；
+     *      文件消息与好友消息一样总是写库：离线回放、确认游标与文件引用数都以 MESSAGES 为准
+     */
+    private void deliverInboxMessage(ChatCommand command) {
+        Integer fromUserId = command.getFromUserId();
+        String fromUserName = command.getFromUserName();
+        Integer toUserId = command.getToUserId();
+        long seq = messageSequenceService.nextInboxSeq(toUserId);
+        ChatEvent event = new ChatEvent(command.getType())
+                .setFromUserId(fromUserId)
+                .setFromUserName(fromUserName)
+                .setSendTime(DateFormatUtils.now())
+                .setSeq(seq);
+        MessagesBean entity = new MessagesBean();
+        entity.setFromUserId(fromUserId)
+                .setFromUserName(fromUserName)
+                .setToUserId(toUserId)
+                .setUserTime(new Date())
+                .setSeq(seq);
+        if (command.getType() == ChatType.SINGLE_SENDING) {
+            event.setContent(command.getContent());
+            entity.setContent(command.getContent())
+                    .setType(1);
+        } else {
+            event.setOriginalFilename(command.getOriginalFilename())
+                    .setFileSize(command.getFileSize())
+                    .setFileUrl(command.getFileUrl());
+            entity.setFileUrl(command.getFileUrl())
+                    .setFileName(command.getOriginalFilename())
+                    .setFileSize(command.getFileSize())
+                    .setType(3);
+        }
+        //消息放入异步持久化队列
+        messagePersistService.save(entity);
+        sendToUser(toUserId.toString(), command.receivedNanos(), event);
+    }
+
+    /**
+     * 描述：在群的属主线程上执行：分配序号、放入异步持久化队列、编码一次后发往其他节点并向本节点的在线成员广播，
+     *      同一个群的消息依次经过这里，序号顺序与各节点的投递顺序一致
+     *
+     * @param sender 发送者的连接，不在本节点时为 null
+     */
+    private void fanOutGroupMessage(ChatCommand command, String senderSession, Channel sender) {
+        Integer fromUserId = command.getFromUserId();
+        String fromUserName = command.getFromUserName();
+        String fromUserIcon = command.getFromUserIcon();
+        Integer toGroupId = command.getToGroupId();
+        long seq = messageSequenceService.nextGroupSeq(toGroupId);
+        ChatEvent event = new ChatEvent(command.getType())
+                .setFromUserId(fromUserId)
+                .setFromUserName(fromUserName)
+                .setFromUserIcon(fromUserIcon)
+                .setToGroupId(toGroupId)
+                .setSendTime(DateFormatUtils.now())
+                .setSeq(seq);
+        MessagesBean entity = new MessagesBean();
+        entity.setGroupId(toGroupId)
+                .setFromUserId(fromUserId)
+                .setFromUserName(fromUserName)
+                .setFromUserIcon(fromUserIcon)
+                .setUserTime(new Date())
+                .setSeq(seq);
+        if (command.getType() == ChatType.GROUP_SENDING) {
+            event.setContent(command.getContent());
+            entity.setContent(command.getContent())
+                    .setType(2);
+        } else {
+            event.setOriginalFilename(command.getOriginalFilename())
+                    .setFileSize(command.getFileSize())
+                    .setFileUrl(command.getFileUrl());
+            entity.setFileUrl(command.getFileUrl())
+                    .setFileName(command.getOriginalFilename())
+                    .setFileSize(command.getFileSize())
                     .setType(4);
-            messagesDao.insert(entity);
-            groupInfo.getMembers().forEach(member -> {
-                ChannelHandlerContext toCtx = Constant.onlineUserMap.get(member.getUserId().toString());
-                if (toCtx != null && !(member.getUserId().toString()).equals(fromUserId)) {
-                    sendMessage(toCtx, responseJson);
-                }
-            });
         }
+        //将群消息放入异步持久化队列
+        messagePersistService.save(entity);
+        ByteBuf payload = ChatEventWriter.write(ByteBufAllocator.DEFAULT, event);
+        //其他节点上的群成员由各自节点广播
+        clusterBus.publishGroup(toGroupId, seq, senderSession, payload);
+        //消息不发回发送者的连接，替发送者确认，否则它的游标会停在这条消息之前
+        if (sender != null) {
+            userCursorService.ack(fromUserId, toGroupId, seq);
+        }
+        fanOutSize.record(groupChannelManager.broadcast(toGroupId, payload, sender, deliveryLatency,
+                command.receivedNanos()));
     }
 
+    /**
+     * 下线：只注销本连接，用户的其他设备不受影响；最后一个设备下线时才记录离线时间，并从集群在线目录中移除本节点
+     */
     @Override
     public void remove(ChannelHandlerContext ctx) {
-        Iterator<Entry<String, ChannelHandlerContext>> iterator =
-                Constant.onlineUserMap.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Entry<String, ChannelHandlerContext> entry = iterator.next();
-            if (entry.getValue() == ctx) {
-                LOGGER.info("正在移除握手实例...");
-                Constant.webSocketHandshakerMap.remove(ctx.channel().id().asLongText());
-                LOGGER.info(MessageFormat.format("已移除握手实例，当前握手实例总数为：{0}"
-                        , Constant.webSocketHandshakerMap.size()));
-                iterator.remove();
-                LOGGER.info(MessageFormat.format("userId为 {0} 的用户已退出聊天，当前在线人数为：{1}"
-                        , entry.getKey(), Constant.onlineUserMap.size()));
-
-                UserInfoBean userInfo = userInfoDao.selectById(Integer.parseInt(entry.getKey()));
-                userInfo.setUserOfflineTime(new Date());
-                userInfoDao.updateById(userInfo);
-                break;
+        Channel channel = ctx.channel();
+        Constant.webSocketHandshakerMap.remove(channel.id().asLongText());
+        String userId = sessionRegistry.unregister(channel);
+        if (userId == null) {
+            return;
+        }
+        groupChannelManager.leave(channel, groupInfoService.getGroupIds(userId));
+        if (!sessionRegistry.isOnline(userId)) {
+            offlineTimeService.markOffline(Integer.valueOf(userId), new Date());
+            userCursorService.release(Integer.valueOf(userId));
+            clusterBus.userOffline(userId);
+            // 与此同时该用户可能又在本节点登记了新连接
+            if (sessionRegistry.isOnline(userId)) {
+                clusterBus.userOnline(userId);
             }
         }
+        LOGGER.info(MessageFormat.format("userId为 {0} 的用户有连接退出聊天，当前在线人数为：{1}，在线连接数为：{2}"
+                , userId, sessionRegistry.getOnlineUserCount(), sessionRegistry.getSessionCount()));
     }
 
     @Override
     public void typeError(ChannelHandlerContext ctx) {
-        String responseJson = new ResponseJson()
-                .error("该类型不存在！")
-                .toString();
-        sendMessage(ctx, responseJson);
+        sendError(ctx, "该类型不存在！");
     }
 
-    //消息发送
+    //消息发送：直接序列化到 channel 分配器分配的池化 ByteBuf
     @Override
-    public void sendMessage(ChannelHandlerContext ctx, String message) {
-        ctx.channel().writeAndFlush(new TextWebSocketFrame(message));
+    public void sendMessage(ChannelHandlerContext ctx, ChatEvent event) {
+        Channel channel = ctx.channel();
+        channel.writeAndFlush(new TextWebSocketFrame(ChatEventWriter.write(channel.alloc(), event)));
+    }
+
+    /**
+     * 描述：消息发给用户在本节点的所有连接，并转发到用户所在的其他节点，只序列化一次，每个连接写一份共享内容的 retainedDuplicate
+     *
+     * @return 用户是否在线（任一节点）
+     */
+    private boolean sendToUser(String userId, long receivedNanos, ChatEvent event) {
+        Channel[] channels = sessionRegistry.getChannels(userId);
+        boolean remote = clusterBus.isOnlineElsewhere(userId);
+        if (channels.length == 0 && !remote) {
+            return false;
+        }
+        fanOutSize.record(channels.length);
+        ChannelFutureListener latencyListener = future ->
+                deliveryLatency.record((System.nanoTime() - receivedNanos) / 1000L);
+        if (channels.length == 1 && !remote) {
+            Channel channel = channels[0];
+            channel.writeAndFlush(new TextWebSocketFrame(ChatEventWriter.write(channel.alloc(), event)))
+                    .addListener(latencyListener);
+            return true;
+        }
+        ByteBuf payload = ChatEventWriter.write(channels.length == 0 ? ByteBufAllocator.DEFAULT : channels[0].alloc(),
+                event);
+        try {
+            //多设备时只统计第一个连接的写出
+            for (int i = 0; i < channels.length; i++) {
+                ChannelFuture future = channels[i].writeAndFlush(new TextWebSocketFrame(payload.retainedDuplicate()));
+                if (i == 0) {
+                    future.addListener(latencyListener);
+                }
+            }
+            if (remote) {
+                clusterBus.sendToUser(userId, payload);
+            }
+        } finally {
+            payload.release();
+        }
+        return true;
+    }
+
+    //错误提示发送
+    @Override
+    public void sendError(ChannelHandlerContext ctx, String msg) {
+        sendError(ctx.channel(), msg);
+    }
+
+    private void sendError(Channel channel, String msg) {
+        channel.writeAndFlush(new TextWebSocketFrame(ChatEventWriter.writeError(channel.alloc(), msg)));
     }
 
 }
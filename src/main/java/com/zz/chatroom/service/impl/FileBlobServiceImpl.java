@@ -0,0 +1,201 @@
+package com.zz.chatroom.service.impl;
+
+import com.zz.chatroom.bean.FileBlobBean;
+import com.zz.chatroom.bean.MessagesBean;
+import com.zz.chatroom.common.metrics.Meter;
+import com.zz.chatroom.common.metrics.MetricsRegistry;
+import com.zz.chatroom.dao.FileBlobDao;
+import com.zz.chatroom.service.FileBlobService;
+import com.zz.chatroom.service.FileStoreService;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.MessageFormat;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author : RUAN.LI
+ * @version : 1.0
+ * @description : 按内容寻址的上传文件
+ *      1. 上传时边接收边计算 SHA-256，文件以 hash 为名只存一份，同一文件转发到多个群不再重复占用磁盘；
+ *      2. 已存在的内容（reuse 命中）直接返回下载地址，不再写文件，分片上传时客户端先报 hash 可以一个字节都不传；
+ *      3. FILE_BLOB.B_REF_COUNT 记录引用该文件的 MESSAGES 行数，由消息写库线程在批量 INSERT 后一条 CASE UPDATE 增加；
+ *      4. 后台定期清理引用数为 0 且超过 orphanGraceMinutes 没有再上传的文件（上传了却没有发出的）；
+ *         清理与登记按 hash 分段加锁，并且删除语句带着同样的条件，清理期间被秒传或被引用的文件不会被删掉。
+ * @date : 2019/11/22
+ */
+@Service
+public class FileBlobServiceImpl implements FileBlobService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileBlobServiceImpl.class);
+
+    private static final int LOCK_STRIPES = 64;
+    private static final int SWEEP_BATCH = 500;
+
+    @Autowired
+    private FileBlobDao fileBlobDao;
+    @Autowired
+    private FileStoreService fileStoreService;
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    /**
+     * 未被引用的文件保留多久(分钟)、多久清理一次(分钟)
+     */
+    @Value("${file.blob.orphanGraceMinutes}")
+    private long orphanGraceMinutes;
+    @Value("${file.blob.sweepIntervalMinutes}")
+    private long sweepIntervalMinutes;
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private ScheduledExecutorService sweeper;
+    private Meter reused;
+    private Meter swept;
+
+    public FileBlobServiceImpl() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        reused = metricsRegistry.meter("file_blob_reused", "上传内容已存在、没有再写文件的次数");
+        swept = metricsRegistry.meter("file_blob_swept", "清理的未被引用文件数");
+        sweeper = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("file-blob-sweeper", true));
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMinutes, sweepIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        sweeper.shutdownNow();
+    }
+
+    /**
+     * 描述：内容已存在时刷新它的上传时间并返回 true，调用方直接使用已有文件
+     */
+    @Override
+    public boolean reuse(String hash) {
+        if (!isHash(hash)) {
+            return false;
+        }
+        synchronized (lockOf(hash)) {
+            if (fileBlobDao.touch(hash, new Date()) == 0) {
+                return false;
+            }
+            if (!Files.isRegularFile(fileStoreService.resolve(hash))) {
+                return false;
+            }
+        }
+        reused.mark();
+        return true;
+    }
+
+    /**
+     * 描述：登记内容并把 source 改名为 hash；内容已存在时删除 source
+     *
+     * @param source 与存放目录在同一文件系统上的临时文件
+     */
+    @Override
+    public void store(String hash, long size, Path source) throws IOException {
+        Path target = fileStoreService.resolve(hash);
+        synchronized (lockOf(hash)) {
+            //先登记再放文件，清理线程看到新的上传时间就不会删
+            fileBlobDao.upsert(new FileBlobBean().setHash(hash).setSize(size).setTouchTime(new Date()));
+            if (Files.isRegularFile(target)) {
+                Files.deleteIfExists(source);
+                reused.mark();
+            } else {
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+    }
+
+    /**
+     * 描述：消息写库后增加其引用文件的引用数，不是按内容寻址的文件地址忽略
+     */
+    @Override
+    public void addReferences(Collection<MessagesBean> messages) {
+        Map<String, Integer> counts = null;
+        for (MessagesBean message : messages) {
+            String hash = hashOf(message.getFileUrl());
+            if (hash != null) {
+                if (counts == null) {
+                    counts = new TreeMap<>();
+                }
+                counts.merge(hash, 1, Integer::sum);
+            }
+        }
+        if (counts != null) {
+            fileBlobDao.addReferences(counts);
+        }
+    }
+
+    private void sweep() {
+        try {
+            Date before = new Date(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(orphanGraceMinutes));
+            List<String> orphans;
+            do {
+                orphans = fileBlobDao.selectOrphans(before, SWEEP_BATCH);
+                for (String hash : orphans) {
+                    synchronized (lockOf(hash)) {
+                        if (fileBlobDao.deleteOrphan(hash, before) > 0) {
+                            Files.deleteIfExists(fileStoreService.resolve(hash));
+                            swept.mark();
+                        }
+                    }
+                }
+            } while (orphans.size() == SWEEP_BATCH);
+        } catch (Exception e) {
+            LOGGER.error("清理未被引用的上传文件失败", e);
+        }
+    }
+
+    private Object lockOf(String hash) {
+        return locks[(hash.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+    }
+
+    /**
+     * 下载地址的文件名为 <hash><后缀>，取出 hash
+     */
+    private static String hashOf(String fileUrl) {
+        if (fileUrl == null) {
+            return null;
+        }
+        int begin = fileUrl.lastIndexOf('/') + 1;
+        int dot = fileUrl.indexOf('.', begin);
+        String hash = fileUrl.substring(begin, dot < 0 ? fileUrl.length() : dot);
+        return isHash(hash) ? hash : null;
+    }
+
+    static boolean isHash(String name) {
+        if (name == null || name.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
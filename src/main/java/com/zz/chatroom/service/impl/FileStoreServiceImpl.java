@@ -0,0 +1,114 @@
+package com.zz.chatroom.service.impl;
+
+import com.zz.chatroom.service.FileStoreService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.ServletContextAware;
+
+import javax.servlet.ServletContext;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * @author : RUAN.LI
+ * @version : 1.0
+ * @description : 上传文件的存放目录
+ *      上传（Tomcat）与下载（Netty 的 /UploadFile/ 路径）都从这里取目录，两边一定指向同一处；
+ *      file.store.dir 留空时使用 web 应用下的 static/UploadFile（与 mvc:resources 的映射一致），
+ *      不在 Servlet 容器中运行时（压测等）使用工作目录下的 UploadFile。
+ * @date : 2019/11/20
+ */
+@Service
+public class FileStoreServiceImpl implements FileStoreService, ServletContextAware {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileStoreServiceImpl.class);
+
+    /**
+     * SHA-256 十六进制长度
+     */
+    private static final int HASH_LENGTH = 64;
+
+    @Value("${file.store.dir}")
+    private String storeDir;
+
+    private ServletContext servletContext;
+
+    private volatile Path root;
+
+    @Override
+    public void setServletContext(ServletContext servletContext) {
+        this.servletContext = servletContext;
+    }
+
+    @Override
+    public Path getRoot() {
+        Path dir = root;
+        if (dir == null) {
+            synchronized (this) {
+                dir = root;
+                if (dir == null) {
+                    dir = locate().toAbsolutePath().normalize();
+                    try {
+                        Files.createDirectories(dir);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("无法创建文件存放目录：" + dir, e);
+                    }
+                    LOGGER.info("上传文件存放目录：" + dir);
+                    root = dir;
+                }
+            }
+        }
+        return dir;
+    }
+
+    /**
+     * 描述：目录下的文件，文件名只能是单层名称，含路径分隔符、以 . 开头或为上传中的临时文件的返回 null；
+     * 按内容寻址的文件下载名为 <hash><后缀>，对应目录下名为 hash 的文件
+     */
+    @Override
+    public Path resolve(String fileName) {
+        if (!isValidName(fileName) || isPartFile(fileName)) {
+            return null;
+        }
+        if (fileName.length() > HASH_LENGTH && fileName.charAt(HASH_LENGTH) == '.'
+                && FileBlobServiceImpl.isHash(fileName.substring(0, HASH_LENGTH))) {
+            fileName = fileName.substring(0, HASH_LENGTH);
+        }
+        return getRoot().resolve(fileName);
+    }
+
+    /**
+     * 描述：上传中的临时文件 <name>.part，与正式文件同目录（完成后同目录改名），resolve 不会返回它
+     */
+    @Override
+    public Path resolvePart(String name) {
+        return isValidName(name) ? getRoot().resolve(name + PART_SUFFIX) : null;
+    }
+
+    @Override
+    public boolean isPartFile(String fileName) {
+        return fileName.regionMatches(true, fileName.length() - PART_SUFFIX.length(), PART_SUFFIX, 0,
+                PART_SUFFIX.length());
+    }
+
+    private static boolean isValidName(String fileName) {
+        return fileName != null && !fileName.isEmpty() && !fileName.startsWith(".")
+                && fileName.indexOf('/') < 0 && fileName.indexOf('\\') < 0 && fileName.indexOf('\0') < 0;
+    }
+
+    private Path locate() {
+        if (storeDir != null && !storeDir.trim().isEmpty()) {
+            return Paths.get(storeDir.trim());
+        }
+        String webRoot = servletContext == null ? null : servletContext.getRealPath("/");
+        if (webRoot != null) {
+            return Paths.get(webRoot, "static", "UploadFile");
+        }
+        return Paths.get("UploadFile");
+    }
+}
@@ -1,59 +1,607 @@
 package com.zz.chatroom.service.impl;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.servlet.http.HttpServletRequest;
 
+import com.zz.chatroom.common.metrics.Meter;
+import com.zz.chatroom.common.metrics.MetricsRegistry;
+import com.zz.chatroom.service.FileBlobService;
+import com.zz.chatroom.service.FileStoreService;
 import com.zz.chatroom.service.FileUploadService;
 import com.zz.chatroom.util.ResponseJson;
+import com.zz.chatroom.util.FileType;
 import com.zz.chatroom.util.FileUtils;
+import com.zz.chatroom.util.SniffingInputStream;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-
+/**
+ * @author : RUAN.LI
+ * @version : 1.0
+ * @description : 文件上传
+ *      upload 为原先的整个文件一次上传（multipart，受 multipartResolver 的大小限制）；
+ *      大文件走分片上传：initUpload 登记并按文件大小预分配 "<uploadId><后缀>.part"，
+ *      uploadPart 把请求体直接用 FileChannel 按 分片序号 * partSize 的位置写进去，不经过临时文件，分片可以乱序、并发、重传；
+ *      断线后 uploadStatus 返回已收到的分片，客户端只补传缺少的；completeUpload 在分片齐全后交给 FileBlobService 改名为内容 hash（同目录改名，不复制）。
+ *      超过 expireMinutes 没有新分片的上传会被清理；上传状态只在内存中，启动时删除上次运行留下的 .part 文件，
+ *      之后每次清理时删除不属于任何进行中上传、且超过 expireMinutes 没有修改的 .part 文件。
+ *      每个用户同时进行中的分片上传不超过 maxSessionsPerUser 个。
+ *      文件按内容寻址，下载名为 <SHA-256><后缀>：按顺序到达的分片边写边算 hash，乱序到达的在 complete 时从文件补算；
+ *      内容已存在时不再保留新写的文件，initUpload 带上 sha256 且内容已存在时直接返回下载地址（秒传）。
+ *      文件类型由 FileTypeSniffer 在数据流经时按文件头识别（分片上传为第 0 片），返回 fileType / mimeType，没有后缀的文件补上识别出的后缀。
+ * @date : 2019/11/21
+ */
 @Service
 public class FileUploadServiceImpl implements FileUploadService {
 
-    private final static String SERVER_URL_PREFIX = "http://192.168.2.34:8888/";
-    private final static String FILE_STORE_PATH = "UploadFile";
-    
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileUploadServiceImpl.class);
+
+    @Autowired
+    private FileStoreService fileStoreService;
+    @Autowired
+    private FileBlobService fileBlobService;
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    /**
+     * 文件下载地址前缀，默认指向 Netty 端口上的 /UploadFile/，大文件下载不占用 Tomcat 线程
+     */
+    @Value("${file.download.urlPrefix}")
+    private String downloadUrlPrefix;
+
+    /**
+     * 分片上传：每片字节数、文件大小上限、多久没有新分片放弃上传(分钟)
+     */
+    @Value("${file.upload.partSize}")
+    private int partSize;
+    @Value("${file.upload.maxSize}")
+    private long maxSize;
+    @Value("${file.upload.expireMinutes}")
+    private long expireMinutes;
+    @Value("${file.upload.maxSessionsPerUser}")
+    private int maxSessionsPerUser;
+
+    /**
+     * 进行中的分片上传，uploadId -> 上传状态
+     */
+    private final Map<String, UploadSession> sessionMap = new ConcurrentHashMap<>();
+
+    /**
+     * 每个用户进行中的分片上传数，userId -> 数量
+     */
+    private final Map<Integer, Integer> userSessionCount = new ConcurrentHashMap<>();
+
+    /**
+     * 已从 sessionMap 移除、正在补算 hash 与改名的 .part 文件，清理时跳过
+     */
+    private final Set<Path> completingFiles = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService sweeper;
+    private Meter receivedBytes;
+
+    @PostConstruct
+    public void init() {
+        receivedBytes = metricsRegistry.meter("file_upload_part_bytes", "分片上传写入的字节数");
+        // 上传状态不跨重启保留，此时还没有请求，上次留下的 .part 都可以删除
+        deleteStaleParts(Long.MAX_VALUE);
+        sweeper = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("upload-sweeper", true));
+        sweeper.scheduleWithFixedDelay(this::sweep, 1, 1, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        sweeper.shutdownNow();
+        for (UploadSession session : sessionMap.values()) {
+            session.close();
+            deleteQuietly(session.partFile);
+        }
+    }
+
     @Override
     public ResponseJson upload(MultipartFile file, HttpServletRequest request) {
-        // 重命名文件，防止重名
-        List<Object> objects = new CopyOnWriteArrayList<>();
-        String filename = getRandomUUID();
-        String suffix = "";
+        // 按内容命名，相同文件只存一份
         String originalFilename = file.getOriginalFilename();
-        String fileSize = FileUtils.getFormatSize(file.getSize());
-        // 截取文件的后缀名
-        if (originalFilename.contains(".")) {
-            suffix = originalFilename.substring(originalFilename.lastIndexOf("."));
+        String suffix = getSuffix(originalFilename);
+        Path tempFile = null;
+        try {
+            MessageDigest digest = newDigest();
+            SniffingInputStream sniffer = new SniffingInputStream(new DigestInputStream(file.getInputStream(), digest));
+            try (InputStream in = sniffer) {
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) >= 0) {
+                    // 只为计算 hash、识别文件头
+                }
+            }
+            String hash = FileUtils.bytesToHexString(digest.digest());
+            FileType fileType = sniffer.getFileType();
+            suffix = suffixOf(suffix, fileType);
+            if (fileStoreService.resolve(hash + suffix) == null) {
+                return new ResponseJson().error("文件名不合法！");
+            }
+            if (!fileBlobService.reuse(hash)) {
+                //服务器接受文件的目录，与下载路径共用；已落盘的临时文件直接改名过去，不再读一遍写一遍
+                tempFile = fileStoreService.resolvePart(getRandomUUID());
+                LOGGER.debug("存储路径为:" + tempFile);
+                file.transferTo(tempFile.toFile());
+                fileBlobService.store(hash, file.getSize(), tempFile);
+            }
+            return uploaded(originalFilename, file.getSize(), hash + suffix, fileType);
+        } catch (IOException e) {
+            LOGGER.error(MessageFormat.format("文件上传失败：{0}", originalFilename), e);
+            if (tempFile != null) {
+                deleteQuietly(tempFile);
+            }
+            return new ResponseJson().error("文件上传发生错误！");
+        }
+    }
+
+    /**
+     * 描述：开始分片上传，返回 uploadId、每片大小与分片数；
+     * sha256 为客户端算好的内容 hash（可为空），内容已存在时直接返回下载地址，exists 为 true
+     */
+    @Override
+    public ResponseJson initUpload(Integer userId, String originalFilename, long fileSize, String sha256) {
+        if (originalFilename == null || originalFilename.isEmpty()) {
+            return new ResponseJson().error("文件名不能为空！");
+        }
+        if (fileSize <= 0 || fileSize > maxSize) {
+            return new ResponseJson().error("文件大小不能超过" + FileUtils.getFormatSize(maxSize) + "！");
+        }
+        String uploadId = getRandomUUID();
+        String suffix = getSuffix(originalFilename);
+        Path partFile = fileStoreService.resolvePart(uploadId + suffix);
+        if (partFile == null || fileStoreService.resolve(uploadId + suffix) == null) {
+            return new ResponseJson().error("文件名不合法！");
         }
-        filename = filename + suffix;
-        //新建服务器接受文件的目录
-        String realPath  = request.getSession().getServletContext().getRealPath("/") + FILE_STORE_PATH;
-        System.out.println("存储路径为:" + realPath + "\\" + filename);
-        Path filePath = Paths.get(realPath, filename);
+        if (sha256 != null && isReusable(sha256.toLowerCase(), fileSize)) {
+            return uploaded(originalFilename, fileSize, sha256.toLowerCase() + suffix, null).setData("exists", true);
+        }
+        if (!acquireSlot(userId)) {
+            return new ResponseJson().error("同时进行的上传不能超过" + maxSessionsPerUser + "个！");
+        }
+        FileChannel channel = null;
         try {
-            Files.copy(file.getInputStream(), filePath);
+            channel = FileChannel.open(partFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            // 先把文件撑到最终大小（多数文件系统上为稀疏文件），乱序到达的分片都能按位置写入
+            channel.write(ByteBuffer.allocate(1), fileSize - 1);
         } catch (IOException e) {
-            e.printStackTrace();
+            LOGGER.error(MessageFormat.format("创建分片上传文件失败：{0}", partFile), e);
+            closeQuietly(channel);
+            deleteQuietly(partFile);
+            releaseSlot(userId);
             return new ResponseJson().error("文件上传发生错误！");
         }
+        UploadSession session = new UploadSession(userId, originalFilename, suffix, fileSize,
+                partCount(fileSize), partFile, channel, newDigest());
+        sessionMap.put(uploadId, session);
+        return new ResponseJson().success()
+                .setData("exists", false)
+                .setData("uploadId", uploadId)
+                .setData("partSize", partSize)
+                .setData("partCount", session.partCount);
+    }
+
+    /**
+     * 描述：写入一个分片，长度必须等于 partSize（最后一片为剩余字节数）
+     *
+     * @param contentLength 请求体长度，未知时为 -1
+     */
+    @Override
+    public ResponseJson uploadPart(Integer userId, String uploadId, int index, InputStream in, long contentLength) {
+        UploadSession session = getSession(userId, uploadId);
+        if (session == null) {
+            return new ResponseJson().error("上传不存在或已过期！");
+        }
+        if (index < 0 || index >= session.partCount) {
+            return new ResponseJson().error("分片序号不正确！");
+        }
+        long position = (long) index * partSize;
+        long expected = Math.min(partSize, session.fileSize - position);
+        if (contentLength >= 0 && contentLength != expected) {
+            return new ResponseJson().error("分片长度不正确！");
+        }
+        session.touch();
+        // 正好是下一个待计算 hash 的分片时，边写边算
+        MessageDigest saved = session.beginHash(index);
+        InputStream body = saved == null ? in : new DigestInputStream(in, session.digest);
+        SniffingInputStream sniffer = index == 0 ? new SniffingInputStream(body) : null;
+        if (sniffer != null) {
+            body = sniffer;
+        }
+        boolean hashed = false;
+        try {
+            ReadableByteChannel source = Channels.newChannel(body);
+            long written = 0;
+            while (written < expected) {
+                long n = session.channel.transferFrom(source, position + written, expected - written);
+                if (n <= 0) {
+                    break;
+                }
+                written += n;
+            }
+            if (written != expected || body.read() >= 0) {
+                return new ResponseJson().error("分片长度不正确！");
+            }
+            receivedBytes.mark(written);
+            hashed = saved != null;
+            if (sniffer != null) {
+                session.fileType = sniffer.getFileType();
+            }
+        } catch (IOException e) {
+            // 连接中断或上传已完成/被清理，客户端按 uploadStatus 重传即可
+            LOGGER.info(MessageFormat.format("分片写入失败，uploadId：{0}，分片：{1}，原因：{2}", uploadId, index, e));
+            return new ResponseJson().error("分片写入失败，请重传！");
+        } finally {
+            if (saved != null) {
+                session.endHash(hashed, saved);
+            }
+        }
+        int received = session.markReceived(index);
+        return new ResponseJson().success()
+                .setData("index", index)
+                .setData("receivedCount", received)
+                .setData("partCount", session.partCount);
+    }
+
+    /**
+     * 描述：已收到的分片序号，断线重连后据此续传
+     */
+    @Override
+    public ResponseJson uploadStatus(Integer userId, String uploadId) {
+        UploadSession session = getSession(userId, uploadId);
+        if (session == null) {
+            return new ResponseJson().error("上传不存在或已过期！");
+        }
+        session.touch();
+        return new ResponseJson().success()
+                .setData("partSize", partSize)
+                .setData("partCount", session.partCount)
+                .setData("receivedParts", session.receivedParts());
+    }
+
+    /**
+     * 描述：分片齐全后补算 hash 并改为按内容命名的文件，返回与 upload 相同的数据
+     */
+    @Override
+    public ResponseJson completeUpload(Integer userId, String uploadId) {
+        UploadSession session = getSession(userId, uploadId);
+        if (session == null) {
+            return new ResponseJson().error("上传不存在或已过期！");
+        }
+        if (session.receivedCount() < session.partCount) {
+            return new ResponseJson().error("还有分片没有上传！")
+                    .setData("receivedParts", session.receivedParts());
+        }
+        if (!session.beginComplete()) {
+            return new ResponseJson().error("分片正在写入，请稍后重试！");
+        }
+        completingFiles.add(session.partFile);
+        if (!removeSession(uploadId, session)) {
+            completingFiles.remove(session.partFile);
+            return new ResponseJson().error("上传不存在或已过期！");
+        }
+        String hash;
+        try {
+            hash = session.finishHash(partSize);
+            session.close();
+            fileBlobService.store(hash, session.fileSize, session.partFile);
+        } catch (IOException e) {
+            LOGGER.error(MessageFormat.format("分片上传合并失败，uploadId：{0}，文件：{1}", uploadId,
+                    session.originalFilename), e);
+            session.close();
+            deleteQuietly(session.partFile);
+            return new ResponseJson().error("文件上传发生错误！");
+        } finally {
+            completingFiles.remove(session.partFile);
+        }
+        return uploaded(session.originalFilename, session.fileSize,
+                hash + suffixOf(session.suffix, session.fileType), session.fileType);
+    }
+
+    /**
+     * 内容已存在且大小与声明的一致
+     */
+    private boolean isReusable(String hash, long fileSize) {
+        if (!fileBlobService.reuse(hash)) {
+            return false;
+        }
+        try {
+            return Files.size(fileStoreService.resolve(hash)) == fileSize;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ResponseJson uploaded(String originalFilename, long size, String filename, FileType fileType) {
         return new ResponseJson().success()
                 .setData("originalFilename", originalFilename)
-                .setData("fileSize", fileSize)
-                .setData("fileUrl", SERVER_URL_PREFIX + FILE_STORE_PATH + "\\" + filename);
+                .setData("fileSize", FileUtils.getFormatSize(size))
+                .setData("fileUrl", downloadUrlPrefix + filename)
+                .setData("fileType", fileType == null ? null : fileType.extensionFor(getSuffix(originalFilename)))
+                .setData("mimeType", fileType == null ? null : fileType.getMimeType());
+    }
+
+    /**
+     * 没有后缀时用识别出的类型补上，下载时才有正确的 Content-Type
+     */
+    private static String suffixOf(String suffix, FileType fileType) {
+        return suffix.isEmpty() && fileType != null ? "." + fileType.getExtension() : suffix;
+    }
+
+    private UploadSession getSession(Integer userId, String uploadId) {
+        UploadSession session = uploadId == null ? null : sessionMap.get(uploadId);
+        return session != null && session.userId.equals(userId) ? session : null;
+    }
+
+    private int partCount(long fileSize) {
+        return (int) ((fileSize + partSize - 1) / partSize);
+    }
+
+    /**
+     * 每个用户同时进行的上传数不超过 maxSessionsPerUser
+     */
+    private boolean acquireSlot(Integer userId) {
+        boolean[] acquired = new boolean[1];
+        userSessionCount.compute(userId, (key, count) -> {
+            int current = count == null ? 0 : count;
+            if (current >= maxSessionsPerUser) {
+                return count;
+            }
+            acquired[0] = true;
+            return current + 1;
+        });
+        return acquired[0];
+    }
+
+    private void releaseSlot(Integer userId) {
+        userSessionCount.computeIfPresent(userId, (key, count) -> count <= 1 ? null : count - 1);
+    }
+
+    private boolean removeSession(String uploadId, UploadSession session) {
+        if (!sessionMap.remove(uploadId, session)) {
+            return false;
+        }
+        releaseSlot(session.userId);
+        return true;
+    }
+
+    /**
+     * 清理超时未完成的上传，以及没有对应上传的 .part 文件（上次运行留下的、一次上传中途失败的）
+     */
+    private void sweep() {
+        long deadline = System.nanoTime() - TimeUnit.MINUTES.toNanos(expireMinutes);
+        for (Map.Entry<String, UploadSession> entry : sessionMap.entrySet()) {
+            UploadSession session = entry.getValue();
+            if (session.lastActive - deadline < 0 && removeSession(entry.getKey(), session)) {
+                session.close();
+                deleteQuietly(session.partFile);
+                LOGGER.info(MessageFormat.format("分片上传超时已清理，uploadId：{0}，文件：{1}",
+                        entry.getKey(), session.originalFilename));
+            }
+        }
+        // 一次上传的临时文件也是 .part，只删超过 expireMinutes 没有修改的，不会删到正在写入的
+        deleteStaleParts(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(expireMinutes));
+    }
+
+    /**
+     * 删除最后修改时间早于 before、且不属于进行中上传的 .part 文件
+     */
+    private void deleteStaleParts(long before) {
+        Set<Path> active = new HashSet<>(completingFiles);
+        for (UploadSession session : sessionMap.values()) {
+            active.add(session.partFile);
+        }
+        int deleted = 0;
+        try (DirectoryStream<Path> parts = Files.newDirectoryStream(fileStoreService.getRoot(),
+                "*" + FileStoreService.PART_SUFFIX)) {
+            for (Path part : parts) {
+                if (!active.contains(part) && isModifiedBefore(part, before)) {
+                    deleteQuietly(part);
+                    deleted++;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("清理上传临时文件失败", e);
+            return;
+        }
+        if (deleted > 0) {
+            LOGGER.info(MessageFormat.format("已删除 {0} 个上传临时文件", deleted));
+        }
+    }
+
+    private static boolean isModifiedBefore(Path file, long before) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis() < before;
+        } catch (IOException e) {
+            // 列目录之后已被改名或删除
+            return false;
+        }
+    }
+
+    private static String getSuffix(String originalFilename) {
+        // 截取文件的后缀名
+        if (originalFilename != null && originalFilename.contains(".")) {
+            return originalFilename.substring(originalFilename.lastIndexOf("."));
+        }
+        return "";
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.info(MessageFormat.format("删除文件失败：{0}，原因：{1}", file, e));
+        }
     }
 
     private String getRandomUUID() {
         return UUID.randomUUID().toString().replace("-", "");//因为UUID本身为32位只是生成时多了“-”，所以将它们去点就可
     }
 
+    private static final class UploadSession {
+        private final Integer userId;
+        private final String originalFilename;
+        private final String suffix;
+        private final long fileSize;
+        private final int partCount;
+        private final Path partFile;
+        /**
+         * 分片都用带位置的写入，多个请求可以共用
+         */
+        private final FileChannel channel;
+        private final BitSet received;
+        private volatile long lastActive;
+        /**
+         * 第 0 片写入时按文件头识别的类型
+         */
+        private volatile FileType fileType;
+        /**
+         * 已按顺序算入 digest 的分片数；hashing 时只有持有它的请求线程使用 digest
+         */
+        private MessageDigest digest;
+        private int hashedParts;
+        private boolean hashing;
+        private boolean completing;
+
+        private UploadSession(Integer userId, String originalFilename, String suffix, long fileSize,
+                              int partCount, Path partFile, FileChannel channel, MessageDigest digest) {
+            this.userId = userId;
+            this.originalFilename = originalFilename;
+            this.suffix = suffix;
+            this.fileSize = fileSize;
+            this.partCount = partCount;
+            this.partFile = partFile;
+            this.channel = channel;
+            this.received = new BitSet(partCount);
+            this.lastActive = System.nanoTime();
+            this.digest = digest;
+        }
+
+        /**
+         * 分片 index 正好接在已算 hash 的部分后面时，返回 digest 当前状态的副本（写入失败时恢复），否则返回 null
+         */
+        private synchronized MessageDigest beginHash(int index) {
+            if (hashing || completing || index != hashedParts) {
+                return null;
+            }
+            try {
+                MessageDigest saved = (MessageDigest) digest.clone();
+                hashing = true;
+                return saved;
+            } catch (CloneNotSupportedException e) {
+                return null;
+            }
+        }
+
+        private synchronized void endHash(boolean success, MessageDigest saved) {
+            if (success) {
+                hashedParts++;
+            } else {
+                digest = saved;
+            }
+            hashing = false;
+        }
+
+        private synchronized boolean beginComplete() {
+            if (hashing) {
+                return false;
+            }
+            completing = true;
+            return true;
+        }
+
+        /**
+         * 从文件补算乱序到达、没有边写边算的部分
+         */
+        private String finishHash(int partSize) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long position = (long) hashedParts * partSize;
+            while (position < fileSize) {
+                buffer.clear();
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    break;
+                }
+                buffer.flip();
+                digest.update(buffer);
+                position += n;
+            }
+            return FileUtils.bytesToHexString(digest.digest());
+        }
+
+        private void touch() {
+            lastActive = System.nanoTime();
+        }
+
+        private synchronized int markReceived(int index) {
+            received.set(index);
+            return received.cardinality();
+        }
+
+        private synchronized int receivedCount() {
+            return received.cardinality();
+        }
+
+        private synchronized List<Integer> receivedParts() {
+            List<Integer> parts = new ArrayList<>(received.cardinality());
+            for (int i = received.nextSetBit(0); i >= 0; i = received.nextSetBit(i + 1)) {
+                parts.add(i);
+            }
+            return parts;
+        }
+
+        private void close() {
+            closeQuietly(channel);
+        }
+    }
 }
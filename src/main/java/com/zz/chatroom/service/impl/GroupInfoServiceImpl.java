@@ -1,16 +1,144 @@
 package com.zz.chatroom.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.zz.chatroom.bean.GroupInfoBean;
+import com.zz.chatroom.dao.GroupInfoDao;
 import com.zz.chatroom.service.GroupInfoService;
+import com.zz.chatroom.service.UserInfoService;
+import com.zz.chatroom.web.websocket.GroupChannelManager;
+import com.zz.chatroom.web.websocket.SessionRegistry;
+import io.netty.channel.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 
 /**
  * @author : RUAN.LI
  * @version : 1.0
- * @description :
+ * @description : 群成员索引
+ *      启动时从 GROUP_INFO 一次性加载 群id -> 成员userId 的映射，群消息扇出直接读内存，不再每条消息查库；
+ *      同时维护 userId -> 群id 的反向索引，供连接注册时加入群广播组；
+ *      成员变动必须走 addMember / removeMember，保证数据库、索引与在线连接的群广播组三者同步，并让群列表缓存失效。
  * @date : 2019/10/25
  */
 @Service
 public class GroupInfoServiceImpl implements GroupInfoService {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(GroupInfoServiceImpl.class);
+
+    /**
+     * 群id -> 成员userId集合，集合用 ConcurrentHashMap.newKeySet()，扇出遍历与成员变动可以并发进行
+     */
+    private final Map<Integer, Set<String>> groupMemberMap = new ConcurrentHashMap<>();
+
+    /**
+     * userId -> 所在群id集合
+     */
+    private final Map<String, Set<Integer>> userGroupMap = new ConcurrentHashMap<>();
+
+    @Autowired
+    private GroupInfoDao groupInfoDao;
+    @Autowired
+    private GroupChannelManager groupChannelManager;
+    @Autowired
+    private SessionRegistry sessionRegistry;
+    @Autowired
+    private UserInfoService userInfoService;
+
+    /**
+     * 加载所有群成员到内存
+     */
+    @PostConstruct
+    @Override
+    public void loadGroupMembers() {
+        List<GroupInfoBean> groupInfos = groupInfoDao.selectList(new QueryWrapper<>());
+        groupMemberMap.clear();
+        userGroupMap.clear();
+        for (GroupInfoBean groupInfo : groupInfos) {
+            if (groupInfo.getGroupId() == null || groupInfo.getUserId() == null) {
+                continue;
+            }
+            index(groupInfo.getGroupId(), groupInfo.getUserId().toString());
+        }
+        LOGGER.info(MessageFormat.format("群成员索引加载完成，群数量：{0}，成员记录：{1}"
+                , groupMemberMap.size(), groupInfos.size()));
+    }
+
+    /**
+     * 获取群成员userId，群不存在时返回空集合
+     */
+    @Override
+    public Set<String> getMemberIds(Integer groupId) {
+        Set<String> members = groupMemberMap.get(groupId);
+        if (members == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(members);
+    }
+
+    /**
+     * 获取用户所在的群id，不在任何群时返回空集合
+     */
+    @Override
+    public Set<Integer> getGroupIds(String userId) {
+        Set<Integer> groupIds = userGroupMap.get(userId);
+        if (groupIds == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(groupIds);
+    }
+
+    /**
+     * 加群：先写库，再更新索引，成员在线则同时加入群广播组
+     */
+    @Override
+    public void addMember(GroupInfoBean member) {
+        groupInfoDao.insert(member);
+        userInfoService.invalidateGroups();
+        String userId = member.getUserId().toString();
+        index(member.getGroupId(), userId);
+        Set<Integer> groupIds = Collections.singleton(member.getGroupId());
+        for (Channel channel : sessionRegistry.getChannels(userId)) {
+            groupChannelManager.join(channel, groupIds);
+        }
+    }
+
+    /**
+     * 退群：先删库，再更新索引，成员在线则同时移出群广播组
+     */
+    @Override
+    public void removeMember(Integer groupId, Integer userId) {
+        QueryWrapper<GroupInfoBean> ew = new QueryWrapper<>();
+        ew.eq("UG_ID", groupId).eq("UG_USER_ID", userId);
+        groupInfoDao.delete(ew);
+        userInfoService.invalidateGroups();
+        String memberId = userId.toString();
+        Set<String> members = groupMemberMap.get(groupId);
+        if (members != null) {
+            members.remove(memberId);
+        }
+        Set<Integer> groupIds = userGroupMap.get(memberId);
+        if (groupIds != null) {
+            groupIds.remove(groupId);
+        }
+        Set<Integer> leaveGroupIds = Collections.singleton(groupId);
+        for (Channel channel : sessionRegistry.getChannels(memberId)) {
+            groupChannelManager.leave(channel, leaveGroupIds);
+        }
+    }
+
+    private void index(Integer groupId, String userId) {
+        groupMemberMap.computeIfAbsent(groupId, key -> ConcurrentHashMap.newKeySet()).add(userId);
+        userGroupMap.computeIfAbsent(userId, key -> ConcurrentHashMap.newKeySet()).add(groupId);
+    }
 }
@@ -0,0 +1,400 @@
+package com.zz.chatroom.service.impl;
+
+import com.alibaba.fastjson.JSON;
+import com.zz.chatroom.bean.MessagesBean;
+import com.zz.chatroom.common.metrics.Histogram;
+import com.zz.chatroom.common.metrics.Meter;
+import com.zz.chatroom.common.metrics.MetricsRegistry;
+import com.zz.chatroom.dao.MessagesDao;
+import com.zz.chatroom.service.FileBlobService;
+import com.zz.chatroom.service.MessagePersistService;
+import com.zz.chatroom.service.MessageSequenceService;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @author : RUAN.LI
+ * @version : 1.0
+ * @description : 消息异步持久化（write-behind）
+ *      聊天消息先放入有界队列，立即返回，由独立的写库线程批量 INSERT 到 MESSAGES 表：
+ *      1. 攒够 batchSize 条或距第一条超过 flushIntervalMillis 即写库；
+ *      2. 队列满时等待 offerTimeoutMillis，仍放不进去则由调用线程同步写库，对上游形成背压；
+ *      3. close() 停止接收并把队列中剩余消息全部写完，由 AppContext 在关闭时调用；
+ *         入队与 close() 由读写锁互斥，不会有消息在写库线程退出之后才入队；
+ *      4. 写库成功的文件消息随后增加所引用文件的引用数；
+ *      5. 尚未写库的消息按会话（收件箱、群）与序号另建索引，离线消息回放时与库中的合并，已分配序号还在队列里的消息不会被跳过；
+ *      6. 逐条重试仍失败的消息留在索引中，隔 retryDelayMillis * 次数 重新入队，超过 maxRetries 次或关闭时仍写不进去的
+ *         以 JSON 写入死信日志 MESSAGE_DEAD_LETTER，可据此补录，不会悄悄丢掉。
+ * @date : 2019/11/5
+ */
+@Service
+public class MessagePersistServiceImpl implements MessagePersistService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessagePersistServiceImpl.class);
+    private static final Logger DEAD_LETTER = LoggerFactory.getLogger("MESSAGE_DEAD_LETTER");
+
+    @Autowired
+    private MessagesDao messagesDao;
+    @Autowired
+    private FileBlobService fileBlobService;
+
+    @Value("${message.persist.queueCapacity}")
+    private int queueCapacity;
+    @Value("${message.persist.batchSize}")
+    private int batchSize;
+    @Value("${message.persist.flushIntervalMillis}")
+    private long flushIntervalMillis;
+    @Value("${message.persist.writerThreads}")
+    private int writerThreads;
+    @Value("${message.persist.offerTimeoutMillis}")
+    private long offerTimeoutMillis;
+    @Value("${message.persist.maxRetries}")
+    private int maxRetries;
+    @Value("${message.persist.retryDelayMillis}")
+    private long retryDelayMillis;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    /**
+     * 收件箱在索引中的键：高 32 位为 1，与群id 区分
+     */
+    private static final long INBOX_KEY = 1L << 32;
+
+    private BlockingQueue<MessagesBean> queue;
+    /**
+     * 尚未写库的消息：会话键 -> (序号 -> 消息)
+     */
+    private final Map<Long, ConcurrentSkipListMap<Long, MessagesBean>> pendingIndex = new ConcurrentHashMap<>();
+    private ExecutorService writerPool;
+    private ScheduledExecutorService retryScheduler;
+    private volatile boolean running;
+    /**
+     * save 入队持读锁，close 改 running 持写锁
+     */
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    /**
+     * 写库失败、等待重试的消息 -> 已失败次数，按对象本身区分
+     */
+    private final Map<MessagesBean, Integer> retryAttempts = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    /**
+     * 每次批量 INSERT 的耗时(微秒)与写入条数
+     */
+    private Histogram insertLatency;
+    private Meter insertedRows;
+    private Meter insertFailures;
+
+    @PostConstruct
+    public void init() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        insertLatency = metricsRegistry.histogram("db_message_insert_latency_micros", "消息批量写库一次的耗时(微秒)");
+        insertedRows = metricsRegistry.meter("db_message_inserted", "写入 MESSAGES 的消息条数");
+        insertFailures = metricsRegistry.meter("db_message_insert_failed", "重试后仍写入失败、转入死信的消息条数");
+        metricsRegistry.gauge("message_persist_queue_size", "等待写库的消息数", () -> queue.size());
+        metricsRegistry.gauge("message_persist_retrying", "写库失败等待重试的消息数", () -> retryAttempts.size());
+        writerPool = Executors.newFixedThreadPool(writerThreads, new DefaultThreadFactory("message-persist", true));
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(
+                new DefaultThreadFactory("message-persist-retry", true));
+        running = true;
+        for (int i = 0; i < writerThreads; i++) {
+            writerPool.execute(this::writeLoop);
+        }
+        LOGGER.info(MessageFormat.format("消息异步持久化已启动，队列容量：{0}，批量大小：{1}，写库线程：{2}"
+                , queueCapacity, batchSize, writerThreads));
+    }
+
+    /**
+     * 消息入队，队列满时阻塞等待，超时后同步写库
+     */
+    @Override
+    public void save(MessagesBean entity) {
+        // 先建索引再入队，写库线程移除索引时一定已经建好
+        addPending(entity);
+        closeLock.readLock().lock();
+        try {
+            if (running) {
+                if (queue.offer(entity, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+                LOGGER.warn("消息持久化队列已满，当前线程同步写库");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        insertOne(entity);
+    }
+
+    /**
+     * 描述：会话中序号大于 afterSeq、尚未写库的消息，按序号升序，最多 limit 条
+     *
+     * @param conversationId 会话ID，MessageSequenceService.INBOX 为 userId 的收件箱，否则为群id
+     */
+    @Override
+    public List<MessagesBean> getPending(Integer userId, Integer conversationId, long afterSeq, int limit) {
+        ConcurrentSkipListMap<Long, MessagesBean> pending = pendingIndex.get(
+                conversationId == MessageSequenceService.INBOX ? inboxKey(userId) : (long) conversationId);
+        if (pending == null) {
+            return Collections.emptyList();
+        }
+        List<MessagesBean> messages = new ArrayList<>();
+        for (MessagesBean entity : pending.tailMap(afterSeq, false).values()) {
+            if (messages.size() >= limit) {
+                break;
+            }
+            messages.add(entity);
+        }
+        return messages;
+    }
+
+    /**
+     * 停止接收新消息，等待写库线程把队列清空
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (!running) {
+                return;
+            }
+            running = false;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        // 等待重试的消息不再等，写库线程退出后最后同步写一次
+        retryScheduler.shutdownNow();
+        writerPool.shutdown();
+        try {
+            retryScheduler.awaitTermination(10, TimeUnit.SECONDS);
+            if (!writerPool.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOGGER.warn(MessageFormat.format("消息持久化线程未能按时结束，剩余 {0} 条消息未写入", queue.size()));
+            } else {
+                List<MessagesBean> retrying;
+                synchronized (retryAttempts) {
+                    retrying = new ArrayList<>(retryAttempts.keySet());
+                }
+                for (MessagesBean entity : retrying) {
+                    insertOne(entity);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LOGGER.info("消息异步持久化已关闭");
+    }
+
+    private void writeLoop() {
+        List<MessagesBean> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                MessagesBean first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    MessagesBean next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * 批量写库，失败时逐条重试，避免一条坏数据拖累整批
+     */
+    private void writeBatch(List<MessagesBean> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            insertBatch(batch);
+        } finally {
+            // 等待重试的留在索引中，回放时仍能读到
+            for (MessagesBean entity : batch) {
+                if (!retryAttempts.containsKey(entity)) {
+                    removePending(entity);
+                }
+            }
+        }
+    }
+
+    private void insertBatch(List<MessagesBean> batch) {
+        long begin = System.nanoTime();
+        try {
+            messagesDao.insertBatch(batch);
+            insertLatency.record((System.nanoTime() - begin) / 1000L);
+            insertedRows.mark(batch.size());
+            if (!retryAttempts.isEmpty()) {
+                for (MessagesBean entity : batch) {
+                    retryAttempts.remove(entity);
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.error(MessageFormat.format("批量写入 {0} 条消息失败，改为逐条写入", batch.size()), e);
+            List<MessagesBean> inserted = new ArrayList<>(batch.size());
+            for (MessagesBean entity : batch) {
+                try {
+                    messagesDao.insert(entity);
+                    inserted.add(entity);
+                    insertedRows.mark();
+                    retryAttempts.remove(entity);
+                } catch (Exception ex) {
+                    retryLater(entity, ex);
+                }
+            }
+            addFileReferences(inserted);
+            return;
+        }
+        addFileReferences(batch);
+    }
+
+    /**
+     * 同步写入一条，失败时转入重试
+     */
+    private void insertOne(MessagesBean entity) {
+        try {
+            messagesDao.insert(entity);
+        } catch (Exception e) {
+            retryLater(entity, e);
+            return;
+        }
+        insertedRows.mark();
+        retryAttempts.remove(entity);
+        removePending(entity);
+        addFileReferences(Collections.singletonList(entity));
+    }
+
+    /**
+     * 描述：写库失败的消息隔一段时间重新入队，次数用完或已经关闭时转入死信
+     */
+    private void retryLater(MessagesBean entity, Exception cause) {
+        int attempt = retryAttempts.merge(entity, 1, Integer::sum);
+        if (attempt <= maxRetries && !retryScheduler.isShutdown()) {
+            LOGGER.warn(MessageFormat.format("消息第 {0} 次写入失败，{1} 毫秒后重试，fromUserId：{2}，toUserId：{3}，groupId：{4}，seq：{5}"
+                    , attempt, retryDelayMillis * attempt, entity.getFromUserId(), entity.getToUserId()
+                    , entity.getGroupId(), String.valueOf(entity.getSeq())), cause);
+            try {
+                retryScheduler.schedule(() -> requeue(entity), retryDelayMillis * attempt, TimeUnit.MILLISECONDS);
+                return;
+            } catch (RejectedExecutionException e) {
+                // 与 close() 交错，直接转入死信
+            }
+        }
+        deadLetter(entity, cause);
+    }
+
+    private void requeue(MessagesBean entity) {
+        closeLock.readLock().lock();
+        try {
+            if (running && queue.offer(entity)) {
+                return;
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        insertOne(entity);
+    }
+
+    private void deadLetter(MessagesBean entity, Exception cause) {
+        retryAttempts.remove(entity);
+        removePending(entity);
+        insertFailures.mark();
+        DEAD_LETTER.error(JSON.toJSONString(entity));
+        LOGGER.error(MessageFormat.format("消息写入失败，已转入死信，fromUserId：{0}，toUserId：{1}，groupId：{2}，seq：{3}"
+                , entity.getFromUserId(), entity.getToUserId(), entity.getGroupId(), String.valueOf(entity.getSeq())), cause);
+    }
+
+    private void addPending(MessagesBean entity) {
+        Long key = conversationKey(entity);
+        if (key == null) {
+            return;
+        }
+        pendingIndex.compute(key, (k, pending) -> {
+            if (pending == null) {
+                pending = new ConcurrentSkipListMap<>();
+            }
+            pending.put(entity.getSeq(), entity);
+            return pending;
+        });
+    }
+
+    private void removePending(MessagesBean entity) {
+        Long key = conversationKey(entity);
+        if (key == null) {
+            return;
+        }
+        pendingIndex.computeIfPresent(key, (k, pending) -> {
+            pending.remove(entity.getSeq(), entity);
+            return pending.isEmpty() ? null : pending;
+        });
+    }
+
+    /**
+     * 好友消息、好友文件属于接收方的收件箱，群消息、群文件属于群；没有序号的消息不建索引
+     */
+    private static Long conversationKey(MessagesBean entity) {
+        if (entity.getSeq() == null) {
+            return null;
+        }
+        if (entity.getGroupId() != null) {
+            return (long) entity.getGroupId();
+        }
+        return entity.getToUserId() == null ? null : inboxKey(entity.getToUserId());
+    }
+
+    private static long inboxKey(Integer userId) {
+        return INBOX_KEY | (userId & 0xffffffffL);
+    }
+
+    /**
+     * 引用数写失败只记日志，不影响消息本身
+     */
+    private void addFileReferences(Collection<MessagesBean> inserted) {
+        try {
+            fileBlobService.addReferences(inserted);
+        } catch (Exception e) {
+            LOGGER.error(MessageFormat.format("{0} 条消息的文件引用数写入失败", inserted.size()), e);
+        }
+    }
+}
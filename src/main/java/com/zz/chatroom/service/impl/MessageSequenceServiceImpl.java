@@ -0,0 +1,47 @@
+package com.zz.chatroom.service.impl;
+
+import com.zz.chatroom.dao.MessagesDao;
+import com.zz.chatroom.service.MessageSequenceService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author : RUAN.LI
+ * @version : 1.0
+ * @description : 会话消息序号
+ *      每个群、每个用户的好友消息收件箱各有一个单调递增的序号，
+ *      首次使用时从 MESSAGES 的 MAX(M_SEQ) 初始化，之后在内存中原子递增，发消息不查库。
+ *      消息先分配序号再进入异步持久化队列，序号与写库顺序无关。
+ *      计数器只在本节点内存中，集群时只能由属主调用：收件箱由接收方 userId 的属主节点、群由群的属主节点分配（见 GroupRouter），
+ *      属主节点未连通时其他节点不得代为分配，否则两个节点的计数器会分配出相同的序号。
+ * @date : 2019/11/12
+ */
+@Service
+public class MessageSequenceServiceImpl implements MessageSequenceService {
+
+    @Autowired
+    private MessagesDao messagesDao;
+
+    private final Map<Integer, AtomicLong> inboxSeqMap = new ConcurrentHashMap<>();
+
+    private final Map<Integer, AtomicLong> groupSeqMap = new ConcurrentHashMap<>();
+
+    @Override
+    public long nextInboxSeq(Integer toUserId) {
+        return inboxSeqMap.computeIfAbsent(toUserId, key -> load(key, INBOX)).incrementAndGet();
+    }
+
+    @Override
+    public long nextGroupSeq(Integer groupId) {
+        return groupSeqMap.computeIfAbsent(groupId, key -> load(null, key)).incrementAndGet();
+    }
+
+    private AtomicLong load(Integer userId, Integer conversationId) {
+        Long maxSeq = messagesDao.selectMaxSeq(userId, conversationId, null);
+        return new AtomicLong(maxSeq == null ? 0L : maxSeq);
+    }
+}
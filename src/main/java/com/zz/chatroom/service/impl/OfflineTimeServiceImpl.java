@@ -0,0 +1,123 @@
+package com.zz.chatroom.service.impl;
+
+import com.zz.chatroom.bean.UserInfoBean;
+import com.zz.chatroom.dao.UserInfoDao;
+import com.zz.chatroom.service.OfflineTimeService;
+import com.zz.chatroom.service.UserInfoService;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author : RUAN.LI
+ * @version : 1.0
+ * @description : 用户离线时间批量写库
+ *      断开连接、注销时只把 userId -> 离线时间 记到内存，同一用户多次下线只保留最后一次，
+ *      由后台线程每隔 flushIntervalMillis 用一条 CASE UPDATE 批量写回 USER_INFO，
+ *      断线风暴（例如心跳超时集中触发）不再变成成倍的 selectById + updateById；
+ *      写库成功后让这些用户的资料缓存失效。
+ * @date : 2019/11/5
+ */
+@Service
+public class OfflineTimeServiceImpl implements OfflineTimeService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OfflineTimeServiceImpl.class);
+
+    @Autowired
+    private UserInfoDao userInfoDao;
+    @Autowired
+    private UserInfoService userInfoService;
+
+    @Value("${user.offline.flushIntervalMillis}")
+    private long flushIntervalMillis;
+    @Value("${user.offline.batchSize}")
+    private int batchSize;
+
+    /**
+     * 尚未写库的离线时间
+     */
+    private final Map<Integer, Date> pendingMap = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService writer;
+
+    @PostConstruct
+    public void init() {
+        writer = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("offline-time-writer", true));
+        writer.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void markOffline(Integer userId, Date offlineTime) {
+        pendingMap.put(userId, offlineTime);
+    }
+
+    /**
+     * 描述：尚未写库的离线时间，用户断线后很快重连时，离线消息应以它为准
+     */
+    @Override
+    public Date getPendingOfflineTime(Integer userId) {
+        return pendingMap.get(userId);
+    }
+
+    /**
+     * 停止定时任务并把剩余的离线时间写库
+     */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void flush() {
+        if (pendingMap.isEmpty()) {
+            return;
+        }
+        List<UserInfoBean> batch = new ArrayList<>(Math.min(pendingMap.size(), batchSize));
+        // 只读不删，写库成功后才移除，写库期间重连的用户仍能读到离线时间
+        for (Map.Entry<Integer, Date> entry : pendingMap.entrySet()) {
+            batch.add(new UserInfoBean().setUserId(entry.getKey()).setUserOfflineTime(entry.getValue()));
+            if (batch.size() >= batchSize) {
+                write(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        write(batch);
+    }
+
+    private void write(List<UserInfoBean> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            userInfoDao.updateOfflineTimeBatch(batch);
+        } catch (Exception e) {
+            // 留在待写中下次重试
+            LOGGER.error(MessageFormat.format("批量更新 {0} 个用户的离线时间失败，下次重试", batch.size()), e);
+            return;
+        }
+        for (UserInfoBean userInfo : batch) {
+            // 写库期间又有更新的离线时间则保留新的
+            pendingMap.remove(userInfo.getUserId(), userInfo.getUserOfflineTime());
+            userInfoService.invalidateUser(userInfo.getUserId());
+        }
+    }
+}
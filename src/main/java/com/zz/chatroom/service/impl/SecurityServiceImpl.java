@@ -6,6 +6,7 @@ import java.util.Date;
 import javax.servlet.http.HttpSession;
 import com.zz.chatroom.bean.UserInfoBean;
 import com.zz.chatroom.dao.UserInfoDao;
+import com.zz.chatroom.service.OfflineTimeService;
 import com.zz.chatroom.service.SecurityService;
 import com.zz.chatroom.util.Constant;
 import org.slf4j.Logger;
@@ -20,6 +21,8 @@ public class SecurityServiceImpl implements SecurityService {
 
     @Autowired
     private UserInfoDao userInfoDao;
+    @Autowired
+    private OfflineTimeService offlineTimeService;
     
     private static final Logger LOGGER = LoggerFactory.getLogger(SecurityServiceImpl.class);
     
@@ -46,9 +49,7 @@ public class SecurityServiceImpl implements SecurityService {
         if (userId == null) {
             return new ResponseJson().error("请先登录！");
         }
-        UserInfoBean userInfo = userInfoDao.selectById((Integer) userId);
-        userInfo.setUserOfflineTime(new Date());
-        userInfoDao.updateById(userInfo);
+        offlineTimeService.markOffline((Integer) userId, new Date());
         session.removeAttribute(Constant.USER_TOKEN);
 
         LOGGER.info(MessageFormat.format("userId为 {0} 的用户已注销登录!", userId));
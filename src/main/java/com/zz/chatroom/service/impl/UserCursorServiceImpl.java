@@ -0,0 +1,266 @@
+package com.zz.chatroom.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.zz.chatroom.bean.UserCursorBean;
+import com.zz.chatroom.dao.UserCursorDao;
+import com.zz.chatroom.service.UserCursorService;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author : RUAN.LI
+ * @version : 1.0
+ * @description : 用户消息确认游标
+ *      1. 客户端每收到消息就确认序号，游标只越过连续确认的序号：先收到的较大序号记在进度中，
+ *         等前面的序号都确认后游标才前进，中间还没收到的消息下次上线仍会回放；
+ *      2. 缺口超过 maxAhead 个序号时（例如消息写库失败，永远补不上）不再等待，游标直接跳到确认的序号；
+ *      3. 游标前进后在内存中按 (用户, 会话) 取最大值合并，
+ *         由后台线程每隔 flushIntervalMillis 批量 upsert 到 USER_CURSOR，确认再频繁也不会变成逐条写库。
+ * @date : 2019/11/12
+ */
+@Service
+public class UserCursorServiceImpl implements UserCursorService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UserCursorServiceImpl.class);
+
+    @Autowired
+    private UserCursorDao userCursorDao;
+
+    @Value("${user.cursor.flushIntervalMillis}")
+    private long flushIntervalMillis;
+    @Value("${user.cursor.batchSize}")
+    private int batchSize;
+    @Value("${user.cursor.maxAhead}")
+    private int maxAhead;
+
+    /**
+     * 在线用户的确认进度：userId -> (会话ID -> 进度)
+     */
+    private final Map<Integer, Map<Integer, Progress>> progressMap = new ConcurrentHashMap<>();
+
+    /**
+     * 尚未写库的游标：userId -> (会话ID -> 序号)
+     */
+    private final Map<Integer, Map<Integer, Long>> pendingMap = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService writer;
+
+    @PostConstruct
+    public void init() {
+        writer = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("user-cursor-writer", true));
+        writer.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void ack(Integer userId, Integer conversationId, long seq) {
+        ack(userId, conversationId, seq, seq);
+    }
+
+    @Override
+    public void ack(Integer userId, Integer conversationId, long fromSeq, long seq) {
+        Progress progress = getProgress(userId, conversationId, Math.min(fromSeq, seq) - 1);
+        long cursor = progress.ack(fromSeq, seq);
+        if (cursor < 0) {
+            return;
+        }
+        merge(userId, conversationId, cursor);
+    }
+
+    @Override
+    public void initCursor(Integer userId, Integer conversationId, long seq) {
+        Progress progress = getProgress(userId, conversationId, seq);
+        merge(userId, conversationId, progress.getCursor());
+    }
+
+    @Override
+    public void release(Integer userId) {
+        progressMap.remove(userId);
+    }
+
+    private void merge(Integer userId, Integer conversationId, long cursor) {
+        // 在外层映射的锁内合并，与 flush 中移除空的用户映射互斥
+        pendingMap.compute(userId, (key, cursors) -> {
+            if (cursors == null) {
+                cursors = new ConcurrentHashMap<>();
+            }
+            cursors.merge(conversationId, cursor, Math::max);
+            return cursors;
+        });
+    }
+
+    /**
+     * 描述：取会话的确认进度，没有时以库中的与尚未写库的游标为起点，都没有时以 initial 为起点
+     */
+    private Progress getProgress(Integer userId, Integer conversationId, long initial) {
+        Map<Integer, Progress> conversations = progressMap.computeIfAbsent(userId, key -> new ConcurrentHashMap<>());
+        Progress progress = conversations.get(conversationId);
+        if (progress != null) {
+            return progress;
+        }
+        Long cursor = loadCursor(userId, conversationId);
+        progress = new Progress(cursor == null ? initial : cursor, maxAhead);
+        Progress existing = conversations.putIfAbsent(conversationId, progress);
+        return existing == null ? progress : existing;
+    }
+
+    private Long loadCursor(Integer userId, Integer conversationId) {
+        Map<Integer, Long> pending = pendingMap.get(userId);
+        Long cursor = pending == null ? null : pending.get(conversationId);
+        QueryWrapper<UserCursorBean> ew = new QueryWrapper<>();
+        ew.eq("UC_USER_ID", userId).eq("UC_CONVERSATION_ID", conversationId);
+        UserCursorBean stored = userCursorDao.selectOne(ew);
+        if (stored != null && (cursor == null || stored.getSeq() > cursor)) {
+            cursor = stored.getSeq();
+        }
+        return cursor;
+    }
+
+    /**
+     * 描述：用户在各会话的游标，库中的与尚未写库的取较大者
+     *
+     * @return 会话ID -> 已确认的最大序号，没有确认过的会话不在其中
+     */
+    @Override
+    public Map<Integer, Long> getCursors(Integer userId) {
+        QueryWrapper<UserCursorBean> ew = new QueryWrapper<>();
+        ew.eq("UC_USER_ID", userId);
+        Map<Integer, Long> cursors = new HashMap<>();
+        for (UserCursorBean cursor : userCursorDao.selectList(ew)) {
+            cursors.put(cursor.getConversationId(), cursor.getSeq());
+        }
+        Map<Integer, Long> pending = pendingMap.get(userId);
+        if (pending != null) {
+            for (Map.Entry<Integer, Long> entry : pending.entrySet()) {
+                cursors.merge(entry.getKey(), entry.getValue(), Math::max);
+            }
+        }
+        // 以此为起点记录确认进度，同一用户其他连接已有的进度不覆盖
+        Map<Integer, Progress> conversations = progressMap.computeIfAbsent(userId, key -> new ConcurrentHashMap<>());
+        for (Map.Entry<Integer, Long> entry : cursors.entrySet()) {
+            conversations.putIfAbsent(entry.getKey(), new Progress(entry.getValue(), maxAhead));
+        }
+        return cursors;
+    }
+
+    /**
+     * 停止定时任务并把剩余的游标写库
+     */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void flush() {
+        if (pendingMap.isEmpty()) {
+            return;
+        }
+        List<UserCursorBean> batch = new ArrayList<>(Math.min(pendingMap.size(), batchSize));
+        // 只读不删，写库成功后才移除
+        for (Map.Entry<Integer, Map<Integer, Long>> user : pendingMap.entrySet()) {
+            for (Map.Entry<Integer, Long> entry : user.getValue().entrySet()) {
+                batch.add(new UserCursorBean().setUserId(user.getKey()).setConversationId(entry.getKey())
+                        .setSeq(entry.getValue()));
+                if (batch.size() >= batchSize) {
+                    write(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+        }
+        write(batch);
+    }
+
+    private void write(List<UserCursorBean> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            userCursorDao.upsertBatch(batch);
+        } catch (Exception e) {
+            // 留在待写中下次重试
+            LOGGER.error(MessageFormat.format("批量写入 {0} 个消息确认游标失败，下次重试", batch.size()), e);
+            return;
+        }
+        for (UserCursorBean cursor : batch) {
+            Map<Integer, Long> cursors = pendingMap.get(cursor.getUserId());
+            // 写库期间又有更大的确认则保留
+            if (cursors != null && cursors.remove(cursor.getConversationId(), cursor.getSeq())) {
+                pendingMap.computeIfPresent(cursor.getUserId(), (key, value) -> value.isEmpty() ? null : value);
+            }
+        }
+    }
+
+    /**
+     * 一个会话的确认进度：cursor 及之前的序号都已确认，ahead 的第 i 位表示 base + i 已确认
+     */
+    static final class Progress {
+
+        private final int maxAhead;
+        private long cursor;
+        private long base;
+        private final BitSet ahead = new BitSet();
+
+        Progress(long cursor, int maxAhead) {
+            this.cursor = cursor;
+            this.base = cursor + 1;
+            this.maxAhead = maxAhead;
+        }
+
+        synchronized long getCursor() {
+            return cursor;
+        }
+
+        /**
+         * 描述：确认 [fromSeq, seq] 整段序号，单条确认时两者相等
+         *
+         * @return 游标前进后的值，没有前进时返回 -1
+         */
+        synchronized long ack(long fromSeq, long seq) {
+            if (seq <= cursor) {
+                return -1;
+            }
+            if (seq - cursor > maxAhead) {
+                LOGGER.warn(MessageFormat.format("确认缺口超过 {0} 个序号，游标从 {1} 跳到 {2}",
+                        maxAhead, Long.toString(cursor), Long.toString(seq)));
+            } else if (fromSeq > cursor + 1) {
+                ahead.set((int) (fromSeq - base), (int) (seq - base) + 1);
+                return -1;
+            }
+            // 连上之前已确认的较大序号
+            long next = seq + 1 - base;
+            cursor = next < ahead.length() ? base + ahead.nextClearBit((int) next) - 1 : seq;
+            // 进度之前的位不再需要，重新以 cursor + 1 为起点
+            int from = (int) Math.min(cursor + 1 - base, Integer.MAX_VALUE);
+            if (from >= ahead.length()) {
+                ahead.clear();
+            } else {
+                BitSet rest = ahead.get(from, ahead.length());
+                ahead.clear();
+                ahead.or(rest);
+            }
+            base = cursor + 1;
+            return cursor;
+        }
+    }
+}
@@ -3,22 +3,66 @@ package com.zz.chatroom.service.impl;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.zz.chatroom.bean.GroupInfoBean;
 import com.zz.chatroom.bean.UserInfoBean;
+import com.zz.chatroom.common.cache.LocalCache;
+import com.zz.chatroom.common.metrics.MetricsRegistry;
 import com.zz.chatroom.dao.GroupInfoDao;
 import com.zz.chatroom.dao.UserInfoDao;
 import com.zz.chatroom.service.UserInfoService;
 import org.springframework.beans.factory.annotation.Autowired;
 import com.zz.chatroom.util.ResponseJson;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * 描述: 个人信息
+ *      用户资料、好友id列表、群列表分别放在 LocalCache 中读穿缓存，重连风暴后的集中页面加载不再每次三条查询；
+ *      好友资料与用户资料共用一个缓存，未命中的好友用一条 selectBatchIds 批量读取；
+ *      离线时间写库后、群成员变动后由对应的服务调用 invalidate，其余变化由过期时间兜底。
+ *      缓存的对象是共享的，返回前复制一份再填好友和群列表。
+ */
 @Service
 public class UserInfoServiceImpl implements UserInfoService {
 
+    private static final String ALL_GROUPS = "all";
+
     @Autowired
     private UserInfoDao userInfoDao;
     @Autowired
     private GroupInfoDao groupInfoDao;
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    /**
+     * 用户资料、好友id列表各自最多缓存的条数
+     */
+    @Value("${user.cache.maxSize}")
+    private int cacheMaxSize;
+    /**
+     * 缓存过期时间(秒)
+     */
+    @Value("${user.cache.ttlSeconds}")
+    private long cacheTtlSeconds;
+
+    private LocalCache<Integer, UserInfoBean> userCache;
+    private LocalCache<Integer, List<Integer>> friendIdCache;
+    private LocalCache<String, List<GroupInfoBean>> groupCache;
+
+    @PostConstruct
+    public void init() {
+        userCache = new LocalCache<>("user_info", cacheMaxSize, cacheTtlSeconds, TimeUnit.SECONDS, metricsRegistry);
+        friendIdCache = new LocalCache<>("friend_ids", cacheMaxSize, cacheTtlSeconds, TimeUnit.SECONDS,
+                metricsRegistry);
+        groupCache = new LocalCache<>("groups", 1, cacheTtlSeconds, TimeUnit.SECONDS, metricsRegistry);
+    }
 
     /**
      * userId：用户Id
@@ -26,14 +70,58 @@ public class UserInfoServiceImpl implements UserInfoService {
      */
     @Override
     public ResponseJson getByUserId(Integer userId) {
-        UserInfoBean userInfo = userInfoDao.selectById(userId);
+        UserInfoBean cached = userCache.get(userId, userInfoDao::selectById);
+        if (cached == null) {
+            return new ResponseJson().error("用户不存在");
+        }
         //获取朋友
-        List<UserInfoBean> friends = userInfoDao.queryFriends(userId);
-        QueryWrapper<GroupInfoBean> ew = new QueryWrapper<>();
+        List<Integer> friendIds = friendIdCache.get(userId, this::loadFriendIds);
+        List<UserInfoBean> friends = new ArrayList<>(friendIds.size());
+        for (UserInfoBean friend : userCache.getAll(friendIds, this::loadUsers).values()) {
+            friends.add(copyOf(friend).setUserPassword(null));
+        }
         //获取群
-        List<GroupInfoBean> groups = groupInfoDao.selectList(ew);
+        List<GroupInfoBean> groups = groupCache.get(ALL_GROUPS,
+                key -> Collections.unmodifiableList(groupInfoDao.selectList(new QueryWrapper<>())));
+        UserInfoBean userInfo = copyOf(cached);
         userInfo.setFridents(friends);
         userInfo.setGroups(groups);
         return new ResponseJson().success().setData("userInfo", userInfo);
     }
+
+    @Override
+    public void invalidateUser(Integer userId) {
+        userCache.invalidate(userId);
+    }
+
+    @Override
+    public void invalidateGroups() {
+        groupCache.invalidateAll();
+    }
+
+    /**
+     * 好友id按升序排列，与原先 USER_ID IN (子查询) 的返回顺序一致
+     */
+    private List<Integer> loadFriendIds(Integer userId) {
+        List<Integer> friendIds = new ArrayList<>(userInfoDao.queryFriendIds(userId));
+        Collections.sort(friendIds);
+        return Collections.unmodifiableList(friendIds);
+    }
+
+    private Map<Integer, UserInfoBean> loadUsers(Collection<Integer> userIds) {
+        Map<Integer, UserInfoBean> users = new HashMap<>(userIds.size() * 4 / 3 + 1);
+        for (UserInfoBean user : userInfoDao.selectBatchIds(userIds)) {
+            users.put(user.getUserId(), user);
+        }
+        return users;
+    }
+
+    private static UserInfoBean copyOf(UserInfoBean user) {
+        return new UserInfoBean()
+                .setUserId(user.getUserId())
+                .setUserName(user.getUserName())
+                .setUserPassword(user.getUserPassword())
+                .setUserIcon(user.getUserIcon())
+                .setUserOfflineTime(user.getUserOfflineTime());
+    }
 }
@@ -0,0 +1,217 @@
+package com.zz.chatroom.util;
+
+import com.alibaba.fastjson.annotation.JSONField;
+
+/**
+ * 描述: 客户端发来的聊天指令
+ *      由 ChatCommandDecoder 直接从 TextWebSocketFrame 的 ByteBuf 解析得到，字段类型固定，
+ *      业务层不再从 JSONObject 中逐个 get().toString() 再 parseInt。
+ *      各 ChatType 需要的字段由 validate() 校验，缺字段的指令在进入业务层之前就被拒绝。
+ */
+public class ChatCommand {
+
+    private ChatType type;
+    private Integer userId;
+    private Integer fromUserId;
+    private String fromUserName;
+    private String fromUserIcon;
+    private Integer toUserId;
+    private Integer toGroupId;
+    private String content;
+    private String originalFilename;
+    private String fileSize;
+    private String fileUrl;
+    private Long seq;
+    /**
+     * ACK 时可选，确认 [fromSeq, seq] 整段序号，不带时只确认 seq
+     */
+    private Long fromSeq;
+    /**
+     * 解码完成时的 System.nanoTime()，用于统计服务端投递延迟；
+     * 不提供 set 方法，避免被客户端 JSON 中的同名字段赋值
+     */
+    private long receivedNanos;
+
+    /**
+     * 描述：按指令类型校验必填字段
+     *
+     * @return 校验失败的提示信息，校验通过返回 null
+     */
+    public String validate() {
+        if (type == null) {
+            return "该类型不存在！";
+        }
+        switch (type) {
+            case REGISTER:
+                return require(userId, "userId");
+            case SINGLE_SENDING:
+                return firstMissing(require(fromUserId, "fromUserId"), require(toUserId, "toUserId"),
+                        require(content, "content"));
+            case GROUP_SENDING:
+                return firstMissing(require(fromUserId, "fromUserId"), require(toGroupId, "toGroupId"),
+                        require(content, "content"));
+            case FILE_MSG_SINGLE_SENDING:
+                return firstMissing(require(fromUserId, "fromUserId"), require(toUserId, "toUserId"),
+                        require(fileUrl, "fileUrl"));
+            case FILE_MSG_GROUP_SENDING:
+                return firstMissing(require(fromUserId, "fromUserId"), require(toGroupId, "toGroupId"),
+                        require(fileUrl, "fileUrl"));
+            case ACK:
+                return require(seq, "seq");
+            default:
+                return null;
+        }
+    }
+
+    public void markReceived() {
+        this.receivedNanos = System.nanoTime();
+    }
+
+    public long receivedNanos() {
+        return receivedNanos;
+    }
+
+    private static String require(Object value, String name) {
+        return value == null ? "参数缺失：" + name : null;
+    }
+
+    private static String firstMissing(String... errors) {
+        for (String error : errors) {
+            if (error != null) {
+                return error;
+            }
+        }
+        return null;
+    }
+
+    public ChatType getType() {
+        return type;
+    }
+
+    @JSONField(deserialize = false)
+    public ChatCommand setType(ChatType type) {
+        this.type = type;
+        return this;
+    }
+
+    /**
+     * 描述：JSON 中的 type 按名称解析，未知的类型置为 null，由 validate() 回复"该类型不存在"，
+     * 而不是让整条指令解析失败
+     */
+    @JSONField(name = "type")
+    public void setTypeName(String typeName) {
+        try {
+            this.type = typeName == null ? null : ChatType.valueOf(typeName);
+        } catch (IllegalArgumentException e) {
+            this.type = null;
+        }
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public ChatCommand setUserId(Integer userId) {
+        this.userId = userId;
+        return this;
+    }
+
+    public Integer getFromUserId() {
+        return fromUserId;
+    }
+
+    public ChatCommand setFromUserId(Integer fromUserId) {
+        this.fromUserId = fromUserId;
+        return this;
+    }
+
+    public String getFromUserName() {
+        return fromUserName;
+    }
+
+    public ChatCommand setFromUserName(String fromUserName) {
+        this.fromUserName = fromUserName;
+        return this;
+    }
+
+    public String getFromUserIcon() {
+        return fromUserIcon;
+    }
+
+    public ChatCommand setFromUserIcon(String fromUserIcon) {
+        this.fromUserIcon = fromUserIcon;
+        return this;
+    }
+
+    public Integer getToUserId() {
+        return toUserId;
+    }
+
+    public ChatCommand setToUserId(Integer toUserId) {
+        this.toUserId = toUserId;
+        return this;
+    }
+
+    public Integer getToGroupId() {
+        return toGroupId;
+    }
+
+    public ChatCommand setToGroupId(Integer toGroupId) {
+        this.toGroupId = toGroupId;
+        return this;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public ChatCommand setContent(String content) {
+        this.content = content;
+        return this;
+    }
+
+    public String getOriginalFilename() {
+        return originalFilename;
+    }
+
+    public ChatCommand setOriginalFilename(String originalFilename) {
+        this.originalFilename = originalFilename;
+        return this;
+    }
+
+    public String getFileSize() {
+        return fileSize;
+    }
+
+    public ChatCommand setFileSize(String fileSize) {
+        this.fileSize = fileSize;
+        return this;
+    }
+
+    public String getFileUrl() {
+        return fileUrl;
+    }
+
+    public ChatCommand setFileUrl(String fileUrl) {
+        this.fileUrl = fileUrl;
+        return this;
+    }
+
+    public Long getSeq() {
+        return seq;
+    }
+
+    public ChatCommand setSeq(Long seq) {
+        this.seq = seq;
+        return this;
+    }
+
+    public Long getFromSeq() {
+        return fromSeq;
+    }
+
+    public ChatCommand setFromSeq(Long fromSeq) {
+        this.fromSeq = fromSeq;
+        return this;
+    }
+}
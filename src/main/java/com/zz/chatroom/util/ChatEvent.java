@@ -0,0 +1,137 @@
+package com.zz.chatroom.util;
+
+/**
+ * 描述: 服务端推送给客户端的聊天事件
+ *      取代 ResponseJson 的 HashMap 嵌套结构，字段按已知的 ChatType 负载固定下来，
+ *      由 ChatEventWriter 直接序列化到 ByteBuf，值为 null 的字段不输出。
+ */
+public class ChatEvent {
+
+    private ChatType type;
+    private Integer fromUserId;
+    private String fromUserName;
+    private String fromUserIcon;
+    private Integer toUserId;
+    private Integer toGroupId;
+    private String content;
+    private String originalFilename;
+    private String fileSize;
+    private String fileUrl;
+    private String sendTime;
+    private Long seq;
+
+    public ChatEvent() {
+    }
+
+    public ChatEvent(ChatType type) {
+        this.type = type;
+    }
+
+    public ChatType getType() {
+        return type;
+    }
+
+    public ChatEvent setType(ChatType type) {
+        this.type = type;
+        return this;
+    }
+
+    public Integer getFromUserId() {
+        return fromUserId;
+    }
+
+    public ChatEvent setFromUserId(Integer fromUserId) {
+        this.fromUserId = fromUserId;
+        return this;
+    }
+
+    public String getFromUserName() {
+        return fromUserName;
+    }
+
+    public ChatEvent setFromUserName(String fromUserName) {
+        this.fromUserName = fromUserName;
+        return this;
+    }
+
+    public String getFromUserIcon() {
+        return fromUserIcon;
+    }
+
+    public ChatEvent setFromUserIcon(String fromUserIcon) {
+        this.fromUserIcon = fromUserIcon;
+        return this;
+    }
+
+    public Integer getToUserId() {
+        return toUserId;
+    }
+
+    public ChatEvent setToUserId(Integer toUserId) {
+        this.toUserId = toUserId;
+        return this;
+    }
+
+    public Integer getToGroupId() {
+        return toGroupId;
+    }
+
+    public ChatEvent setToGroupId(Integer toGroupId) {
+        this.toGroupId = toGroupId;
+        return this;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public ChatEvent setContent(String content) {
+        this.content = content;
+        return this;
+    }
+
+    public String getOriginalFilename() {
+        return originalFilename;
+    }
+
+    public ChatEvent setOriginalFilename(String originalFilename) {
+        this.originalFilename = originalFilename;
+        return this;
+    }
+
+    public String getFileSize() {
+        return fileSize;
+    }
+
+    public ChatEvent setFileSize(String fileSize) {
+        this.fileSize = fileSize;
+        return this;
+    }
+
+    public String getFileUrl() {
+        return fileUrl;
+    }
+
+    public ChatEvent setFileUrl(String fileUrl) {
+        this.fileUrl = fileUrl;
+        return this;
+    }
+
+    public String getSendTime() {
+        return sendTime;
+    }
+
+    public ChatEvent setSendTime(String sendTime) {
+        this.sendTime = sendTime;
+        return this;
+    }
+
+    public Long getSeq() {
+        return seq;
+    }
+
+    public ChatEvent setSeq(Long seq) {
+        this.seq = seq;
+        return this;
+    }
+}
@@ -0,0 +1,241 @@
+package com.zz.chatroom.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.CharsetUtil;
+
+import java.util.List;
+
+/**
+ * 描述: ChatEvent 的流式 JSON 序列化
+ *      直接把 UTF-8 字节写进 channel 分配器分配的池化 ByteBuf，不经过中间的 Map 和 String，
+ *      输出格式与 ResponseJson 保持一致：{"status":200,"msg":"一切正常","data":{...}}。
+ *      字段名、ChatType 名称等固定内容在类加载时预先编码好。
+ *      writeBatch 把一个会话的多个事件写成一帧：
+ *      {"status":200,"msg":"一切正常","data":{"type":...,"toGroupId":...,"fromSeq":...,"seq":...,"messages":[{...},...]}}，
+ *      客户端按 fromSeq、seq 整段确认。
+ */
+public final class ChatEventWriter {
+
+    private static final byte[] SUCCESS_PREFIX = utf8("{\"status\":200,\"msg\":\"一切正常\",\"data\":");
+    private static final byte[] TYPE = utf8("{\"type\":");
+    private static final byte[] MESSAGES = utf8(",\"messages\":[");
+    private static final byte[] ERROR_PREFIX = utf8("{\"status\":-1,\"msg\":");
+    private static final byte[] FROM_USER_ID = utf8(",\"fromUserId\":");
+    private static final byte[] FROM_USER_NAME = utf8(",\"fromUserName\":");
+    private static final byte[] FROM_USER_ICON = utf8(",\"fromUserIcon\":");
+    private static final byte[] TO_USER_ID = utf8(",\"toUserId\":");
+    private static final byte[] TO_GROUP_ID = utf8(",\"toGroupId\":");
+    private static final byte[] CONTENT = utf8(",\"content\":");
+    private static final byte[] ORIGINAL_FILENAME = utf8(",\"originalFilename\":");
+    private static final byte[] FILE_SIZE = utf8(",\"fileSize\":");
+    private static final byte[] FILE_URL = utf8(",\"fileUrl\":");
+    private static final byte[] SEND_TIME = utf8(",\"sendTime\":");
+    private static final byte[] SEQ = utf8(",\"seq\":");
+    private static final byte[] FROM_SEQ = utf8(",\"fromSeq\":");
+    private static final byte[] NULL = utf8("null");
+    private static final byte[] HEX = utf8("0123456789abcdef");
+
+    /**
+     * ChatType 名称带引号的编码，按 ordinal 取
+     */
+    private static final byte[][] TYPE_NAMES;
+
+    static {
+        ChatType[] types = ChatType.values();
+        TYPE_NAMES = new byte[types.length][];
+        for (ChatType type : types) {
+            TYPE_NAMES[type.ordinal()] = utf8("\"" + type.name() + "\"");
+        }
+    }
+
+    private ChatEventWriter() {
+    }
+
+    /**
+     * 描述：序列化成功事件，返回的 ByteBuf 由调用方负责释放（写入 channel 后由 Netty 释放）
+     */
+    public static ByteBuf write(ByteBufAllocator alloc, ChatEvent event) {
+        ByteBuf buf = alloc.ioBuffer(256);
+        buf.writeBytes(SUCCESS_PREFIX);
+        writeEvent(buf, event);
+        buf.writeByte('}');
+        return buf;
+    }
+
+    /**
+     * 描述：同一会话的多个事件合并成一帧，type 为外层批量类型，每个事件保留自己的 type
+     *
+     * @param toGroupId 群id，收件箱为 null
+     * @param fromSeq   这一帧覆盖的第一个序号，其中没有消息的序号也包括在内
+     * @param seq       这一帧覆盖的最后一个序号
+     */
+    public static ByteBuf writeBatch(ByteBufAllocator alloc, ChatType type, Integer toGroupId, long fromSeq, long seq,
+                                     List<ChatEvent> events) {
+        ByteBuf buf = alloc.ioBuffer(128 + events.size() * 256);
+        buf.writeBytes(SUCCESS_PREFIX);
+        writeType(buf, type);
+        writeField(buf, TO_GROUP_ID, toGroupId);
+        writeField(buf, FROM_SEQ, fromSeq);
+        writeField(buf, SEQ, seq);
+        buf.writeBytes(MESSAGES);
+        for (int i = 0; i < events.size(); i++) {
+            if (i > 0) {
+                buf.writeByte(',');
+            }
+            writeEvent(buf, events.get(i));
+        }
+        buf.writeByte(']').writeByte('}').writeByte('}');
+        return buf;
+    }
+
+    private static void writeEvent(ByteBuf buf, ChatEvent event) {
+        writeType(buf, event.getType());
+        writeField(buf, FROM_USER_ID, event.getFromUserId());
+        writeField(buf, FROM_USER_NAME, event.getFromUserName());
+        writeField(buf, FROM_USER_ICON, event.getFromUserIcon());
+        writeField(buf, TO_USER_ID, event.getToUserId());
+        writeField(buf, TO_GROUP_ID, event.getToGroupId());
+        writeField(buf, CONTENT, event.getContent());
+        writeField(buf, ORIGINAL_FILENAME, event.getOriginalFilename());
+        writeField(buf, FILE_SIZE, event.getFileSize());
+        writeField(buf, FILE_URL, event.getFileUrl());
+        writeField(buf, SEND_TIME, event.getSendTime());
+        writeField(buf, SEQ, event.getSeq());
+        buf.writeByte('}');
+    }
+
+    private static void writeType(ByteBuf buf, ChatType type) {
+        buf.writeBytes(TYPE);
+        if (type == null) {
+            buf.writeBytes(NULL);
+        } else {
+            buf.writeBytes(TYPE_NAMES[type.ordinal()]);
+        }
+    }
+
+    /**
+     * 描述：序列化错误提示，格式同 ResponseJson.error(msg)
+     */
+    public static ByteBuf writeError(ByteBufAllocator alloc, String msg) {
+        ByteBuf buf = alloc.ioBuffer(64 + msg.length() * 3);
+        buf.writeBytes(ERROR_PREFIX);
+        writeString(buf, msg);
+        buf.writeByte('}');
+        return buf;
+    }
+
+    private static void writeField(ByteBuf buf, byte[] name, String value) {
+        if (value != null) {
+            buf.writeBytes(name);
+            writeString(buf, value);
+        }
+    }
+
+    private static void writeField(ByteBuf buf, byte[] name, Integer value) {
+        if (value != null) {
+            buf.writeBytes(name);
+            writeLong(buf, value);
+        }
+    }
+
+    private static void writeField(ByteBuf buf, byte[] name, Long value) {
+        if (value != null) {
+            buf.writeBytes(name);
+            writeLong(buf, value);
+        }
+    }
+
+    /**
+     * 写入 JSON 字符串：加引号、转义，并按字符直接编码为 UTF-8
+     */
+    private static void writeString(ByteBuf buf, String value) {
+        int length = value.length();
+        buf.ensureWritable(length * 3 + 2);
+        buf.writeByte('"');
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    buf.writeByte('\\').writeByte(c);
+                } else if (c < 0x20) {
+                    writeControlChar(buf, c);
+                } else {
+                    buf.writeByte(c);
+                }
+            } else if (c < 0x800) {
+                buf.writeByte(0xc0 | (c >> 6));
+                buf.writeByte(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buf.writeByte(0xf0 | (codePoint >> 18));
+                buf.writeByte(0x80 | ((codePoint >> 12) & 0x3f));
+                buf.writeByte(0x80 | ((codePoint >> 6) & 0x3f));
+                buf.writeByte(0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // 落单的代理字符不是合法的 UTF-16，按 '?' 输出
+                buf.writeByte('?');
+            } else {
+                buf.writeByte(0xe0 | (c >> 12));
+                buf.writeByte(0x80 | ((c >> 6) & 0x3f));
+                buf.writeByte(0x80 | (c & 0x3f));
+            }
+        }
+        buf.writeByte('"');
+    }
+
+    private static void writeControlChar(ByteBuf buf, char c) {
+        buf.ensureWritable(6);
+        buf.writeByte('\\');
+        switch (c) {
+            case '\n':
+                buf.writeByte('n');
+                break;
+            case '\r':
+                buf.writeByte('r');
+                break;
+            case '\t':
+                buf.writeByte('t');
+                break;
+            case '\b':
+                buf.writeByte('b');
+                break;
+            case '\f':
+                buf.writeByte('f');
+                break;
+            default:
+                buf.writeByte('u').writeByte('0').writeByte('0')
+                        .writeByte(HEX[c >> 4]).writeByte(HEX[c & 0xf]);
+                break;
+        }
+    }
+
+    /**
+     * 写入十进制整数，不经过 Long.toString
+     */
+    private static void writeLong(ByteBuf buf, long value) {
+        if (value == Long.MIN_VALUE) {
+            buf.writeBytes(utf8(Long.toString(value)));
+            return;
+        }
+        if (value < 0) {
+            buf.writeByte('-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        buf.ensureWritable(digits);
+        int end = buf.writerIndex() + digits;
+        for (int i = end - 1; i >= buf.writerIndex(); i--) {
+            buf.setByte(i, (int) ('0' + value % 10));
+            value /= 10;
+        }
+        buf.writerIndex(end);
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(CharsetUtil.UTF_8);
+    }
+}
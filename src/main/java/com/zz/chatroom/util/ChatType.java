@@ -12,6 +12,7 @@ public enum ChatType {
     CHAT_NOTES,//消息记录
     HEART_CLIENT,//心跳包
     HEART_SERVICE,//服务器心跳
+    ACK,//客户端确认已收到的消息序号
     SERVICE_OFFLINE;//服务器正常断线
 
 }
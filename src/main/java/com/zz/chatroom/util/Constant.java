@@ -1,7 +1,7 @@
 package com.zz.chatroom.util;
 
-import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
+import io.netty.util.AttributeKey;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -10,16 +10,19 @@ import java.util.concurrent.ConcurrentHashMap;
  * 描述: 全局常量
  *      1. USER_TOKEN 用户认证的键，用来匹配http session中的对应userId；
  *      2. webSocketServerHandshaker，用channelId为键，存放握手实例。用来响应CloseWebSocketFrame的请求；
- *      3. onlineUser，用userId为键，存放在线的客户端连接上下文；
+ *      3. USER_ID_ATTR，REGISTER 时把 userId 记在 channel 上，断开时直接取出；
+ *      4. OFFLINE_REPLAY_ATTR，离线消息回放因 channel 不可写而挂起时，记下待继续的任务；
+ *      在线用户及其连接见 SessionRegistry。
  */
 public class Constant {
 
     public static final String USER_TOKEN = "userId";
 
+    public static final AttributeKey<String> USER_ID_ATTR = AttributeKey.valueOf("userId");
+
+    public static final AttributeKey<Runnable> OFFLINE_REPLAY_ATTR = AttributeKey.valueOf("offlineReplay");
+
 	public static Map<String, WebSocketServerHandshaker> webSocketHandshakerMap =
             new ConcurrentHashMap<String, WebSocketServerHandshaker>();
-    
-	public static Map<String, ChannelHandlerContext> onlineUserMap = 
-	        new ConcurrentHashMap<String, ChannelHandlerContext>();
 
 }
@@ -0,0 +1,63 @@
+package com.zz.chatroom.util;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+
+/**
+ * <p>
+ *   描述: 线程安全的时间格式化工具，格式固定为 yyyy-MM-dd HH:mm:ss
+ *        1. 取代各处共享的静态 SimpleDateFormat（多线程并发 format 会得到错乱的结果）；
+ *        2. 按秒缓存最近一次的格式化结果，同一秒内的消息直接复用同一个字符串，
+ *           热路径上没有 Date 和格式化的开销。
+ * </p>
+ */
+public final class DateFormatUtils {
+
+    private static final DateTimeFormatter FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    /**
+     * 最近一次格式化的秒及其结果，整体替换保证两者一致
+     */
+    private static volatile CachedSecond cached = new CachedSecond(Long.MIN_VALUE, null);
+
+    private DateFormatUtils() {
+    }
+
+    /**
+     * 当前时间
+     */
+    public static String now() {
+        return format(System.currentTimeMillis());
+    }
+
+    public static String format(Date date) {
+        return format(date.getTime());
+    }
+
+    public static String format(long epochMillis) {
+        long second = Math.floorDiv(epochMillis, 1000L);
+        CachedSecond current = cached;
+        if (current.second == second) {
+            return current.text;
+        }
+        String text = FORMATTER.format(Instant.ofEpochSecond(second));
+        // 只缓存不早于当前缓存的时间，离线消息回放中的历史时间不会把“当前秒”挤出缓存
+        if (second > current.second) {
+            cached = new CachedSecond(second, text);
+        }
+        return text;
+    }
+
+    private static final class CachedSecond {
+        private final long second;
+        private final String text;
+
+        private CachedSecond(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+}
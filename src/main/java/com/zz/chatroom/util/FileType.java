@@ -0,0 +1,119 @@
+package com.zz.chatroom.util;
+
+/**
+ * 描述: 按文件头（magic number）识别的文件类型，由 FileTypeSniffer 匹配
+ *      signatures 为文件开头的字节模式，空格分隔：两位十六进制为一个字节，'…' 为 ASCII 字符串，?? 为任意字节，??*n 为 n 个任意字节；
+ *      extensions 第一个为默认后缀，其余为同一种文件头的其他后缀（例如 OLE2 复合文档的 doc / xls / ppt）。
+ */
+public enum FileType {
+
+    //图片
+    JPG(Category.IMAGE, "image/jpeg", new String[]{"jpg", "jpeg"}, "FF D8 FF"),
+    PNG(Category.IMAGE, "image/png", new String[]{"png"}, "89 'PNG' 0D 0A 1A 0A"),
+    GIF(Category.IMAGE, "image/gif", new String[]{"gif"}, "'GIF87a'", "'GIF89a'"),
+    BMP(Category.IMAGE, "image/bmp", new String[]{"bmp"}, "'BM' ??*4 00 00 00 00"),
+    WEBP(Category.IMAGE, "image/webp", new String[]{"webp"}, "'RIFF' ??*4 'WEBP'"),
+    TIFF(Category.IMAGE, "image/tiff", new String[]{"tif", "tiff"}, "'II' 2A 00", "'MM' 00 2A"),
+    ICO(Category.IMAGE, "image/x-icon", new String[]{"ico"}, "00 00 01 00"),
+    HEIC(Category.IMAGE, "image/heic", new String[]{"heic", "heif"},
+            "??*4 'ftypheic'", "??*4 'ftypheix'", "??*4 'ftyphevc'", "??*4 'ftypmif1'"),
+    PSD(Category.IMAGE, "image/vnd.adobe.photoshop", new String[]{"psd"}, "'8BPS'"),
+
+    //音频
+    MP3(Category.AUDIO, "audio/mpeg", new String[]{"mp3"}, "'ID3'", "FF FB", "FF F3", "FF F2"),
+    WAV(Category.AUDIO, "audio/wav", new String[]{"wav"}, "'RIFF' ??*4 'WAVE'"),
+    FLAC(Category.AUDIO, "audio/flac", new String[]{"flac"}, "'fLaC'"),
+    OGG(Category.AUDIO, "audio/ogg", new String[]{"ogg", "oga", "opus"}, "'OggS'"),
+    AMR(Category.AUDIO, "audio/amr", new String[]{"amr"}, "'#!AMR'"),
+    M4A(Category.AUDIO, "audio/mp4", new String[]{"m4a"}, "??*4 'ftypM4A'"),
+    AAC(Category.AUDIO, "audio/aac", new String[]{"aac"}, "FF F1", "FF F9"),
+    MIDI(Category.AUDIO, "audio/midi", new String[]{"mid", "midi"}, "'MThd'"),
+
+    //视频
+    MP4(Category.VIDEO, "video/mp4", new String[]{"mp4", "m4v"},
+            "??*4 'ftypisom'", "??*4 'ftypiso2'", "??*4 'ftypmp41'", "??*4 'ftypmp42'",
+            "??*4 'ftypavc1'", "??*4 'ftypMSNV'", "??*4 'ftypdash'", "??*4 'ftypM4V'"),
+    MOV(Category.VIDEO, "video/quicktime", new String[]{"mov"}, "??*4 'ftypqt'"),
+    THREE_GP(Category.VIDEO, "video/3gpp", new String[]{"3gp", "3g2"}, "??*4 'ftyp3g'"),
+    AVI(Category.VIDEO, "video/x-msvideo", new String[]{"avi"}, "'RIFF' ??*4 'AVI' 20"),
+    MKV(Category.VIDEO, "video/x-matroska", new String[]{"mkv", "webm"}, "1A 45 DF A3"),
+    FLV(Category.VIDEO, "video/x-flv", new String[]{"flv"}, "'FLV' 01"),
+    WMV(Category.VIDEO, "video/x-ms-asf", new String[]{"wmv", "asf", "wma"}, "30 26 B2 75 8E 66 CF 11"),
+    MPEG(Category.VIDEO, "video/mpeg", new String[]{"mpg", "mpeg"}, "00 00 01 BA", "00 00 01 B3"),
+
+    //压缩包
+    ZIP(Category.ARCHIVE, "application/zip", new String[]{"zip", "jar", "apk"}, "'PK' 03 04", "'PK' 05 06", "'PK' 07 08"),
+    RAR(Category.ARCHIVE, "application/vnd.rar", new String[]{"rar"}, "'Rar!' 1A 07"),
+    SEVEN_ZIP(Category.ARCHIVE, "application/x-7z-compressed", new String[]{"7z"}, "'7z' BC AF 27 1C"),
+    GZIP(Category.ARCHIVE, "application/gzip", new String[]{"gz", "tgz"}, "1F 8B"),
+    BZIP2(Category.ARCHIVE, "application/x-bzip2", new String[]{"bz2"}, "'BZh'"),
+    XZ(Category.ARCHIVE, "application/x-xz", new String[]{"xz"}, "FD '7zXZ' 00"),
+
+    //文档：OOXML、ODF、EPUB 都是 zip，按第一个条目的文件名区分
+    PDF(Category.DOCUMENT, "application/pdf", new String[]{"pdf"}, "'%PDF-'"),
+    OLE2(Category.DOCUMENT, "application/x-ole-storage", new String[]{"doc", "xls", "ppt", "msg", "msi"},
+            "D0 CF 11 E0 A1 B1 1A E1"),
+    OOXML(Category.DOCUMENT, "application/vnd.openxmlformats-officedocument", new String[]{"docx", "xlsx", "pptx"},
+            "'PK' 03 04 ??*26 '[Content_Types].xml'"),
+    ODF(Category.DOCUMENT, "application/vnd.oasis.opendocument", new String[]{"odt", "ods", "odp"},
+            "'PK' 03 04 ??*26 'mimetypeapplication/vnd.oasis.opendocument.'"),
+    EPUB(Category.DOCUMENT, "application/epub+zip", new String[]{"epub"},
+            "'PK' 03 04 ??*26 'mimetypeapplication/epub+zip'"),
+    RTF(Category.DOCUMENT, "application/rtf", new String[]{"rtf"}, "'{\\rtf'"),
+
+    //可执行文件
+    EXE(Category.EXECUTABLE, "application/vnd.microsoft.portable-executable", new String[]{"exe", "dll"}, "'MZ'"),
+    ELF(Category.EXECUTABLE, "application/x-elf", new String[]{"elf", "so"}, "7F 'ELF'"),
+    CLASS(Category.EXECUTABLE, "application/java-vm", new String[]{"class"}, "CA FE BA BE");
+
+    public enum Category {
+        IMAGE, AUDIO, VIDEO, ARCHIVE, DOCUMENT, EXECUTABLE
+    }
+
+    private final Category category;
+    private final String mimeType;
+    private final String[] extensions;
+    private final String[] signatures;
+
+    FileType(Category category, String mimeType, String[] extensions, String... signatures) {
+        this.category = category;
+        this.mimeType = mimeType;
+        this.extensions = extensions;
+        this.signatures = signatures;
+    }
+
+    public Category getCategory() {
+        return category;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * 默认后缀（不含点）
+     */
+    public String getExtension() {
+        return extensions[0];
+    }
+
+    /**
+     * 描述：suffix（可带点，不区分大小写）是这种文件头的后缀之一时返回它，否则返回默认后缀，
+     * 例如 OLE2 文件声明为 .xls 时仍为 xls
+     */
+    public String extensionFor(String suffix) {
+        if (suffix != null) {
+            String ext = suffix.startsWith(".") ? suffix.substring(1) : suffix;
+            for (String candidate : extensions) {
+                if (candidate.equalsIgnoreCase(ext)) {
+                    return candidate;
+                }
+            }
+        }
+        return extensions[0];
+    }
+
+    String[] getSignatures() {
+        return signatures;
+    }
+}
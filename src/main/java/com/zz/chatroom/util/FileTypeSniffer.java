@@ -0,0 +1,158 @@
+package com.zz.chatroom.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 描述: 按文件头识别文件类型
+ *      1. 所有 FileType 的字节模式在类加载时建成一棵按字节分支的前缀树，展平成 节点 * 256 的跳转表，每个字节一次数组下标即可前进；
+ *      2. 模式中的任意字节（RIFF 后的长度、ftyp 前的 box 大小、zip 条目头）为节点上单独的通配分支，只在同时存在两种分支的节点上回溯；
+ *      3. 命中多个模式时取最长的一个，例如 OOXML 优先于 ZIP；
+ *      4. 最多只看前 HEADER_LENGTH 个字节，耗时与文件大小无关，匹配过程不分配对象，
+ *         上传时在数据流经的缓冲区上直接调用，不需要再打开文件读文件头。
+ */
+public final class FileTypeSniffer {
+
+    private static final int ANY = -1;
+
+    /**
+     * 最长模式的字节数，调用方至多需要提供这么多字节
+     */
+    public static final int HEADER_LENGTH;
+
+    /**
+     * 精确字节跳转：NEXT[节点 << 8 | 字节] 为子节点，0 表示没有（根节点不会是子节点）
+     */
+    private static final short[] NEXT;
+    /**
+     * 通配分支的子节点，0 表示没有
+     */
+    private static final short[] NEXT_ANY;
+    /**
+     * 以该节点结尾的模式对应的 FileType.ordinal() + 1，0 表示不是模式结尾
+     */
+    private static final byte[] TERMINAL;
+
+    private static final FileType[] TYPES = FileType.values();
+
+    static {
+        List<int[]> exact = new ArrayList<>();
+        List<Integer> any = new ArrayList<>();
+        List<Integer> terminal = new ArrayList<>();
+        exact.add(new int[256]);
+        any.add(0);
+        terminal.add(0);
+        int maxLength = 0;
+        for (FileType type : TYPES) {
+            for (String signature : type.getSignatures()) {
+                int[] pattern = parse(signature);
+                maxLength = Math.max(maxLength, pattern.length);
+                int node = 0;
+                for (int b : pattern) {
+                    int child = b == ANY ? any.get(node) : exact.get(node)[b];
+                    if (child == 0) {
+                        child = exact.size();
+                        exact.add(new int[256]);
+                        any.add(0);
+                        terminal.add(0);
+                        if (b == ANY) {
+                            any.set(node, child);
+                        } else {
+                            exact.get(node)[b] = child;
+                        }
+                    }
+                    node = child;
+                }
+                if (terminal.get(node) != 0) {
+                    throw new IllegalStateException("文件头重复：" + type + " " + signature);
+                }
+                terminal.set(node, type.ordinal() + 1);
+            }
+        }
+        if (exact.size() > Short.MAX_VALUE || TYPES.length >= Byte.MAX_VALUE) {
+            throw new IllegalStateException("文件头前缀树过大");
+        }
+        NEXT = new short[exact.size() << 8];
+        NEXT_ANY = new short[exact.size()];
+        TERMINAL = new byte[exact.size()];
+        for (int node = 0; node < exact.size(); node++) {
+            int[] children = exact.get(node);
+            for (int b = 0; b < 256; b++) {
+                NEXT[node << 8 | b] = (short) children[b];
+            }
+            NEXT_ANY[node] = (short) (int) any.get(node);
+            TERMINAL[node] = (byte) (int) terminal.get(node);
+        }
+        HEADER_LENGTH = maxLength;
+    }
+
+    private FileTypeSniffer() {
+    }
+
+    /**
+     * 描述：识别文件类型
+     *
+     * @param header 文件开头的字节，不足 HEADER_LENGTH 时只匹配给出的部分
+     * @return 无法识别时返回 null
+     */
+    public static FileType sniff(byte[] header, int offset, int length) {
+        int end = offset + Math.min(length, HEADER_LENGTH);
+        int best = match(0, header, offset, end, 0);
+        return best == 0 ? null : TYPES[(best & 0xFF) - 1];
+    }
+
+    /**
+     * 返回子树中最长的命中，编码为 (深度 << 8) | (ordinal + 1)，没有命中为 0；
+     * 沿唯一分支循环前进，只在同时有精确分支和通配分支的节点上递归
+     */
+    private static int match(int node, byte[] header, int pos, int end, int depth) {
+        int best = 0;
+        while (true) {
+            int type = TERMINAL[node];
+            if (type != 0) {
+                best = depth << 8 | type;
+            }
+            if (pos == end) {
+                return best;
+            }
+            int exact = NEXT[node << 8 | (header[pos] & 0xFF)];
+            int any = NEXT_ANY[node];
+            if (exact != 0 && any != 0) {
+                best = Math.max(best, match(exact, header, pos + 1, end, depth + 1));
+                return Math.max(best, match(any, header, pos + 1, end, depth + 1));
+            }
+            node = exact != 0 ? exact : any;
+            if (node == 0) {
+                return best;
+            }
+            pos++;
+            depth++;
+        }
+    }
+
+    /**
+     * 把 FileType 中的模式解析为字节数组，ANY 表示任意字节
+     */
+    private static int[] parse(String signature) {
+        List<Integer> bytes = new ArrayList<>();
+        for (String token : signature.split(" ")) {
+            if (token.startsWith("'")) {
+                for (int i = 1; i < token.length() - 1; i++) {
+                    bytes.add((int) token.charAt(i));
+                }
+            } else if (token.startsWith("??")) {
+                int count = token.startsWith("??*") ? Integer.parseInt(token.substring(3)) : 1;
+                for (int i = 0; i < count; i++) {
+                    bytes.add(ANY);
+                }
+            } else {
+                bytes.add(Integer.parseInt(token, 16));
+            }
+        }
+        int[] pattern = new int[bytes.size()];
+        for (int i = 0; i < pattern.length; i++) {
+            pattern[i] = bytes.get(i);
+        }
+        return pattern;
+    }
+}
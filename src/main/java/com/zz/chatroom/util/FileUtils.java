@@ -1,7 +1,6 @@
 package com.zz.chatroom.util;
 
 
-import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
@@ -9,12 +8,11 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.text.DecimalFormat;
-import java.util.HashMap;
 
 /**
  * <p>
  *   描述: 有关文件信息和操作的工具类
- *        1. 通过文件头判断文件类型  
+ *        1. 通过文件头判断文件类型（FileTypeSniffer）
  *        2. 获取格式化的文件大小 
  *        3. 高效的将文件转换成字节数组  
  * </p>
@@ -24,20 +22,6 @@ import java.util.HashMap;
  */
 public class FileUtils {
 
-    private static final HashMap<String,String> fileTypes = new HashMap<String,String>(); 
-    static { // BOM（Byte Order Mark）文件头字节
-        fileTypes.put("494433", "mp3");
-        fileTypes.put("524946", "wav");
-        fileTypes.put("ffd8ff", "jpg");
-        fileTypes.put("FFD8FF", "jpg");
-        fileTypes.put("89504E", "png");
-        fileTypes.put("89504e", "png");
-        fileTypes.put("474946", "gif");
-        fileTypes.put("255044", "pdf");
-        fileTypes.put("504B03", "zip");
-        fileTypes.put("D0CF11", "doc");
-        fileTypes.put("4D5A90", "exe");
-    }
     private static final String B_UNIT = "B";
     private static final String KB_UNIT = "KB";
     private static final String MB_UNIT = "MB";
@@ -49,48 +33,33 @@ public class FileUtils {
     /**
      * <p>
      *    根据文件后缀来判断文件类型，往往是不靠谱的，因为要考虑到，可能人为的更改文件后缀，导致一些问题。
-     *    描述：通过含BOM（Byte Order Mark）的文件头的
-     *        前 3个字节判断文件类型 
+     *    描述：读取文件开头 FileTypeSniffer.HEADER_LENGTH 个字节，按文件头判断文件类型；
+     *        上传时应在数据流经时用 SniffingInputStream 识别，不必再读文件
      * </p>
      * @param filePath 文件路径
-     * @return
+     * @return 后缀，无法识别时返回 null
      */
     public static String getFileType(String filePath) {
-        return fileTypes.get(getFileHeader3(filePath));
+        byte[] header = new byte[FileTypeSniffer.HEADER_LENGTH];
+        int length = 0;
+        try (FileInputStream is = new FileInputStream(filePath)) {
+            int n;
+            while (length < header.length && (n = is.read(header, length, header.length - length)) > 0) {
+                length += n;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        FileType fileType = FileTypeSniffer.sniff(header, 0, length);
+        return fileType == null ? null : fileType.getExtension();
     }
 
     /**
      * <p>
-     *    描述：获取文件头前3个字节
+     *    描述：字节数组转为小写十六进制字符串
      * </p>
-     * @param filePath 文件路径
-     * @return
      */
-    private static String getFileHeader3(String filePath) {
-        
-      File file=new File(filePath);
-        if(!file.exists() || file.length()<4){
-            return "null";
-        }
-        FileInputStream is = null;
-        String value = null;
-        try {
-            is = new FileInputStream(file);
-            byte[] b = new byte[3];
-            is.read(b, 0, b.length);
-            value = bytesToHexString(b);
-        } catch (Exception e) {
-        } finally {
-            if(null != is) {
-                try {
-                    is.close();
-                } catch (IOException e) {}
-            }
-        }
-        return value;
-    }
-    
-    private static String bytesToHexString(byte[] src){
+    public static String bytesToHexString(byte[] src){
         StringBuilder stringBuilder = new StringBuilder();
         if (src == null || src.length <= 0) {
             return null;
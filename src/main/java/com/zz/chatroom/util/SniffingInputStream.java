@@ -0,0 +1,46 @@
+package com.zz.chatroom.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 描述: 读取时顺带留下开头 FileTypeSniffer.HEADER_LENGTH 个字节，读完后用 getFileType 识别类型，
+ *      上传的数据照常流向文件，不需要再打开文件读文件头。只记录经 read 读到的字节。
+ */
+public class SniffingInputStream extends FilterInputStream {
+
+    private final byte[] header = new byte[FileTypeSniffer.HEADER_LENGTH];
+    private int headerLength;
+
+    public SniffingInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0 && headerLength < header.length) {
+            header[headerLength++] = (byte) b;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0 && headerLength < header.length) {
+            int copy = Math.min(n, header.length - headerLength);
+            System.arraycopy(b, off, header, headerLength, copy);
+            headerLength += copy;
+        }
+        return n;
+    }
+
+    /**
+     * 描述：按已读到的文件头识别类型，无法识别时返回 null
+     */
+    public FileType getFileType() {
+        return FileTypeSniffer.sniff(header, 0, headerLength);
+    }
+}
@@ -1,17 +1,25 @@
 package com.zz.chatroom.web.controller;
 
+import java.io.IOException;
+
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
 
 import com.zz.chatroom.service.FileUploadService;
+import com.zz.chatroom.util.Constant;
 import com.zz.chatroom.util.ResponseJson;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.multipart.MultipartFile;
 /**
  * 文件上传
+ * 大文件分片上传：upload/init -> upload/part（可并发、可重传）-> upload/complete，断线后用 upload/status 查询已收到的分片续传；
+ * upload/init 带上文件的 sha256 且服务器上已有相同内容时直接返回下载地址，不需要再传分片；
+ * upload/part 的 uploadId、index 放在 URL 上，请求体为分片的原始字节（application/octet-stream）。
  */
 @Controller
 @RequestMapping("/chatroom")
@@ -26,4 +34,37 @@ public class FileUploadController {
             @RequestParam(value = "file", required = true) MultipartFile file, HttpServletRequest request) {
         return fileUploadService.upload(file, request);
     }
+
+    @RequestMapping(value = "/upload/init", method = RequestMethod.POST)
+    @ResponseBody
+    public ResponseJson initUpload(@RequestParam("fileName") String fileName,
+                                   @RequestParam("fileSize") long fileSize,
+                                   @RequestParam(value = "sha256", required = false) String sha256,
+                                   HttpSession session) {
+        return fileUploadService.initUpload(getUserId(session), fileName, fileSize, sha256);
+    }
+
+    @RequestMapping(value = "/upload/part", method = {RequestMethod.PUT, RequestMethod.POST})
+    @ResponseBody
+    public ResponseJson uploadPart(@RequestParam("uploadId") String uploadId, @RequestParam("index") int index,
+                                   HttpServletRequest request) throws IOException {
+        return fileUploadService.uploadPart(getUserId(request.getSession()), uploadId, index,
+                request.getInputStream(), request.getContentLengthLong());
+    }
+
+    @RequestMapping(value = "/upload/status", method = RequestMethod.GET)
+    @ResponseBody
+    public ResponseJson uploadStatus(@RequestParam("uploadId") String uploadId, HttpSession session) {
+        return fileUploadService.uploadStatus(getUserId(session), uploadId);
+    }
+
+    @RequestMapping(value = "/upload/complete", method = RequestMethod.POST)
+    @ResponseBody
+    public ResponseJson completeUpload(@RequestParam("uploadId") String uploadId, HttpSession session) {
+        return fileUploadService.completeUpload(getUserId(session), uploadId);
+    }
+
+    private static Integer getUserId(HttpSession session) {
+        return (Integer) session.getAttribute(Constant.USER_TOKEN);
+    }
 }
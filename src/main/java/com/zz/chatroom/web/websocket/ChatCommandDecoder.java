@@ -0,0 +1,134 @@
+package com.zz.chatroom.web.websocket;
+
+import com.alibaba.fastjson.JSON;
+import com.zz.chatroom.common.metrics.Meter;
+import com.zz.chatroom.common.metrics.MetricsRegistry;
+import com.zz.chatroom.util.ChatCommand;
+import com.zz.chatroom.util.ChatEventWriter;
+import com.zz.chatroom.util.ChatType;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.FastThreadLocal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.CharsetDecoder;
+import java.util.List;
+
+/**
+ * 描述: 聊天指令解码器
+ *      把 TextWebSocketFrame 的 ByteBuf 直接解析成 ChatCommand，交给后面的 WebSocketServerHandler，
+ *      不再先 text() 拷贝成 String、再解析成通用的 JSONObject。
+ *      JSON 格式错误、类型未知或缺少必填字段的消息在这里直接回复错误并丢弃，不进入业务线程。
+ *      其他类型的 WebSocketFrame（关闭、ping 等）原样传给下一个处理器。
+ *      解码成功的指令按 ChatType 计数，并记下解码完成的时间，供统计服务端投递延迟。
+ */
+@Component
+@Sharable
+public class ChatCommandDecoder extends MessageToMessageDecoder<TextWebSocketFrame> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChatCommandDecoder.class);
+
+    /**
+     * CharsetDecoder 非线程安全，每个 I/O 线程一个
+     */
+    private static final FastThreadLocal<CharsetDecoder> UTF8_DECODER = new FastThreadLocal<CharsetDecoder>() {
+        @Override
+        protected CharsetDecoder initialValue() {
+            return CharsetUtil.UTF_8.newDecoder();
+        }
+    };
+
+    /**
+     * 直接内存的 ByteBuf 没有底层数组，先拷到每个线程复用的数组里
+     */
+    private static final FastThreadLocal<byte[]> BYTES = new FastThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[1024];
+        }
+    };
+
+    /**
+     * 按 ChatType.ordinal() 取的入站计数
+     */
+    private Meter[] inboundMeters;
+    private Meter rejectedMeter;
+
+    @Autowired
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        ChatType[] types = ChatType.values();
+        inboundMeters = new Meter[types.length];
+        for (ChatType type : types) {
+            inboundMeters[type.ordinal()] = metricsRegistry.meter("chat_inbound", "收到的聊天指令数",
+                    MetricsRegistry.label("type", type));
+        }
+        rejectedMeter = metricsRegistry.meter("chat_inbound_rejected", "解析失败或校验不通过而丢弃的文本帧数");
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, TextWebSocketFrame frame, List<Object> out) throws Exception {
+        ByteBuf content = frame.content();
+        if (!content.isReadable()) {
+            sendError(ctx, "参数为空！");
+            return;
+        }
+        ChatCommand command;
+        try {
+            command = parse(content);
+        } catch (Exception e) {
+            LOGGER.info("JSON字符串转换出错：" + e.getMessage());
+            sendError(ctx, "JSON字符串转换出错！");
+            return;
+        }
+        if (command == null) {
+            sendError(ctx, "参数为空！");
+            return;
+        }
+        String error = command.validate();
+        if (error != null) {
+            sendError(ctx, error);
+            return;
+        }
+        command.markReceived();
+        inboundMeters[command.getType().ordinal()].mark();
+        out.add(command);
+    }
+
+    /**
+     * 描述：把 JSON 字节直接解析成 ChatCommand，不改变 content 的读写位置；其他节点转交来的群消息指令也走这里
+     *
+     * @return content 为 JSON null 时返回 null
+     */
+    public static ChatCommand parse(ByteBuf content) {
+        int length = content.readableBytes();
+        byte[] bytes;
+        int offset;
+        if (content.hasArray()) {
+            bytes = content.array();
+            offset = content.arrayOffset() + content.readerIndex();
+        } else {
+            bytes = BYTES.get();
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, bytes.length << 1)];
+                BYTES.set(bytes);
+            }
+            content.getBytes(content.readerIndex(), bytes, 0, length);
+            offset = 0;
+        }
+        CharsetDecoder decoder = UTF8_DECODER.get();
+        decoder.reset();
+        return JSON.parseObject(bytes, offset, length, decoder, ChatCommand.class);
+    }
+
+    private void sendError(ChannelHandlerContext ctx, String errorMsg) {
+        rejectedMeter.mark();
+        ctx.writeAndFlush(new TextWebSocketFrame(ChatEventWriter.writeError(ctx.alloc(), errorMsg)));
+    }
+}
@@ -0,0 +1,100 @@
+package com.zz.chatroom.web.websocket;
+
+import com.zz.chatroom.cluster.ClusterBus;
+import com.zz.chatroom.service.ChatService;
+import com.zz.chatroom.service.GroupInfoService;
+import com.zz.chatroom.service.UserCursorService;
+import com.zz.chatroom.util.Constant;
+import com.zz.chatroom.util.ChatCommand;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.text.MessageFormat;
+
+/**
+ * 描述: 把其他节点转发来的消息写给本节点上的连接
+ *      单聊写给接收方在本节点的所有设备，群聊向本节点上的在线群成员广播，都不再经过业务处理和持久化（由属主节点完成）；
+ *      发送者的连接在本节点时，群消息不发回给它，由本节点替发送者确认该序号；
+ *      本节点是属主的群消息、单聊指令与 WebSocket 入站指令一样按字节解析、校验，群消息的发送者须是群成员，
+ *      再交给 ChatService 在属主线程上处理。
+ */
+@Component
+public class ClusterDelivery implements ClusterBus.Listener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClusterDelivery.class);
+
+    @Autowired
+    private ClusterBus clusterBus;
+    @Autowired
+    private SessionRegistry sessionRegistry;
+    @Autowired
+    private GroupChannelManager groupChannelManager;
+    @Autowired
+    private ChatService chatService;
+    @Autowired
+    private GroupInfoService groupInfoService;
+    @Autowired
+    private UserCursorService userCursorService;
+
+    @PostConstruct
+    public void init() {
+        clusterBus.start(this);
+    }
+
+    @Override
+    public void onUserMessage(String userId, ByteBuf payload) {
+        for (Channel channel : sessionRegistry.getChannels(userId)) {
+            channel.writeAndFlush(new TextWebSocketFrame(payload.retainedDuplicate()));
+        }
+    }
+
+    @Override
+    public void onGroupMessage(Integer groupId, long seq, String excludeSession, ByteBuf payload) {
+        Channel sender = sessionRegistry.findSession(excludeSession);
+        if (sender != null) {
+            userCursorService.ack(Integer.valueOf(sender.attr(Constant.USER_ID_ATTR).get()), groupId, seq);
+        }
+        groupChannelManager.broadcast(groupId, payload.retainedDuplicate(), sender);
+    }
+
+    @Override
+    public void onCommand(String senderSession, ByteBuf command) {
+        ChatCommand chatCommand;
+        try {
+            chatCommand = ChatCommandDecoder.parse(command);
+        } catch (Exception e) {
+            LOGGER.info("其他节点转交的消息指令解析出错：" + e.getMessage());
+            return;
+        }
+        if (chatCommand == null || chatCommand.validate() != null) {
+            LOGGER.info("其他节点转交的消息指令不合法：" + senderSession);
+            return;
+        }
+        switch (chatCommand.getType()) {
+            case GROUP_SENDING:
+            case FILE_MSG_GROUP_SENDING:
+                Integer groupId = chatCommand.getToGroupId();
+                String fromUserId = chatCommand.getFromUserId().toString();
+                if (!groupInfoService.getMemberIds(groupId).contains(fromUserId)) {
+                    LOGGER.info(MessageFormat.format("userId为 {0} 的用户不是群 {1} 的成员，丢弃转交的群消息", fromUserId,
+                            groupId.toString()));
+                    return;
+                }
+                break;
+            case SINGLE_SENDING:
+            case FILE_MSG_SINGLE_SENDING:
+                break;
+            default:
+                LOGGER.info(MessageFormat.format("其他节点转交了不支持的指令类型 {0}", chatCommand.getType()));
+                return;
+        }
+        chatCommand.markReceived();
+        chatService.ownerSend(chatCommand, senderSession);
+    }
+}
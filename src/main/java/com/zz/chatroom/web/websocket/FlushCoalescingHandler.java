@@ -0,0 +1,118 @@
+package com.zz.chatroom.web.websocket;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 描述: 出站 flush 合并
+ *      业务层每条消息都是 writeAndFlush，突发时（离线消息回放、活跃群广播）每条消息一次系统调用。
+ *      这里把 flush 攒起来：
+ *      1. 读事件处理期间的 flush 推迟到 channelReadComplete 统一刷出；
+ *      2. 其余时候攒够 maxPendingFlushes 次立即刷出，否则最多延迟 maxDelayMicros 微秒由定时任务刷出；
+ *      3. 关闭、断开、异常、不可写时立即刷出已攒的数据。
+ *      所有方法都在 channel 的 EventLoop 上执行，不需要同步。每个连接一个，不能共享。
+ */
+public class FlushCoalescingHandler extends ChannelDuplexHandler {
+
+    private final int maxPendingFlushes;
+
+    private final long maxDelayMicros;
+
+    private final Runnable flushTask;
+
+    private ChannelHandlerContext ctx;
+
+    private int pendingFlushes;
+
+    private boolean readInProgress;
+
+    private ScheduledFuture<?> scheduledFlush;
+
+    public FlushCoalescingHandler(int maxPendingFlushes, long maxDelayMicros) {
+        this.maxPendingFlushes = maxPendingFlushes;
+        this.maxDelayMicros = maxDelayMicros;
+        this.flushTask = () -> {
+            scheduledFlush = null;
+            if (pendingFlushes > 0) {
+                flushNow();
+            }
+        };
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        if (++pendingFlushes >= maxPendingFlushes) {
+            flushNow();
+        } else if (!readInProgress && scheduledFlush == null) {
+            scheduledFlush = ctx.executor().schedule(flushTask, maxDelayMicros, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        readInProgress = true;
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        readInProgress = false;
+        flushIfPending();
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (!ctx.channel().isWritable()) {
+            flushIfPending();
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        flushIfPending();
+        ctx.fireExceptionCaught(cause);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushIfPending();
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushIfPending();
+        ctx.close(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        flushIfPending();
+    }
+
+    private void flushIfPending() {
+        if (pendingFlushes > 0) {
+            flushNow();
+        }
+    }
+
+    private void flushNow() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        pendingFlushes = 0;
+        ctx.flush();
+    }
+}
@@ -0,0 +1,116 @@
+package com.zz.chatroom.web.websocket;
+
+import com.zz.chatroom.common.metrics.Histogram;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 描述: 群广播引擎
+ *      每个聊天群对应一个 DefaultChannelGroup，只包含该群在线成员的连接，REGISTER 时加入，remove 时移出，
+ *      连接关闭时 DefaultChannelGroup 也会自动移除。
+ *      广播时消息只编码一次成 ByteBuf，每个成员写入一个 retainedDuplicate，
+ *      按 EventLoop 分批，每个 EventLoop 只提交一次任务，批量 write 后再统一 flush。
+ */
+@Component
+public class GroupChannelManager {
+
+    private final Map<Integer, ChannelGroup> groupChannelMap = new ConcurrentHashMap<>();
+
+    /**
+     * 连接加入其所属的群
+     */
+    public void join(Channel channel, Collection<Integer> groupIds) {
+        for (Integer groupId : groupIds) {
+            channelGroup(groupId).add(channel);
+        }
+    }
+
+    /**
+     * 连接退出其所属的群
+     */
+    public void leave(Channel channel, Collection<Integer> groupIds) {
+        for (Integer groupId : groupIds) {
+            ChannelGroup group = groupChannelMap.get(groupId);
+            if (group != null) {
+                group.remove(channel);
+            }
+        }
+    }
+
+    /**
+     * 描述：向群内除 exclude 以外的所有在线连接广播，payload 的引用计数由本方法负责释放
+     *
+     * @param groupId 群id
+     * @param payload 已编码好的 UTF-8 文本
+     * @param exclude 发送者自己的连接，可为 null
+     * @return 写出的连接数
+     */
+    public int broadcast(Integer groupId, ByteBuf payload, Channel exclude) {
+        return broadcast(groupId, payload, exclude, null, 0L);
+    }
+
+    /**
+     * 描述：同上，每个 EventLoop 的一批连接 flush 后，把距 receivedNanos 的微秒数记入 deliveryLatency
+     *
+     * @param deliveryLatency 投递延迟直方图，为 null 时不统计
+     * @param receivedNanos   指令解码完成时的 System.nanoTime()
+     */
+    public int broadcast(Integer groupId, ByteBuf payload, Channel exclude,
+                         Histogram deliveryLatency, long receivedNanos) {
+        ChannelGroup group = groupChannelMap.get(groupId);
+        if (group == null || group.isEmpty()) {
+            payload.release();
+            return 0;
+        }
+        Map<EventLoop, List<Channel>> batches = new IdentityHashMap<>();
+        for (Channel channel : group) {
+            if (channel == exclude || !channel.isActive()) {
+                continue;
+            }
+            batches.computeIfAbsent(channel.eventLoop(), key -> new ArrayList<>()).add(channel);
+        }
+        int recipients = 0;
+        try {
+            for (Map.Entry<EventLoop, List<Channel>> batch : batches.entrySet()) {
+                List<Channel> channels = batch.getValue();
+                recipients += channels.size();
+                List<TextWebSocketFrame> frames = new ArrayList<>(channels.size());
+                for (int i = 0; i < channels.size(); i++) {
+                    frames.add(new TextWebSocketFrame(payload.retainedDuplicate()));
+                }
+                batch.getKey().execute(() -> {
+                    for (int i = 0; i < channels.size(); i++) {
+                        channels.get(i).write(frames.get(i), channels.get(i).voidPromise());
+                    }
+                    for (Channel channel : channels) {
+                        channel.flush();
+                    }
+                    if (deliveryLatency != null) {
+                        deliveryLatency.record((System.nanoTime() - receivedNanos) / 1000L);
+                    }
+                });
+            }
+        } finally {
+            payload.release();
+        }
+        return recipients;
+    }
+
+    private ChannelGroup channelGroup(Integer groupId) {
+        return groupChannelMap.computeIfAbsent(groupId,
+                key -> new DefaultChannelGroup("group-" + key, GlobalEventExecutor.INSTANCE));
+    }
+}
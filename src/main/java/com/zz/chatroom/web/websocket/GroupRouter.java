@@ -0,0 +1,152 @@
+package com.zz.chatroom.web.websocket;
+
+import com.zz.chatroom.cluster.ClusterBus;
+import com.zz.chatroom.cluster.ConsistentHashRing;
+import com.zz.chatroom.common.metrics.MetricsRegistry;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 描述: 群消息属主路由
+ *      1. 每个群id 按一致性哈希分配给一个属主线程，同一个群的消息都在属主线程上依次分配序号、持久化、扇出，
+ *         群内消息全序且不需要加锁，热门群的扇出也不再分散到各个业务线程上互相争用；
+ *      2. 集群时先按同样的方式把群id 分配给属主节点，各节点的哈希环由相同的节点id 算出，不需要协商；
+ *      3. 属主线程数或节点数变化时，只有约 1/N 的群换属主；
+ *      4. 单聊的收件箱按接收方 userId 以同样的方式分配属主节点与属主线程，收件箱序号只由属主分配，
+ *         在环上与群id 分开取键，同一个数值的群id 与 userId 互不影响。
+ */
+@Component
+public class GroupRouter {
+
+    @Autowired
+    private ClusterBus clusterBus;
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    /**
+     * 属主线程数，0 表示群消息直接在收到它的业务线程上处理（不保证群内全序）
+     */
+    @Value("${group.owner.threads}")
+    private int ownerThreads;
+
+    /**
+     * 每个属主线程、每个节点在哈希环上的虚拟节点数
+     */
+    @Value("${group.owner.virtualNodes}")
+    private int virtualNodes;
+
+    /**
+     * 收件箱在哈希环上的键：高 32 位为 1，与群id 区分
+     */
+    private static final long INBOX_KEY = 1L << 32;
+
+    private EventExecutorGroup ownerGroup;
+    private ConsistentHashRing<EventExecutor> executorRing;
+    private volatile NodeRing nodeRing;
+
+    @PostConstruct
+    public void init() {
+        if (ownerThreads <= 0) {
+            return;
+        }
+        ownerGroup = new DefaultEventExecutorGroup(ownerThreads, new DefaultThreadFactory("group-owner"));
+        Map<String, EventExecutor> executors = new LinkedHashMap<>();
+        int index = 0;
+        for (EventExecutor executor : ownerGroup) {
+            String name = "group-owner-" + index++;
+            executors.put(name, executor);
+            if (executor instanceof SingleThreadEventExecutor) {
+                metricsRegistry.gauge("group_owner_pending_tasks", "群消息属主线程排队的任务数",
+                        MetricsRegistry.label("executor", name),
+                        ((SingleThreadEventExecutor) executor)::pendingTasks);
+            }
+        }
+        executorRing = new ConsistentHashRing<>(executors, virtualNodes);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (ownerGroup != null) {
+            ownerGroup.shutdownGracefully();
+        }
+    }
+
+    /**
+     * 描述：群的属主节点id，单节点时总是本节点
+     */
+    public String ownerNode(Integer groupId) {
+        return ownerNode((long) groupId);
+    }
+
+    /**
+     * 描述：用户收件箱的属主节点id，单节点时总是本节点
+     */
+    public String inboxOwnerNode(Integer userId) {
+        return ownerNode(inboxKey(userId));
+    }
+
+    private String ownerNode(long key) {
+        List<String> nodeIds = clusterBus.getNodeIds();
+        if (nodeIds.size() == 1) {
+            return nodeIds.get(0);
+        }
+        NodeRing ring = nodeRing;
+        if (ring == null || ring.nodeIds != nodeIds) {
+            Map<String, String> members = new LinkedHashMap<>();
+            for (String nodeId : nodeIds) {
+                members.put(nodeId, nodeId);
+            }
+            ring = new NodeRing(nodeIds, new ConsistentHashRing<>(members, virtualNodes));
+            nodeRing = ring;
+        }
+        return ring.ring.get(key);
+    }
+
+    /**
+     * 描述：在群的属主线程上执行 task
+     */
+    public void execute(Integer groupId, Runnable task) {
+        execute((long) groupId, task);
+    }
+
+    /**
+     * 描述：在用户收件箱的属主线程上执行 task
+     */
+    public void executeInbox(Integer userId, Runnable task) {
+        execute(inboxKey(userId), task);
+    }
+
+    private void execute(long key, Runnable task) {
+        if (executorRing == null) {
+            task.run();
+        } else {
+            executorRing.get(key).execute(task);
+        }
+    }
+
+    private static long inboxKey(Integer userId) {
+        return INBOX_KEY | (userId & 0xffffffffL);
+    }
+
+    private static final class NodeRing {
+        private final List<String> nodeIds;
+        private final ConsistentHashRing<String> ring;
+
+        private NodeRing(List<String> nodeIds, ConsistentHashRing<String> ring) {
+            this.nodeIds = nodeIds;
+            this.ring = ring;
+        }
+    }
+}
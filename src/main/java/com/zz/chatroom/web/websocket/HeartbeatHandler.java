@@ -0,0 +1,104 @@
+package com.zz.chatroom.web.websocket;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameEncoder;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 描述: 单个连接的心跳检测，放在 pipeline 最前面
+ *      收到任何字节（包括 pong）只记录时间，不重新调度定时任务；
+ *      由 HeartbeatManager 的时间轮定期检查：超时关闭连接，空闲则发送 ping，握手完成之前不发 ping；
+ *      文件下载期间客户端不再发数据，响应写完之前不做超时检查，写完后重新计时。
+ */
+public class HeartbeatHandler extends ChannelInboundHandlerAdapter implements TimerTask {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HeartbeatHandler.class);
+
+    private final HeartbeatManager manager;
+
+    private volatile Channel channel;
+
+    private volatile long lastReadNanos;
+
+    private volatile Timeout timeout;
+
+    /**
+     * 正在写出的 HTTP 响应，写完之前不算空闲
+     */
+    private volatile ChannelFuture pendingResponse;
+
+    HeartbeatHandler(HeartbeatManager manager) {
+        this.manager = manager;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        channel = ctx.channel();
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        lastReadNanos = System.nanoTime();
+        timeout = manager.scheduleFirst(this);
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        lastReadNanos = System.nanoTime();
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        Timeout current = timeout;
+        if (current != null) {
+            current.cancel();
+        }
+        ctx.fireChannelInactive();
+    }
+
+    /**
+     * 描述：HTTP 响应（文件下载）写完之前暂停超时检查，写完后从那时开始计算空闲时间
+     */
+    public static void suspendUntil(Channel channel, ChannelFuture responseFuture) {
+        HeartbeatHandler handler = channel.pipeline().get(HeartbeatHandler.class);
+        if (handler == null) {
+            return;
+        }
+        handler.pendingResponse = responseFuture;
+        responseFuture.addListener(future -> handler.lastReadNanos = System.nanoTime());
+    }
+
+    @Override
+    public void run(Timeout current) throws Exception {
+        // 连接关闭后 cancel 与本次执行可能交错，以连接状态为准，不再调度
+        if (!channel.isActive()) {
+            return;
+        }
+        ChannelFuture response = pendingResponse;
+        if (response != null && !response.isDone()) {
+            timeout = manager.scheduleNext(this);
+            return;
+        }
+        long idleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastReadNanos);
+        if (idleMillis >= manager.getTimeoutMillis()) {
+            LOGGER.info("已经" + idleMillis / 1000 + "秒没有收到客户端的数据，断开连接");
+            channel.close();
+            return;
+        }
+        if (idleMillis >= manager.getIntervalMillis() && channel.pipeline().get(WebSocketFrameEncoder.class) != null) {
+            channel.writeAndFlush(new PingWebSocketFrame());
+        }
+        timeout = manager.scheduleNext(this);
+    }
+}
@@ -0,0 +1,71 @@
+package com.zz.chatroom.web.websocket;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 描述: WebSocket 心跳
+ *      所有连接共用一个 HashedWheelTimer，取代每个连接一个 IdleStateHandler 与 Quartz 定时群发 JSON 心跳：
+ *      1. 连接空闲超过 intervalMillis 时发送 WebSocket ping 控制帧，浏览器会自动回复 pong，不经过业务层；
+ *      2. 超过 timeoutMillis 没有收到任何数据就关闭连接；
+ *      3. 第一次检查在 [0, intervalMillis) 内随机，之后每次再加 ±jitterPercent% 的抖动，
+ *         大量连接的心跳分散在整个周期内，不会集中在同一时刻刷出。
+ */
+@Component
+public class HeartbeatManager {
+
+    @Value("${websocket.heartbeat.intervalMillis}")
+    private long intervalMillis;
+    @Value("${websocket.heartbeat.timeoutMillis}")
+    private long timeoutMillis;
+    @Value("${websocket.heartbeat.jitterPercent}")
+    private int jitterPercent;
+
+    private HashedWheelTimer timer;
+
+    @PostConstruct
+    public void init() {
+        timer = new HashedWheelTimer(new DefaultThreadFactory("websocket-heartbeat", true),
+                100, TimeUnit.MILLISECONDS, 512);
+        timer.start();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        timer.stop();
+    }
+
+    /**
+     * 每个连接一个，不能共享
+     */
+    public HeartbeatHandler newHandler() {
+        return new HeartbeatHandler(this);
+    }
+
+    long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    Timeout scheduleFirst(TimerTask task) {
+        return timer.newTimeout(task, ThreadLocalRandom.current().nextLong(intervalMillis), TimeUnit.MILLISECONDS);
+    }
+
+    Timeout scheduleNext(TimerTask task) {
+        long jitter = intervalMillis * jitterPercent / 100;
+        long delay = intervalMillis - jitter + ThreadLocalRandom.current().nextLong(2 * jitter + 1);
+        return timer.newTimeout(task, delay, TimeUnit.MILLISECONDS);
+    }
+}
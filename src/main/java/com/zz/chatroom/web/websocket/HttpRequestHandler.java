@@ -1,9 +1,12 @@
 package com.zz.chatroom.web.websocket;
 
+import com.zz.chatroom.common.metrics.MetricsRegistry;
 import com.zz.chatroom.util.Constant;
 import io.netty.channel.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import io.netty.buffer.ByteBuf;
@@ -11,6 +14,8 @@ import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.HttpVersion;
@@ -26,6 +31,17 @@ import io.netty.util.CharsetUtil;
 public class HttpRequestHandler extends SimpleChannelInboundHandler<Object> {
     private static final Logger LOGGER = LoggerFactory.getLogger(HttpRequestHandler.class);
 
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+    @Autowired
+    private StaticFileServer staticFileServer;
+
+    /**
+     * 监控指标的 HTTP 路径，为空时不提供
+     */
+    @Value("${websocket.metrics.path}")
+    private String metricsPath;
+
     /**
      * 描述：读取完连接的消息后，对消息进行处理。
      * 这里仅处理HTTP请求，WebSocket请求交给下一个处理器。
@@ -45,18 +61,27 @@ public class HttpRequestHandler extends SimpleChannelInboundHandler<Object> {
     }
 
     /**
-     * 描述：处理Http请求，主要是完成HTTP协议到Websocket协议的升级
+     * 描述：处理Http请求，主要是完成HTTP协议到Websocket协议的升级，
+     * GET 监控指标路径时直接返回 Prometheus 文本格式的指标，上传文件路径交给 StaticFileServer 返回文件
      *
      * @param ctx
      * @param req
      */
-    private void handleHttpRequest(ChannelHandlerContext ctx, FullHttpRequest req) {
+    private void handleHttpRequest(ChannelHandlerContext ctx, FullHttpRequest req) throws Exception {
         //解码失败 返回
         if (!req.decoderResult().isSuccess()) {
             sendHttpResponse(ctx, req,
                     new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST));
             return;
         }
+        if (isMetricsRequest(req)) {
+            sendMetrics(ctx, req);
+            return;
+        }
+        if (staticFileServer.accepts(req)) {
+            staticFileServer.serve(ctx, req);
+            return;
+        }
 
         WebSocketServerHandshakerFactory wsFactory = new WebSocketServerHandshakerFactory(
                 "ws:/" + ctx.channel() + "/websocket", null, false);
@@ -73,6 +98,23 @@ public class HttpRequestHandler extends SimpleChannelInboundHandler<Object> {
     }
 
 
+    private boolean isMetricsRequest(FullHttpRequest req) {
+        if (metricsPath == null || metricsPath.isEmpty() || !HttpMethod.GET.equals(req.method())) {
+            return false;
+        }
+        String uri = req.uri();
+        int query = uri.indexOf('?');
+        return metricsPath.equals(query < 0 ? uri : uri.substring(0, query));
+    }
+
+    private void sendMetrics(ChannelHandlerContext ctx, FullHttpRequest req) {
+        DefaultFullHttpResponse res = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                Unpooled.copiedBuffer(metricsRegistry.render(), CharsetUtil.UTF_8));
+        res.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; version=0.0.4; charset=utf-8");
+        HttpUtil.setContentLength(res, res.content().readableBytes());
+        sendHttpResponse(ctx, req, res);
+    }
+
     private void sendHttpResponse(ChannelHandlerContext ctx, FullHttpRequest req, DefaultFullHttpResponse res) {
         // 返回应答给客户端
         if (res.status().code() != 200) {
@@ -0,0 +1,164 @@
+package com.zz.chatroom.web.websocket;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.AdaptiveRecvByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.RecvByteBufAllocator;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 描述: Netty 传输层配置，参数都来自 system.properties
+ *      1. transport=auto 时 Linux 上可用 native epoll 就用 epoll，否则退回 NIO；也可以指定 epoll / nio；
+ *      2. epoll 下开启 SO_REUSEPORT，WebSocketServer 按 boss 线程数多次绑定同一端口，由内核分摊 accept；
+ *      3. 接收缓冲区默认按实际读到的大小自适应，不再给每个连接每次读预留几百 KB；
+ *      4. ByteBuf 分配器、写缓冲高低水位可配置，写缓冲超过高水位时 channel 变为不可写，离线回放等据此背压。
+ */
+public class NettyTransport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NettyTransport.class);
+
+    private String transport = "auto";
+    private int soBacklog = 1024;
+    private boolean reusePort = true;
+    private String recvAllocator = "adaptive";
+    private int recvBufMin = 64;
+    private int recvBufInitial = 1024;
+    private int recvBufMax = 65536;
+    private String bufAllocator = "pooled";
+    private boolean preferDirect = true;
+    private int writeBufferLowWaterMark = 32 * 1024;
+    private int writeBufferHighWaterMark = 64 * 1024;
+
+    private Boolean epoll;
+
+    /**
+     * 是否使用 native epoll，首次调用时确定
+     */
+    public boolean isEpoll() {
+        if (epoll == null) {
+            if ("nio".equalsIgnoreCase(transport)) {
+                epoll = false;
+            } else if (Epoll.isAvailable()) {
+                epoll = true;
+            } else {
+                if ("epoll".equalsIgnoreCase(transport)) {
+                    LOGGER.warn("native epoll 不可用，退回 NIO：" + Epoll.unavailabilityCause());
+                }
+                epoll = false;
+            }
+            LOGGER.info("Netty 传输层：" + (epoll ? "epoll" : "nio"));
+        }
+        return epoll;
+    }
+
+    /**
+     * 描述：创建线程组，供 Spring 以 factory-method 方式定义 bossGroup、workerGroup
+     *
+     * @param threads 线程数，0 表示 Netty 默认（CPU 核数 * 2）
+     */
+    public EventLoopGroup newEventLoopGroup(int threads, String name) {
+        DefaultThreadFactory threadFactory = new DefaultThreadFactory(name);
+        if (isEpoll()) {
+            return new EpollEventLoopGroup(threads, threadFactory);
+        }
+        return new NioEventLoopGroup(threads, threadFactory);
+    }
+
+    public Class<? extends ServerChannel> serverChannelClass() {
+        return isEpoll() ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    /**
+     * epoll 且开启 SO_REUSEPORT 时，可以多次绑定同一端口
+     */
+    public boolean isReusePort() {
+        return isEpoll() && reusePort;
+    }
+
+    /**
+     * 描述：配置 ServerBootstrap 的 channel 类型与 TCP、缓冲区参数
+     */
+    public ServerBootstrap configure(ServerBootstrap bootstrap) {
+        ByteBufAllocator allocator = "unpooled".equalsIgnoreCase(bufAllocator)
+                ? new UnpooledByteBufAllocator(preferDirect)
+                : new PooledByteBufAllocator(preferDirect);
+        RecvByteBufAllocator recvByteBufAllocator = "fixed".equalsIgnoreCase(recvAllocator)
+                ? new FixedRecvByteBufAllocator(recvBufInitial)
+                : new AdaptiveRecvByteBufAllocator(recvBufMin, recvBufInitial, recvBufMax);
+        bootstrap.channel(serverChannelClass())
+                //配置TCP参数，握手字符串长度设置
+                .option(ChannelOption.SO_BACKLOG, soBacklog)
+                .option(ChannelOption.ALLOCATOR, allocator)
+                //关闭 Nagle 算法，聊天消息小而频繁，合并写由 FlushCoalescingHandler 负责
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                //开启心跳包活机制，就是客户端、服务端建立连接处于ESTABLISHED状态，超过2小时没有交流，机制会被启动
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childOption(ChannelOption.ALLOCATOR, allocator)
+                .childOption(ChannelOption.RCVBUF_ALLOCATOR, recvByteBufAllocator)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                        new WriteBufferWaterMark(writeBufferLowWaterMark, writeBufferHighWaterMark));
+        if (isReusePort()) {
+            bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+        return bootstrap;
+    }
+
+    public void setTransport(String transport) {
+        this.transport = transport;
+    }
+
+    public void setSoBacklog(int soBacklog) {
+        this.soBacklog = soBacklog;
+    }
+
+    public void setReusePort(boolean reusePort) {
+        this.reusePort = reusePort;
+    }
+
+    public void setRecvAllocator(String recvAllocator) {
+        this.recvAllocator = recvAllocator;
+    }
+
+    public void setRecvBufMin(int recvBufMin) {
+        this.recvBufMin = recvBufMin;
+    }
+
+    public void setRecvBufInitial(int recvBufInitial) {
+        this.recvBufInitial = recvBufInitial;
+    }
+
+    public void setRecvBufMax(int recvBufMax) {
+        this.recvBufMax = recvBufMax;
+    }
+
+    public void setBufAllocator(String bufAllocator) {
+        this.bufAllocator = bufAllocator;
+    }
+
+    public void setPreferDirect(boolean preferDirect) {
+        this.preferDirect = preferDirect;
+    }
+
+    public void setWriteBufferLowWaterMark(int writeBufferLowWaterMark) {
+        this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+    }
+
+    public void setWriteBufferHighWaterMark(int writeBufferHighWaterMark) {
+        this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+    }
+}
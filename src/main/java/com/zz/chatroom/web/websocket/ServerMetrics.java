@@ -0,0 +1,86 @@
+package com.zz.chatroom.web.websocket;
+
+import com.zz.chatroom.common.metrics.MetricsRegistry;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * 描述: 服务端运行状态的仪表值，都在读取指标时现算，平时没有任何开销
+ *      1. 在线用户数、在线会话数；
+ *      2. 所有已登记连接出站缓冲中待写的字节数、当前不可写的连接数（遍历一次在线连接）；
+ *      3. worker 线程组、业务线程组中每个线程排队的任务数。
+ */
+@Component
+public class ServerMetrics {
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+    @Autowired
+    private SessionRegistry sessionRegistry;
+    @Autowired
+    @Qualifier("workerGroup")
+    private EventLoopGroup workerGroup;
+    @Autowired
+    private WebSocketChildChannelHandler childChannelHandler;
+
+    @PostConstruct
+    public void init() {
+        metricsRegistry.gauge("chat_online_users", "在线用户数", sessionRegistry::getOnlineUserCount);
+        metricsRegistry.gauge("chat_online_sessions", "已登记的连接数，一个用户可以有多个", sessionRegistry::getSessionCount);
+        metricsRegistry.gauge("websocket_outbound_pending_bytes", "已登记连接出站缓冲中待写出的字节数合计",
+                this::outboundPendingBytes);
+        metricsRegistry.gauge("websocket_unwritable_channels", "当前不可写（写缓冲超过高水位）的已登记连接数",
+                this::unwritableChannels);
+        registerPendingTasks("worker", workerGroup);
+        if (childChannelHandler.getBusinessGroup() != null) {
+            registerPendingTasks("business", childChannelHandler.getBusinessGroup());
+        }
+    }
+
+    private void registerPendingTasks(String groupName, EventExecutorGroup group) {
+        int index = 0;
+        for (EventExecutor executor : group) {
+            if (executor instanceof SingleThreadEventExecutor) {
+                SingleThreadEventExecutor singleThreadExecutor = (SingleThreadEventExecutor) executor;
+                metricsRegistry.gauge("eventloop_pending_tasks", "线程任务队列中排队的任务数",
+                        MetricsRegistry.label("group", groupName) + "," + MetricsRegistry.label("index", index),
+                        singleThreadExecutor::pendingTasks);
+            }
+            index++;
+        }
+    }
+
+    private long outboundPendingBytes() {
+        long total = 0;
+        for (Channel[] channels : sessionRegistry.allChannels()) {
+            for (Channel channel : channels) {
+                ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+                if (buffer != null) {
+                    total += buffer.totalPendingWriteBytes();
+                }
+            }
+        }
+        return total;
+    }
+
+    private long unwritableChannels() {
+        long count = 0;
+        for (Channel[] channels : sessionRegistry.allChannels()) {
+            for (Channel channel : channels) {
+                if (!channel.isWritable()) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,144 @@
+package com.zz.chatroom.web.websocket;
+
+import com.zz.chatroom.util.Constant;
+import io.netty.channel.Channel;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 描述: 在线会话注册表，取代 Constant.onlineUserMap
+ *      1. 一个用户可以同时有多个设备（连接）在线，每个用户对应一个紧凑的 Channel 数组；
+ *      2. 数组采用写时复制，注册/下线时整体替换，查找与遍历完全无锁；
+ *      3. userId 记在 channel 的 USER_ID_ATTR 属性上，下线时 O(1) 定位；
+ *      4. 在线用户数、在线会话数可以随时廉价读取。
+ */
+@Component
+public class SessionRegistry {
+
+    private static final Channel[] EMPTY = new Channel[0];
+
+    private final Map<String, Channel[]> userChannelMap = new ConcurrentHashMap<>();
+
+    private final AtomicInteger sessionCount = new AtomicInteger();
+
+    /**
+     * 描述：登记连接，连接已登记过（同一用户或其他用户）时不做处理；
+     *      换用户必须先走完整的下线流程（群、集群在线目录），这里不做部分的迁移
+     *
+     * @return 是否为新登记的连接
+     */
+    public boolean register(String userId, Channel channel) {
+        if (!channel.attr(Constant.USER_ID_ATTR).compareAndSet(null, userId)) {
+            return false;
+        }
+        userChannelMap.compute(userId, (key, channels) -> {
+            if (channels == null) {
+                return new Channel[]{channel};
+            }
+            Channel[] newChannels = Arrays.copyOf(channels, channels.length + 1);
+            newChannels[channels.length] = channel;
+            return newChannels;
+        });
+        sessionCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 描述：注销连接
+     *
+     * @return 该连接登记的 userId，未登记过返回 null
+     */
+    public String unregister(Channel channel) {
+        String userId = channel.attr(Constant.USER_ID_ATTR).getAndSet(null);
+        if (userId != null) {
+            detach(userId, channel);
+        }
+        return userId;
+    }
+
+    /**
+     * 用户当前所有在线连接，不在线时返回空数组，调用方不得修改返回的数组
+     */
+    public Channel[] getChannels(String userId) {
+        Channel[] channels = userChannelMap.get(userId);
+        return channels == null ? EMPTY : channels;
+    }
+
+    /**
+     * 描述：连接的会话标识 userId/channelId，跨节点传递发送者连接时使用
+     */
+    public static String sessionKey(Channel channel) {
+        String userId = channel.attr(Constant.USER_ID_ATTR).get();
+        return (userId == null ? "" : userId) + "/" + channel.id().asLongText();
+    }
+
+    /**
+     * 描述：按会话标识查找本节点上的连接
+     *
+     * @return 连接不在本节点或已下线时返回 null
+     */
+    public Channel findSession(String sessionKey) {
+        if (sessionKey == null) {
+            return null;
+        }
+        int slash = sessionKey.indexOf('/');
+        String channelId = sessionKey.substring(slash + 1);
+        for (Channel channel : getChannels(sessionKey.substring(0, slash))) {
+            if (channel.id().asLongText().equals(channelId)) {
+                return channel;
+            }
+        }
+        return null;
+    }
+
+    public boolean isOnline(String userId) {
+        return userChannelMap.containsKey(userId);
+    }
+
+    /**
+     * 所有用户的在线连接，供心跳等全量推送使用
+     */
+    public Collection<Channel[]> allChannels() {
+        return userChannelMap.values();
+    }
+
+    public int getOnlineUserCount() {
+        return userChannelMap.size();
+    }
+
+    public int getSessionCount() {
+        return sessionCount.get();
+    }
+
+    private void detach(String userId, Channel channel) {
+        boolean[] removed = new boolean[1];
+        userChannelMap.computeIfPresent(userId, (key, channels) -> {
+            int index = -1;
+            for (int i = 0; i < channels.length; i++) {
+                if (channels[i] == channel) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return channels;
+            }
+            removed[0] = true;
+            if (channels.length == 1) {
+                return null;
+            }
+            Channel[] newChannels = new Channel[channels.length - 1];
+            System.arraycopy(channels, 0, newChannels, 0, index);
+            System.arraycopy(channels, index + 1, newChannels, index, channels.length - index - 1);
+            return newChannels;
+        });
+        if (removed[0]) {
+            sessionCount.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.zz.chatroom.web.websocket;
+
+import com.zz.chatroom.common.metrics.Meter;
+import com.zz.chatroom.common.metrics.MetricsRegistry;
+import com.zz.chatroom.service.FileStoreService;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpChunkedInput;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.stream.ChunkedNioFile;
+import io.netty.util.CharsetUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * 描述: 在 Netty 端口上提供上传文件的下载，大附件不再占用 Tomcat 线程
+ *      1. 明文连接用 DefaultFileRegion（sendfile），文件内容不经过用户态；TLS 连接用 ChunkedNioFile 分块读出再加密；
+ *      2. 响应带 ETag（"长度-修改时间"）与 Last-Modified，If-None-Match / If-Modified-Since 命中时返回 304；
+ *      3. 支持单段 Range（bytes=a-b、bytes=a-、bytes=-n）与 If-Range，越界返回 416，多段 Range 按整个文件返回；
+ *      4. 只接受 GET / HEAD，文件名只能是存放目录下的单层名称。
+ */
+@Component
+public class StaticFileServer {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    @Autowired
+    private FileStoreService fileStoreService;
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    /**
+     * 下载路径前缀，例如 /UploadFile/，为空时不提供
+     */
+    @Value("${websocket.file.path}")
+    private String filePath;
+
+    /**
+     * 浏览器缓存时间(秒)
+     */
+    @Value("${websocket.file.maxAgeSeconds}")
+    private long maxAgeSeconds;
+
+    private Meter sentBytes;
+
+    @PostConstruct
+    public void init() {
+        sentBytes = metricsRegistry.meter("file_download_bytes", "Netty 端口上下载文件发送的字节数");
+    }
+
+    /**
+     * 是否为下载请求
+     */
+    public boolean accepts(FullHttpRequest req) {
+        return filePath != null && !filePath.isEmpty() && req.uri().startsWith(filePath);
+    }
+
+    public void serve(ChannelHandlerContext ctx, FullHttpRequest req) throws IOException {
+        HttpMethod method = req.method();
+        if (!HttpMethod.GET.equals(method) && !HttpMethod.HEAD.equals(method)) {
+            sendStatus(ctx, req, HttpResponseStatus.METHOD_NOT_ALLOWED, null);
+            return;
+        }
+        String path = new QueryStringDecoder(req.uri()).path();
+        String fileName = path.substring(Math.min(filePath.length(), path.length()));
+        // 上传中的临时文件不提供下载
+        Path file = fileStoreService.isPartFile(fileName) ? null : fileStoreService.resolve(fileName);
+        if (file == null || !Files.isRegularFile(file)) {
+            sendStatus(ctx, req, HttpResponseStatus.NOT_FOUND, null);
+            return;
+        }
+        RandomAccessFile raf;
+        try {
+            raf = new RandomAccessFile(file.toFile(), "r");
+        } catch (IOException e) {
+            sendStatus(ctx, req, HttpResponseStatus.NOT_FOUND, null);
+            return;
+        }
+        long fileLength = raf.length();
+        long lastModified = Files.getLastModifiedTime(file).toMillis() / 1000 * 1000;
+        String etag = "\"" + Long.toHexString(fileLength) + "-" + Long.toHexString(lastModified) + "\"";
+
+        HttpHeaders headers = req.headers();
+        if (notModified(headers, etag, lastModified)) {
+            raf.close();
+            HttpResponse res = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_MODIFIED);
+            setValidators(res, etag, lastModified);
+            send(ctx, req, res);
+            return;
+        }
+
+        long start = 0;
+        long length = fileLength;
+        HttpResponseStatus status = HttpResponseStatus.OK;
+        String range = headers.get(HttpHeaderNames.RANGE);
+        if (range != null && ifRangeMatches(headers.get(HttpHeaderNames.IF_RANGE), etag, lastModified)) {
+            long[] bounds = parseRange(range, fileLength);
+            if (bounds == null) {
+                raf.close();
+                sendStatus(ctx, req, HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE, "bytes */" + fileLength);
+                return;
+            }
+            if (bounds.length == 2) {
+                start = bounds[0];
+                length = bounds[1] - bounds[0] + 1;
+                status = HttpResponseStatus.PARTIAL_CONTENT;
+            }
+        }
+
+        HttpResponse res = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
+        HttpUtil.setContentLength(res, length);
+        res.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType(fileName));
+        res.headers().set(HttpHeaderNames.ACCEPT_RANGES, HttpHeaderValues.BYTES);
+        setValidators(res, etag, lastModified);
+        if (status == HttpResponseStatus.PARTIAL_CONTENT) {
+            res.headers().set(HttpHeaderNames.CONTENT_RANGE,
+                    "bytes " + start + "-" + (start + length - 1) + "/" + fileLength);
+        }
+        boolean keepAlive = HttpUtil.isKeepAlive(req);
+        if (keepAlive) {
+            res.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+        }
+        ctx.write(res);
+
+        ChannelFuture lastFuture;
+        if (HttpMethod.HEAD.equals(method)) {
+            raf.close();
+            lastFuture = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        } else if (ctx.pipeline().get(SslHandler.class) == null) {
+            ctx.write(new DefaultFileRegion(raf.getChannel(), start, length));
+            lastFuture = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        } else {
+            // HttpChunkedInput 读完后自己写出 LastHttpContent
+            lastFuture = ctx.writeAndFlush(new HttpChunkedInput(
+                    new ChunkedNioFile(raf.getChannel(), start, length, CHUNK_SIZE)));
+        }
+        // 下载大文件时客户端不会再发数据，写完之前不能被心跳当作空闲连接关闭
+        HeartbeatHandler.suspendUntil(ctx.channel(), lastFuture);
+        long sent = HttpMethod.HEAD.equals(method) ? 0 : length;
+        lastFuture.addListener(future -> {
+            if (future.isSuccess()) {
+                sentBytes.mark(sent);
+            }
+        });
+        if (!keepAlive) {
+            lastFuture.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    /**
+     * 有 If-None-Match 时只看 ETag，否则看 If-Modified-Since
+     */
+    private static boolean notModified(HttpHeaders headers, String etag, long lastModified) {
+        String ifNoneMatch = headers.get(HttpHeaderNames.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return etagMatches(ifNoneMatch, etag);
+        }
+        long ifModifiedSince = parseDate(headers.get(HttpHeaderNames.IF_MODIFIED_SINCE));
+        return ifModifiedSince >= 0 && lastModified <= ifModifiedSince;
+    }
+
+    private static boolean etagMatches(String header, String etag) {
+        for (String candidate : header.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if ("*".equals(tag) || etag.equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * If-Range 为 ETag 或日期，与当前文件不符时忽略 Range，返回整个文件
+     */
+    private static boolean ifRangeMatches(String ifRange, String etag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return etag.equals(ifRange);
+        }
+        return parseDate(ifRange) == lastModified;
+    }
+
+    /**
+     * 描述：解析单段 Range
+     *
+     * @return {起始, 结束}（含）；多段或格式不支持时返回长度为 0 的数组表示按整个文件返回；不可满足时返回 null
+     */
+    private static long[] parseRange(String range, long fileLength) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, fileLength - suffix);
+                end = fileLength - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? fileLength - 1
+                        : Math.min(Long.parseLong(spec.substring(dash + 1)), fileLength - 1);
+            }
+            if (start >= fileLength || start > end) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private void setValidators(HttpResponse res, String etag, long lastModified) {
+        res.headers().set(HttpHeaderNames.ETAG, etag);
+        res.headers().set(HttpHeaderNames.LAST_MODIFIED, DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                ZonedDateTime.ofInstant(Instant.ofEpochMilli(lastModified), ZoneOffset.UTC)));
+        res.headers().set(HttpHeaderNames.CACHE_CONTROL, "public, max-age=" + maxAgeSeconds);
+    }
+
+    private static long parseDate(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 按请求的文件名取类型，按内容寻址存放的文件本身没有后缀
+     */
+    private static String contentType(String fileName) {
+        String type = URLConnection.getFileNameMap().getContentTypeFor(fileName);
+        return type == null ? "application/octet-stream" : type;
+    }
+
+    private static void sendStatus(ChannelHandlerContext ctx, FullHttpRequest req, HttpResponseStatus status,
+                                   String contentRange) {
+        DefaultFullHttpResponse res = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status,
+                Unpooled.copiedBuffer(status.toString(), CharsetUtil.UTF_8));
+        res.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=utf-8");
+        if (contentRange != null) {
+            res.headers().set(HttpHeaderNames.CONTENT_RANGE, contentRange);
+        }
+        HttpUtil.setContentLength(res, res.content().readableBytes());
+        send(ctx, req, res);
+    }
+
+    private static void send(ChannelHandlerContext ctx, FullHttpRequest req, HttpResponse res) {
+        if (!(res instanceof DefaultFullHttpResponse) || res.headers().get(HttpHeaderNames.CONTENT_LENGTH) == null) {
+            HttpUtil.setContentLength(res, 0);
+        }
+        ChannelFuture f = ctx.writeAndFlush(res);
+        if (!HttpUtil.isKeepAlive(req)) {
+            f.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package com.zz.chatroom.web.websocket;
 
 import io.netty.channel.ChannelPipeline;
-import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutorGroup;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import io.netty.channel.ChannelHandler;
@@ -13,13 +16,15 @@ import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.stream.ChunkedWriteHandler;
 
-import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 /**
  * @author Administrator
  */
 @Component
 public class WebSocketChildChannelHandler extends ChannelInitializer<SocketChannel> {
+
     @Autowired()
     @Qualifier("webSocketServerHandler")
     private ChannelHandler webSocketServerHandler;
@@ -28,15 +33,67 @@ public class WebSocketChildChannelHandler extends ChannelInitializer<SocketChann
     @Qualifier("httpRequestHandler")
     private ChannelHandler httpRequestHandler;
 
+    @Autowired()
+    @Qualifier("chatCommandDecoder")
+    private ChannelHandler chatCommandDecoder;
+
+    @Autowired
+    private HeartbeatManager heartbeatManager;
+
+    /**
+     * 业务线程数，0 表示业务处理直接跑在 Netty I/O 线程上
+     */
+    @Value("${websocket.business.threads}")
+    private int businessThreads;
+
+    /**
+     * flush 合并：攒够多少次 flush 立即刷出，0 表示不合并；最长延迟(微秒)
+     */
+    @Value("${websocket.flush.maxPendingFlushes}")
+    private int flushMaxPendingFlushes;
+    @Value("${websocket.flush.maxDelayMicros}")
+    private long flushMaxDelayMicros;
+
+    /**
+     * 业务线程组：ChatService 中有阻塞的数据库调用，放到独立线程组中执行，避免阻塞 NioEventLoop。
+     * 同一个连接的所有事件固定由组内同一个 EventExecutor 处理，保证同一用户的消息顺序。
+     */
+    private EventExecutorGroup businessGroup;
+
+    @PostConstruct
+    public void init() {
+        if (businessThreads > 0) {
+            businessGroup = new DefaultEventExecutorGroup(businessThreads, new DefaultThreadFactory("websocket-business"));
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (businessGroup != null) {
+            businessGroup.shutdownGracefully();
+        }
+    }
+
+    /**
+     * 业务线程组，业务处理跑在 I/O 线程上时为 null
+     */
+    public EventExecutorGroup getBusinessGroup() {
+        return businessGroup;
+    }
+
     /**
      * Inbound 执行顺序，由上到下。Outbound执行顺序由下道上，
      */
     @Override
     protected void initChannel(SocketChannel ch) throws Exception {
         ChannelPipeline pipeline = ch.pipeline();
+        //心跳检测：共用时间轮定期 ping，超时无任何数据就断开
+        pipeline.addLast("heartbeat", heartbeatManager.newHandler());
+        // 出站 flush 合并，放在最靠近 socket 的位置，文本帧、ping/pong 都经过它
+        if (flushMaxPendingFlushes > 1) {
+            pipeline.addLast("flush-coalescing", new FlushCoalescingHandler(flushMaxPendingFlushes, flushMaxDelayMicros));
+        }
         pipeline
-                //心跳检测 10秒无任何响应就断开
-                .addLast(new IdleStateHandler(40, 40, 0, TimeUnit.SECONDS))
                 // HTTP编码解码器
                 .addLast("http-codec", new HttpServerCodec())
                 // 把HTTP头、HTTP体拼成完整的HTTP请求
@@ -44,7 +101,10 @@ public class WebSocketChildChannelHandler extends ChannelInitializer<SocketChann
                 // 方便大文件传输，不过实质上都是短的文本数据 主要针对SSL加密解密。
                 .addLast("http-chunked", new ChunkedWriteHandler())
                 .addLast("http-handler", httpRequestHandler)
-                .addLast("websocket-handler", webSocketServerHandler);
+                // 文本帧直接解码成 ChatCommand，非法消息在 I/O 线程上就被拒绝
+                .addLast("chat-decoder", chatCommandDecoder)
+                // 业务处理，businessGroup 为 null 时仍在 I/O 线程上执行
+                .addLast(businessGroup, "websocket-handler", webSocketServerHandler);
     }
 
 }
@@ -7,12 +7,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler;
-import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.FixedRecvByteBufAllocator;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.EventExecutor;
 import io.netty.util.concurrent.Future;
-import org.springframework.beans.factory.annotation.Qualifier;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * 描述: Netty WebSocket服务器
@@ -27,10 +27,15 @@ public class WebSocketServer implements Runnable {
     private EventLoopGroup workerGroup;
     @Autowired
     private ServerBootstrap serverBootstrap;
+    @Autowired
+    private NettyTransport nettyTransport;
 
     private int port;
     private ChannelHandler childChannelHandler;
-    private ChannelFuture serverChannelFuture;
+    /**
+     * SO_REUSEPORT 时同一端口绑定多次，每个 boss 线程一个监听 channel
+     */
+    private final List<ChannelFuture> serverChannelFutures = new ArrayList<>();
 
     public WebSocketServer() {
 
@@ -65,22 +70,24 @@ public class WebSocketServer implements Runnable {
             long begin = System.currentTimeMillis();
             //boss辅助客户端的tcp连接请求  worker负责与客户端之前的读写操作
             serverBootstrap.group(bossGroup, workerGroup)
-                    //配置客户端的channel类型
-                    .channel(NioServerSocketChannel.class)
-                    //配置TCP参数，握手字符串长度设置
-                    .option(ChannelOption.SO_BACKLOG, 1024)
-                    //TCP_NODELAY算法，尽可能发送大块数据，减少充斥的小块数据
-                    .option(ChannelOption.TCP_NODELAY, true)
-                    //开启心跳包活机制，就是客户端、服务端建立连接处于ESTABLISHED状态，超过2小时没有交流，机制会被启动
-                    .childOption(ChannelOption.SO_KEEPALIVE, true)
-                    //配置固定长度接收缓存区分配器
-                    .childOption(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(592048))
                     //绑定I/O事件的处理类,WebSocketChildChannelHandler中定义
                     .childHandler(childChannelHandler);
+            //channel类型、TCP参数、缓冲区分配器由传输层配置
+            nettyTransport.configure(serverBootstrap);
+
+            int binds = 1;
+            if (nettyTransport.isReusePort()) {
+                binds = 0;
+                for (EventExecutor ignored : bossGroup) {
+                    binds++;
+                }
+            }
+            for (int i = 0; i < binds; i++) {
+                serverChannelFutures.add(serverBootstrap.bind(port).sync());
+            }
             long end = System.currentTimeMillis();
-            logger.info("Netty Websocket服务器启动完成，耗时 " + (end - begin) + " ms，已绑定端口 " + port + " 阻塞式等候客户端连接");
-
-            serverChannelFuture = serverBootstrap.bind(port).sync();
+            logger.info("Netty Websocket服务器启动完成，耗时 " + (end - begin) + " ms，已绑定端口 " + port
+                    + "（" + binds + " 个监听channel）阻塞式等候客户端连接");
         } catch (Exception e) {
             logger.info(e.getMessage());
             bossGroup.shutdownGracefully();
@@ -102,7 +109,9 @@ public class WebSocketServer implements Runnable {
      * 会造成内存泄漏。
      */
     public void close() {
-        serverChannelFuture.channel().close();
+        for (ChannelFuture serverChannelFuture : serverChannelFutures) {
+            serverChannelFuture.channel().close();
+        }
         Future<?> bossGroupFuture = bossGroup.shutdownGracefully();
         Future<?> workerGroupFuture = workerGroup.shutdownGracefully();
 
@@ -1,32 +1,29 @@
 package com.zz.chatroom.web.websocket;
 
-import com.zz.chatroom.util.ResponseJson;
+import com.zz.chatroom.common.metrics.Meter;
+import com.zz.chatroom.common.metrics.MetricsRegistry;
 import com.zz.chatroom.service.ChatService;
+import com.zz.chatroom.util.ChatCommand;
 import com.zz.chatroom.util.Constant;
 import io.netty.handler.codec.http.websocketx.*;
-import io.netty.handler.timeout.IdleStateEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
-import com.alibaba.fastjson.JSONObject;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.ChannelHandler.Sharable;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
 import java.util.concurrent.atomic.AtomicInteger;
 
 @Component
 @Sharable
-public class WebSocketServerHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
+public class WebSocketServerHandler extends SimpleChannelInboundHandler<Object> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(WebSocketServerHandler.class);
     /**
-     *  这里用来对连接数进行记数,每两秒输出到控制台
+     *  这里用来对连接数进行记数，通过 MetricsRegistry 的 websocket_connections_active 指标提供
      *  AtomicInteger是一个提供原子操作的Integer类，通过线程安全的方式操作加减。
      *  AtomicInteger是在使用非阻塞算法实现并发控制，在一些高并发程序中非常适合，
      */
@@ -35,11 +32,16 @@ public class WebSocketServerHandler extends SimpleChannelInboundHandler<WebSocke
 
     @Autowired
     private ChatService chatService;
-    private static SimpleDateFormat SDF = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-    static {
-        Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(() -> {
-            System.out.println("当前websocket连接数: " + nConnection.get()+"当前时间"+ SDF.format(new Date()));
-        }, 0, 10, TimeUnit.SECONDS);
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    private Meter unwritableMeter;
+
+    @PostConstruct
+    public void init() {
+        metricsRegistry.gauge("websocket_connections_active", "当前 TCP 连接数（含尚未登记的连接）", nConnection::get);
+        unwritableMeter = metricsRegistry.meter("websocket_unwritable",
+                "连接因写缓冲超过高水位变为不可写的次数");
     }
 
 //
@@ -50,15 +52,19 @@ public class WebSocketServerHandler extends SimpleChannelInboundHandler<WebSocke
 
     /**
      * 描述：读取完连接的消息后，对消息进行处理。
-     * 这里主要是处理WebSocket请求
+     * 文本消息已由 ChatCommandDecoder 解码成 ChatCommand，其余为 WebSocket 控制帧
      */
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame frame) throws Exception {
-        handlerWebSocketFrame(ctx, frame);
+    protected void channelRead0(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof ChatCommand) {
+            handlerChatCommand(ctx, (ChatCommand) msg);
+        } else if (msg instanceof WebSocketFrame) {
+            handlerWebSocketFrame(ctx, (WebSocketFrame) msg);
+        }
     }
 
     /**
-     * 描述：处理WebSocketFrame
+     * 描述：处理WebSocket控制帧
      *
      * @param ctx
      * @param frame
@@ -78,52 +84,47 @@ public class WebSocketServerHandler extends SimpleChannelInboundHandler<WebSocke
         }
         // ping请求
         if (frame instanceof PingWebSocketFrame) {
-            ctx.channel().write(new PongWebSocketFrame(frame.content().retain()));
+            ctx.channel().writeAndFlush(new PongWebSocketFrame(frame.content().retain()));
             return;
         }
         // 只支持文本格式，不支持二进制消息
-        if (!(frame instanceof TextWebSocketFrame)) {
+        if (!(frame instanceof PongWebSocketFrame)) {
             sendErrorMessage(ctx, "仅支持文本(Text)格式，不支持二进制消息");
         }
+    }
 
-        // 客服端发送过来的消息
-        String request = ((TextWebSocketFrame) frame).text();
-        LOGGER.info("服务端收到新信息：" + request);
-        JSONObject param = null;
-//        Message message = new Message();
-//        String jsonString = JSONObject.toJSONString(message);
-        try {
-            param = JSONObject.parseObject(request);
-    /*        param = JSONObject.parseObject(jsonString);*/
-        } catch (Exception e) {
-            sendErrorMessage(ctx, "JSON字符串转换出错！");
-            e.printStackTrace();
-        }
-        if (param == null) {
-            sendErrorMessage(ctx, "参数为空！");
-            return;
-        }
-        String type = param.get("type").toString();
-        switch (type) {
-            case "REGISTER":
-                chatService.register(param, ctx);
-                //离线消息
-                chatService.offlineMessage(param, ctx);
+    /**
+     * 描述：按指令类型分发到业务层
+     *
+     * @param ctx
+     * @param command
+     */
+    private void handlerChatCommand(ChannelHandlerContext ctx, ChatCommand command) {
+        LOGGER.debug("服务端收到新信息，类型为：" + command.getType());
+        switch (command.getType()) {
+            case REGISTER:
+                //离线消息，登记被拒绝时不回放，否则会把其他用户的消息发给这个连接
+                if (chatService.register(command, ctx)) {
+                    chatService.offlineMessage(command, ctx);
+                }
                 break;
-            case "HEART_CLIENT":
-//                chatService.heartBeat();
+            case HEART_CLIENT:
+                //心跳由 HeartbeatHandler 的 ping/pong 负责，旧客户端发来的心跳包直接忽略
                 break;
-            case "SINGLE_SENDING":
-                chatService.singleSend(param, ctx);
+            case SINGLE_SENDING:
+                chatService.singleSend(command, ctx);
                 break;
-            case "GROUP_SENDING":
-                chatService.groupSend(param, ctx);
+            case GROUP_SENDING:
+                chatService.groupSend(command, ctx);
                 break;
-            case "FILE_MSG_SINGLE_SENDING":
-                chatService.fileMsgSingleSend(param, ctx);
+            case FILE_MSG_SINGLE_SENDING:
+                chatService.fileMsgSingleSend(command, ctx);
                 break;
-            case "FILE_MSG_GROUP_SENDING":
-                chatService.fileMsgGroupSend(param, ctx);
+            case FILE_MSG_GROUP_SENDING:
+                chatService.fileMsgGroupSend(command, ctx);
+                break;
+            case ACK:
+                chatService.ack(command, ctx);
                 break;
             default:
                 chatService.typeError(ctx);
@@ -131,34 +132,6 @@ public class WebSocketServerHandler extends SimpleChannelInboundHandler<WebSocke
         }
     }
 
-    /**
-     * 超时处理，如果1分钟没有收到客户端的心跳，就触发; 如果超过3次，则直接关闭;
-     */
-    @Override
-    public void userEventTriggered(ChannelHandlerContext ctx, Object msg) throws Exception {
-        IdleStateEvent event = (IdleStateEvent) msg;
-        switch (event.state()) {//具体业务逻辑具体分析
-            case READER_IDLE:
-                LOGGER.info("已经40秒还没收到客户端发来的心跳，断开连接");
-                chatService.remove(ctx);
-                ctx.close();
-                break;
-            case WRITER_IDLE:
-                LOGGER.info("该客户端已经40秒很久没收到消息了，断开连接");
-                chatService.remove(ctx);
-                ctx.channel().close();
-                break;
-            case ALL_IDLE:
-                LOGGER.info("该客户端很久没有读写了，断开连接");
-                chatService.remove(ctx);
-                ctx.close();
-                break;
-            default:
-                LOGGER.info("异常！");
-
-        }
-    }
-
     /**
      * 描述：客户端断开连接（网络异常等非正常下线则无法感知）
      */
@@ -167,6 +140,22 @@ public class WebSocketServerHandler extends SimpleChannelInboundHandler<WebSocke
         nConnection.decrementAndGet();
         chatService.remove(ctx);
     }
+    /**
+     * 描述：channel 变为不可写时计数，恢复可写时继续被挂起的离线消息回放
+     */
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (!ctx.channel().isWritable()) {
+            unwritableMeter.mark();
+        } else {
+            Runnable replay = ctx.channel().attr(Constant.OFFLINE_REPLAY_ATTR).getAndSet(null);
+            if (replay != null) {
+                replay.run();
+            }
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
     /**
      * 描述：客户端连接
      */
@@ -185,10 +174,7 @@ public class WebSocketServerHandler extends SimpleChannelInboundHandler<WebSocke
     }
 
     private void sendErrorMessage(ChannelHandlerContext ctx, String errorMsg) {
-        String responseJson = new ResponseJson()
-                .error(errorMsg)
-                .toString();
-        ctx.channel().writeAndFlush(new TextWebSocketFrame(responseJson));
+        chatService.sendError(ctx, errorMsg);
     }
     private class Message {
         public String data = "ping";
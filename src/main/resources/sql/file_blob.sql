@@ -0,0 +1,16 @@
+-- 按内容寻址的上传文件（MySQL）
+-- 文件以内容的 SHA-256 为名存放在上传目录下，下载地址为 <hash><原后缀>；同一内容只存一份。
+-- B_REF_COUNT 为引用该文件的 MESSAGES 行数，消息写库后增加；删除消息时应相应减少。
+-- 引用数为 0 且 B_TOUCH_TIME 超过保留时间的文件（上传后没有发出，或引用的消息已全部删除）由后台定期清理。
+-- 此前以 UUID 命名的文件不在此表中，不受影响。
+
+CREATE TABLE FILE_BLOB
+(
+    B_HASH       CHAR(64) NOT NULL COMMENT '内容 SHA-256',
+    B_SIZE       BIGINT   NOT NULL COMMENT '字节数',
+    B_REF_COUNT  INT      NOT NULL DEFAULT 0 COMMENT '引用该文件的消息数',
+    B_TOUCH_TIME DATETIME NOT NULL COMMENT '最近上传时间',
+    PRIMARY KEY (B_HASH),
+    INDEX IDX_FILE_BLOB_ORPHAN (B_REF_COUNT, B_TOUCH_TIME)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4 COMMENT ='上传文件';
@@ -0,0 +1,29 @@
+-- 会话序号与用户确认游标（MySQL 8）
+-- 群消息按 M_GID 递增编号，好友消息按接收者 M_TO_USER_ID 递增编号；
+-- USER_CURSOR 记录每个用户在每个会话中已确认收到的最大序号，UC_CONVERSATION_ID 为群id，0 表示好友消息收件箱。
+-- 上线时按 M_SEQ > 游标 做区间查询，补发的正好是未确认的消息。
+
+ALTER TABLE MESSAGES ADD COLUMN M_SEQ BIGINT NULL;
+
+-- 历史消息补序号
+UPDATE MESSAGES M
+    JOIN (SELECT M_ID, ROW_NUMBER() OVER (PARTITION BY M_GID ORDER BY M_TIME, M_ID) AS SEQ
+          FROM MESSAGES WHERE M_GID IS NOT NULL) T ON M.M_ID = T.M_ID
+SET M.M_SEQ = T.SEQ;
+
+UPDATE MESSAGES M
+    JOIN (SELECT M_ID, ROW_NUMBER() OVER (PARTITION BY M_TO_USER_ID ORDER BY M_TIME, M_ID) AS SEQ
+          FROM MESSAGES WHERE M_GID IS NULL AND M_TO_USER_ID IS NOT NULL) T ON M.M_ID = T.M_ID
+SET M.M_SEQ = T.SEQ;
+
+CREATE INDEX IDX_MESSAGES_TO_SEQ ON MESSAGES (M_TO_USER_ID, M_SEQ);
+CREATE INDEX IDX_MESSAGES_GID_SEQ ON MESSAGES (M_GID, M_SEQ);
+
+CREATE TABLE USER_CURSOR
+(
+    UC_USER_ID         INT    NOT NULL COMMENT '用户ID',
+    UC_CONVERSATION_ID INT    NOT NULL COMMENT '会话：群id，0 为好友消息收件箱',
+    UC_SEQ             BIGINT NOT NULL COMMENT '已确认收到的最大序号',
+    PRIMARY KEY (UC_USER_ID, UC_CONVERSATION_ID)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4 COMMENT ='用户消息确认游标';
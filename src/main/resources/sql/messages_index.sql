@@ -0,0 +1,10 @@
+-- 聊天记录分页索引（MySQL / InnoDB）
+-- 分页按 (M_TIME, M_ID) 游标定位，索引列顺序为 等值条件 + M_TIME + M_ID，
+-- 定位与排序都在索引内完成，每页只回表 pageSize 行，与历史记录总量无关。
+-- InnoDB 二级索引本身带主键 M_ID，这里显式写出以保证排序列完整。
+
+-- 好友聊天记录：WHERE M_FROM_USER_ID = ? AND M_TO_USER_ID = ? ORDER BY M_TIME, M_ID（两个方向各查一次）
+CREATE INDEX IDX_MESSAGES_FROM_TO_TIME ON MESSAGES (M_FROM_USER_ID, M_TO_USER_ID, M_TIME, M_ID);
+
+-- 群聊天记录：WHERE M_GID = ? ORDER BY M_TIME, M_ID
+CREATE INDEX IDX_MESSAGES_GID_TIME ON MESSAGES (M_GID, M_TIME, M_ID);
@@ -98,19 +98,16 @@ var ws = {
                 console.log("连接中！");
             }
         },
-        sendHeartBeat: function () {
-            if (!window.WebSocket) {
-                return;
-            }
+        // 确认已收到的消息序号，群消息带群id，好友消息不带；fromSeq 可选，确认 [fromSeq, seq] 整段
+        ack: function (toGroupId, seq, fromSeq) {
             if (socket.readyState == WebSocket.OPEN) {
                 var data = {
-                    "msg": "ping",
-                    "type": "HEART_BEAT"
+                    "toGroupId": toGroupId,
+                    "seq": seq,
+                    "fromSeq": fromSeq,
+                    "type": "ACK"
                 };
                 socket.send(JSON.stringify(data));
-                heartCheck.reset().start();//服务器不返回数据
-            } else {
-                swal("服务器故障，正在重连！")
             }
         },
 
@@ -425,9 +422,6 @@ function noteOpen() {
         return;
     }
     if (socket.readyState == WebSocket.OPEN) {
-        var fromUserId = userId;
-        var toUserId = $('#toUserId').val();
-        var toGroupId = $('#toGroupId').val();
         // $(".chat-notes").toggle();//改变显示状态
         if ($(".chat-notes").hasClass("show")) {
             // 执行隐藏
@@ -438,58 +432,7 @@ function noteOpen() {
             } else {
                 // 显示
                 $(".chat-notes").show().addClass("show");
-                var data1 = {"toUserId": toUserId, "fromUserId": fromUserId, "groupId": toGroupId};
-                $.ajax({
-                    type: 'POST',
-                    url: 'chatroom/get_chatNotes',
-                    data: JSON.stringify(data1),
-                    contentType: "application/json",
-                    async: true,
-                    success: function (data) {
-                        console.log("获取消息记录...");
-                        console.log(data);
-                        if (data.status === 200) {
-                            var messageInfos = data.data.messageInfos;
-                            var ChatNotesHTML = "";
-                            for (var i = 0; i < messageInfos.length; i++) {
-                                if (messageInfos[i].type == 1 || messageInfos[i].type == 2) {//消息
-                                    ChatNotesHTML +=
-                                        '<li>' +
-                                        '<div class="notes" >' + '<span class="corle">' + messageInfos[i].fromUserName + '&nbsp' + new Date(messageInfos[i].userTime).format("yyyy-MM-dd hh:mm:ss") + '</span>' + '<br/>' +
-                                        '<span style="color:#210A19;font-weight:bold">' + messageInfos[i].content + '</span>' + '</div>' +
-                                        // '<div class="answerHead"><br/><img src="' + fromUserIcon + '"/></div> + '
-                                        '</li>';
-                                }
-                                if (messageInfos[i].type == 3 || messageInfos[i].type == 4) {//文件
-                                    ChatNotesHTML +=
-                                        '<li>' +
-                                        '<div class="notes">' +
-                                        '<span class="corle">' + messageInfos[i].fromUserName + '&nbsp' + new Date(messageInfos[i].userTime).format("yyyy-MM-dd hh:mm:ss") + '</span>' +
-                                        '<div class="note-file" >' +
-                                        '<div class="media">' +
-                                        '<div class="media-body"> ' +
-                                        '<h5 class="media-heading">' + messageInfos[i].fileName + '</h5>' +
-                                        '<span>' + messageInfos[i].fileSize + '</span>' +
-                                        '</div>' +
-                                        // '<div class="note-file-img">' +
-                                        '<a href="' + messageInfos[i].fileUrl + '" download="" class="media-left">' +
-                                        '<i class="glyphicon glyphicon-file" style="font-size:28pt;"></i>' +
-                                        '</a>' +
-                                        '</div>' +
-                                        '</div>' +
-                                        '</div>' +
-                                        '</li>';
-                                }
-                            }
-
-                            $('.notesList ul').append(ChatNotesHTML);
-                            // 绑定好友框点击事件
-                            $('.conLeft ul li').on('click', friendLiClick);
-                        } else {
-                            swal("data.msg")
-                        }
-                    }
-                });
+                loadChatNotes(null);
             }
         }
     } else {
@@ -497,6 +440,81 @@ function noteOpen() {
     }
 }
 
+/**
+ * 分页加载消息记录，cursor 为空时加载最新一页，否则加载游标之前更早的一页，
+ * 结果插到列表顶部，还有更早的记录时在顶部显示“查看更早的记录”
+ */
+var chatNotesCursor = null;
+
+function loadChatNotes(cursor) {
+    var data1 = {
+        "toUserId": $('#toUserId').val(),
+        "fromUserId": userId,
+        "groupId": $('#toGroupId').val(),
+        "direction": "older",
+        "pageSize": 50
+    };
+    if (cursor) {
+        data1.cursorTime = cursor.cursorTime;
+        data1.cursorId = cursor.cursorId;
+    }
+    $.ajax({
+        type: 'POST',
+        url: 'chatroom/get_chatNotes',
+        data: JSON.stringify(data1),
+        contentType: "application/json",
+        async: true,
+        success: function (data) {
+            console.log("获取消息记录...");
+            console.log(data);
+            if (data.status === 200) {
+                var messageInfos = data.data.messageInfos;
+                var ChatNotesHTML = "";
+                for (var i = 0; i < messageInfos.length; i++) {
+                    if (messageInfos[i].type == 1 || messageInfos[i].type == 2) {//消息
+                        ChatNotesHTML +=
+                            '<li>' +
+                            '<div class="notes" >' + '<span class="corle">' + messageInfos[i].fromUserName + '&nbsp' + new Date(messageInfos[i].userTime).format("yyyy-MM-dd hh:mm:ss") + '</span>' + '<br/>' +
+                            '<span style="color:#210A19;font-weight:bold">' + messageInfos[i].content + '</span>' + '</div>' +
+                            '</li>';
+                    }
+                    if (messageInfos[i].type == 3 || messageInfos[i].type == 4) {//文件
+                        ChatNotesHTML +=
+                            '<li>' +
+                            '<div class="notes">' +
+                            '<span class="corle">' + messageInfos[i].fromUserName + '&nbsp' + new Date(messageInfos[i].userTime).format("yyyy-MM-dd hh:mm:ss") + '</span>' +
+                            '<div class="note-file" >' +
+                            '<div class="media">' +
+                            '<div class="media-body"> ' +
+                            '<h5 class="media-heading">' + messageInfos[i].fileName + '</h5>' +
+                            '<span>' + messageInfos[i].fileSize + '</span>' +
+                            '</div>' +
+                            '<a href="' + messageInfos[i].fileUrl + '" download="" class="media-left">' +
+                            '<i class="glyphicon glyphicon-file" style="font-size:28pt;"></i>' +
+                            '</a>' +
+                            '</div>' +
+                            '</div>' +
+                            '</div>' +
+                            '</li>';
+                    }
+                }
+
+                $('.notesList ul .notes-more').remove();
+                $('.notesList ul').prepend(ChatNotesHTML);
+                chatNotesCursor = data.data.olderCursor;
+                if (data.data.hasMore) {
+                    $('.notesList ul').prepend('<li class="notes-more"><a href="javascript:void(0)">查看更早的记录</a></li>');
+                    $('.notesList ul .notes-more a').on('click', function () {
+                        loadChatNotes(chatNotesCursor);
+                    });
+                }
+            } else {
+                swal(data.msg)
+            }
+        }
+    });
+}
+
     $(".myfile").fileinput({
         uploadUrl: "chatroom/upload",
         uploadAsync: true, //默认异步上传
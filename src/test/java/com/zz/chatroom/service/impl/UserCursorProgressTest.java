@@ -0,0 +1,61 @@
+package com.zz.chatroom.service.impl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 描述: UserCursorServiceImpl.Progress 的游标前进规则
+ */
+public class UserCursorProgressTest {
+
+    private static final int MAX_AHEAD = 10;
+
+    @Test
+    public void inOrderAckAdvancesCursor() {
+        UserCursorServiceImpl.Progress progress = new UserCursorServiceImpl.Progress(5, MAX_AHEAD);
+        assertEquals(6, progress.ack(6, 6));
+        assertEquals(7, progress.ack(7, 7));
+        assertEquals(-1, progress.ack(7, 7));
+        assertEquals(-1, progress.ack(3, 3));
+        assertEquals(7, progress.getCursor());
+    }
+
+    @Test
+    public void outOfOrderAckWaitsForGap() {
+        UserCursorServiceImpl.Progress progress = new UserCursorServiceImpl.Progress(5, MAX_AHEAD);
+        assertEquals(-1, progress.ack(8, 8));
+        assertEquals(-1, progress.ack(7, 7));
+        assertEquals(5, progress.getCursor());
+        assertEquals(8, progress.ack(6, 6));
+        assertEquals(-1, progress.ack(10, 10));
+        assertEquals(10, progress.ack(9, 9));
+        assertEquals(11, progress.ack(11, 11));
+    }
+
+    @Test
+    public void batchAckMarksWholeRange() {
+        UserCursorServiceImpl.Progress progress = new UserCursorServiceImpl.Progress(0, MAX_AHEAD);
+        assertEquals(100, progress.ack(1, 100));
+        assertEquals(101, progress.ack(101, 101));
+        assertEquals(200, progress.ack(102, 200));
+    }
+
+    @Test
+    public void batchAckAheadOfCursorJoinsLater() {
+        UserCursorServiceImpl.Progress progress = new UserCursorServiceImpl.Progress(0, MAX_AHEAD);
+        assertEquals(-1, progress.ack(4, 8));
+        assertEquals(2, progress.ack(1, 2));
+        assertEquals(8, progress.ack(3, 3));
+    }
+
+    @Test
+    public void gapLargerThanMaxAheadSkipsForward() {
+        UserCursorServiceImpl.Progress progress = new UserCursorServiceImpl.Progress(0, MAX_AHEAD);
+        assertEquals(-1, progress.ack(5, 5));
+        assertEquals(0, progress.getCursor());
+        assertEquals(30, progress.ack(30, 30));
+        assertEquals(-1, progress.ack(5, 5));
+        assertEquals(31, progress.ack(31, 31));
+    }
+}